@@ -2,17 +2,28 @@ package net.jonathangiles.tools.codegen;
 
 import net.jonathangiles.tools.codegen.annotations.*;
 import net.jonathangiles.tools.codegen.models.HttpRequestContext;
+import net.jonathangiles.tools.codegen.models.QueryParameter;
 import net.jonathangiles.tools.codegen.models.Substitution;
 import net.jonathangiles.tools.codegen.models.TemplateInput;
+import net.jonathangiles.tools.codegen.models.UrlTemplate;
+import net.jonathangiles.tools.codegen.templating.GeneratedSource;
+import net.jonathangiles.tools.codegen.templating.ServiceInterfaceFactoriesGenerator;
 import net.jonathangiles.tools.codegen.templating.TemplateProcessor;
+import net.jonathangiles.tools.codegen.utils.Fingerprints;
+import net.jonathangiles.tools.codegen.utils.MethodSizeCheck;
 import net.jonathangiles.tools.codegen.utils.PathBuilder;
+import net.jonathangiles.tools.codegen.utils.ProcessorTimings;
+import net.jonathangiles.tools.codegen.utils.ProcessorTimings.Phase;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -20,22 +31,152 @@ import java.util.stream.Collectors;
 @SupportedAnnotationTypes("net.jonathangiles.tools.codegen.annotations.ServiceInterface")
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
 public class AnnotationProcessor extends AbstractProcessor {
+    /**
+     * The processor option that controls whether a ServiceInterfaceFactories registry is generated for each package.
+     * This defaults to true. Setting it to false allows Gradle to process each service interface in isolation.
+     */
+    public static final String GENERATE_FACTORIES_OPTION = "net.jonathangiles.codegen.generateFactories";
+
+    /**
+     * The processor option that, when set to true, renders the generated sources of each round in parallel on the
+     * common fork-join pool. Models are still built, and files are still written, on the compiler thread.
+     */
+    public static final String PARALLEL_OPTION = "net.jonathangiles.codegen.parallel";
+
+    /**
+     * The processor option that, when set to true, reports the time spent in each phase of code generation as a note
+     * once processing is over.
+     */
+    public static final String TIMINGS_OPTION = "net.jonathangiles.codegen.timings";
+
+    /**
+     * The processor option that, when set to true, makes each generated method record its call count, error counts
+     * and latency, which are then available from the static metrics() method of the generated implementation.
+     */
+    public static final String METRICS_OPTION = "net.jonathangiles.codegen.metrics";
+
+    /**
+     * The processor option that sets the size in bytes of bytecode above which a method of a generated implementation
+     * is reported with a warning, as HotSpot will not inline it. This defaults to 325, HotSpot's default
+     * -XX:FreqInlineSize, and setting it to 0 turns the check off.
+     */
+    public static final String MAX_METHOD_SIZE_OPTION = "net.jonathangiles.codegen.maxMethodSize";
+
+    // the options that Gradle uses to ask a 'dynamic' incremental processor which mode it is running in
+    private static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+    private static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+    private final ServiceInterfaceFactoriesGenerator serviceInterfaceFactories = new ServiceInterfaceFactoriesGenerator();
+    private final ProcessorTimings timings = new ProcessorTimings();
+    private MethodSizeCheck methodSizeCheck;
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        // each implementation is generated from exactly one service interface, which makes this processor isolating,
+        // except for the registries which depend on every service interface in their package
+        Set<String> options = new HashSet<>();
+        options.add(GENERATE_FACTORIES_OPTION);
+        options.add(PARALLEL_OPTION);
+        options.add(TIMINGS_OPTION);
+        options.add(METRICS_OPTION);
+        options.add(MAX_METHOD_SIZE_OPTION);
+        options.add(isGenerateFactories() ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+        return options;
+    }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+
+        String maxMethodSize = processingEnv.getOptions().get(MAX_METHOD_SIZE_OPTION);
+        int limit = MethodSizeCheck.FREQ_INLINE_SIZE;
+        if (maxMethodSize != null) {
+            try {
+                limit = Integer.parseInt(maxMethodSize.trim());
+            } catch (NumberFormatException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Invalid value '" + maxMethodSize
+                        + "' for " + MAX_METHOD_SIZE_OPTION + ", which must be a number of bytes");
+            }
+        }
+        if (limit > 0) {
+            methodSizeCheck = MethodSizeCheck.register(processingEnv, limit);
+        }
+    }
+
+    private boolean isGenerateFactories() {
+        return processingEnv == null || !"false".equalsIgnoreCase(processingEnv.getOptions().get(GENERATE_FACTORIES_OPTION));
+    }
+
+    /**
+     * Returns the time spent in each phase of code generation so far, for tools that run the processor in-process.
+     */
+    public ProcessorTimings getTimings() {
+        return timings;
+    }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         // We iterate through each interface annotated with @ServiceInterface separately.
         // This outer for-loop is not strictly necessary, as we only have one annotation that we care about
         // (@ServiceInterface), but we'll leave it here for now
-        annotations.stream()
+        List<GeneratedSource> sources = annotations.stream()
                 .map(roundEnv::getElementsAnnotatedWith)
                 .flatMap(Set::stream)
                 .filter(element -> element.getKind().isInterface())
-                .forEach(this::processServiceInterface);
+                .map(this::processServiceInterface)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        writeSources(sources);
+
+        // each package with service interfaces gets a registry of their implementations, and the index of all
+        // registries is written once there is nothing more to process
+        if (isGenerateFactories()) {
+            serviceInterfaceFactories.writeRegistries(processingEnv);
+            if (roundEnv.processingOver()) {
+                serviceInterfaceFactories.writeIndex(processingEnv);
+            }
+        }
+
+        if (roundEnv.processingOver() && Boolean.parseBoolean(processingEnv.getOptions().get(TIMINGS_OPTION))) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Code generation timings: " + timings);
+        }
 
         return true;
     }
 
-    private void processServiceInterface(Element serviceInterface) {
+    private void writeSources(List<GeneratedSource> sources) {
+        if (sources.size() > 1 && Boolean.parseBoolean(processingEnv.getOptions().get(PARALLEL_OPTION))) {
+            // rendering does not touch the compiler, so it can happen on other threads, but the Filer is not
+            // thread-safe so the sources are written back on this thread, in their original order
+            long start = System.nanoTime();
+            List<String> rendered = sources.parallelStream()
+                    .map(GeneratedSource::render)
+                    .collect(Collectors.toList());
+            timings.add(Phase.RENDERING, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < sources.size(); i++) {
+                sources.get(i).write(processingEnv, rendered.get(i));
+            }
+            timings.add(Phase.WRITING, System.nanoTime() - start);
+        } else {
+            for (GeneratedSource source : sources) {
+                long start = System.nanoTime();
+                String rendered = source.render();
+                long rendering = System.nanoTime();
+                source.write(processingEnv, rendered);
+                timings.add(Phase.RENDERING, rendering - start);
+                timings.add(Phase.WRITING, System.nanoTime() - rendering);
+            }
+        }
+    }
+
+    // builds the model of the service interface and its implementation, returning null if it is up-to-date
+    private GeneratedSource processServiceInterface(Element serviceInterface) {
+        // path building happens while the model is extracted, but is timed separately
+        long start = System.nanoTime();
+        long pathBuildingBefore = timings.getNanos(Phase.PATH_BUILDING);
+
         TemplateInput templateInput = new TemplateInput();
 
         // work out some global details about this service interface
@@ -51,14 +192,19 @@ public class AnnotationProcessor extends AbstractProcessor {
         final String serviceInterfaceImplFQN = serviceInterfaceFQN + "Impl";
         final String serviceInterfaceImplShortName = serviceInterfaceImplFQN.substring(lastDot + 1);
 
+        templateInput.setServiceInterfaceElement((TypeElement) serviceInterface);
         templateInput.setPackageName(packageName);
         templateInput.setServiceInterfaceFQN(serviceInterfaceFQN);
         templateInput.setServiceInterfaceShortName(serviceInterfaceShortName);
         templateInput.setServiceInterfaceImplShortName(serviceInterfaceImplShortName);
+        templateInput.setMetricsEnabled(Boolean.parseBoolean(processingEnv.getOptions().get(METRICS_OPTION)));
 
         // Read ServiceInterface.host() value from any enclosed interfaces
         if (serviceInterface.getAnnotation(ServiceInterface.class) != null) {
             templateInput.setHost(serviceInterface.getAnnotation(ServiceInterface.class).host());
+            templateInput.getAsyncMethodTypes().addAll(Arrays.asList(serviceInterface.getAnnotation(ServiceInterface.class).asyncMethods()));
+            templateInput.setTracingEnabled(serviceInterface.getAnnotation(ServiceInterface.class).tracing());
+            templateInput.setBatchMethodsEnabled(serviceInterface.getAnnotation(ServiceInterface.class).batchMethods());
         }
 
         // add all imports
@@ -73,9 +219,29 @@ public class AnnotationProcessor extends AbstractProcessor {
                 .map(e -> createHttpRequestContext(e, templateInput))
                 .collect(Collectors.toList()));
 
-        TemplateProcessor.getInstance().process(templateInput, processingEnv);
+        serviceInterfaceFactories.add(templateInput);
 
-        // format the generated code
+        // an implementation that is up-to-date is still compiled, and so still checked
+        if (methodSizeCheck != null) {
+            methodSizeCheck.add(serviceInterfaceImplFQN, serviceInterface);
+        }
+
+        // the implementation is only generated if its input has changed since it was last generated
+        TemplateProcessor templateProcessor = TemplateProcessor.getInstance();
+        templateInput.setFingerprint(Fingerprints.of(templateInput, templateProcessor.getClass().getName()));
+        boolean upToDate = Fingerprints.isUpToDate(processingEnv, serviceInterfaceImplFQN, templateInput.getFingerprint());
+
+        long modelled = System.nanoTime();
+        timings.add(Phase.MODEL_EXTRACTION, modelled - start - (timings.getNanos(Phase.PATH_BUILDING) - pathBuildingBefore));
+        if (upToDate) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "Skipping " + serviceInterfaceImplFQN + " as it is up-to-date", serviceInterface);
+            return null;
+        }
+
+        GeneratedSource source = templateProcessor.generate(templateInput, processingEnv);
+        timings.add(Phase.RENDERING, System.nanoTime() - modelled);
+        return source;
     }
 
     private void addImports(TemplateInput templateInput) {
@@ -85,14 +251,15 @@ public class AnnotationProcessor extends AbstractProcessor {
         templateInput.addImport("com.azure.core.http.HttpMethod");
         templateInput.addImport("com.azure.core.http.HttpResponse");
         templateInput.addImport("com.azure.core.http.HttpRequest");
-        templateInput.addImport("java.util.Map");
-        templateInput.addImport("java.util.HashMap");
+        templateInput.addImport("net.jonathangiles.tools.codegen.runtime.UnexpectedStatusCodeException");
+        templateInput.addImport("net.jonathangiles.tools.codegen.runtime.WeakInstanceCache");
         templateInput.addImport("java.util.Arrays");
     }
 
     private HttpRequestContext createHttpRequestContext(ExecutableElement requestMethod, TemplateInput templateInput) {
         HttpRequestContext method = new HttpRequestContext();
         method.setHost(templateInput.getHost());
+        method.setMethodElement(requestMethod);
         method.setMethodName(requestMethod.getSimpleName().toString());
 
         final HttpRequestInformation httpRequestInfo = requestMethod.getAnnotation(HttpRequestInformation.class);
@@ -100,8 +267,106 @@ public class AnnotationProcessor extends AbstractProcessor {
         method.setHttpMethod(httpRequestInfo.method());
         method.setExpectedStatusCodes(httpRequestInfo.expectedStatusCodes());
 
+        // hedging sends the same request twice, so it is only allowed for methods that are idempotent and have no body
+        final Hedged hedged = requestMethod.getAnnotation(Hedged.class);
+        if (hedged != null) {
+            if (httpRequestInfo.method() != HttpMethod.GET && httpRequestInfo.method() != HttpMethod.HEAD) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Hedged can only be used on GET and "
+                        + "HEAD methods, but '" + method.getMethodName() + "' is " + httpRequestInfo.method(), requestMethod);
+            } else if (hedged.percentile() <= 0 || hedged.percentile() >= 100 || hedged.delayMillis() < 0) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Hedged requires a percentile between "
+                        + "0 and 100 (exclusive) and a delay that is not negative", requestMethod);
+            } else {
+                method.setHedging(new HttpRequestContext.Hedging(hedged.percentile(), hedged.delayMillis()));
+            }
+        }
+
+        // request headers are given as 'Name: value' strings, and are split up here so they can be pre-built
+        for (String requestHeader : httpRequestInfo.requestHeaders()) {
+            int colon = requestHeader.indexOf(':');
+            if (colon <= 0) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Invalid request header '"
+                        + requestHeader + "', expected the format 'Name: value'", requestMethod);
+                continue;
+            }
+            method.addRequestHeader(requestHeader.substring(0, colon).trim(), requestHeader.substring(colon + 1).trim());
+        }
+
         templateInput.addImport(requestMethod.getReturnType());
         method.setMethodReturnType(requestMethod.getReturnType().toString());
+        method.setMethodReturnTypeMirror(requestMethod.getReturnType());
+        method.setReturnValueWireType(getReturnValueWireType(httpRequestInfo));
+        method.setResponseStrategy(getResponseStrategy(requestMethod.getReturnType()));
+
+        // a HEAD response never has a body, so all that a HEAD method can return is whether the resource exists
+        if (httpRequestInfo.method() == HttpMethod.HEAD && method.getResponseStrategy() != HttpRequestContext.ResponseStrategy.NONE) {
+            if (requestMethod.getReturnType().getKind() == TypeKind.BOOLEAN
+                    || isSameType(requestMethod.getReturnType(), "java.lang.Boolean")) {
+                method.setResponseStrategy(HttpRequestContext.ResponseStrategy.EXISTS);
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "HEAD methods must return void or "
+                        + "boolean, as a HEAD response has no body, but '" + method.getMethodName() + "' returns "
+                        + requestMethod.getReturnType(), requestMethod);
+            }
+        }
+
+        // a paged method returns its items lazily, so it has a page type of its own rather than a response strategy
+        final Paged paged = requestMethod.getAnnotation(Paged.class);
+        if (paged != null) {
+            TypeMirror itemType = getPagedItemType(requestMethod.getReturnType());
+            if (httpRequestInfo.method() != HttpMethod.GET) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Paged can only be used on GET "
+                        + "methods, but '" + method.getMethodName() + "' is " + httpRequestInfo.method(), requestMethod);
+            } else if (itemType == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Paged methods must return an "
+                        + "Iterable, Stream or PagedItems of their items, but '" + method.getMethodName() + "' returns "
+                        + requestMethod.getReturnType(), requestMethod);
+            } else if (requestMethod.getAnnotation(Cacheable.class) != null || requestMethod.getAnnotation(Coalesced.class) != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Paged cannot be combined with "
+                        + "@Cacheable or @Coalesced", requestMethod);
+            } else if (paged.itemsName().isEmpty() || paged.nextLinkName().isEmpty()
+                    || paged.itemsName().equals(paged.nextLinkName())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Paged requires different names for "
+                        + "the items and next link properties", requestMethod);
+            } else {
+                method.setPaging(new HttpRequestContext.Paging(itemType, paged.itemsName(), paged.nextLinkName(),
+                        paged.continuationTokenQueryParam(), paged.prefetch()));
+            }
+        }
+
+        // only a body that is read fully can be cached, and only a GET can be revalidated
+        final Cacheable cacheable = requestMethod.getAnnotation(Cacheable.class);
+        if (cacheable != null) {
+            if (httpRequestInfo.method() != HttpMethod.GET) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Cacheable can only be used on GET "
+                        + "methods, but '" + method.getMethodName() + "' is " + httpRequestInfo.method(), requestMethod);
+            } else if (method.getResponseStrategy() != HttpRequestContext.ResponseStrategy.DESERIALIZE
+                    && method.getResponseStrategy() != HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Cacheable can only be used on methods "
+                        + "that return a deserialized value or a ByteBuffer, but '" + method.getMethodName()
+                        + "' returns " + requestMethod.getReturnType(), requestMethod);
+            } else if (cacheable.maxEntries() <= 0) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Cacheable requires maxEntries to be "
+                        + "positive", requestMethod);
+            } else {
+                method.setCacheMaxEntries(cacheable.maxEntries());
+            }
+        }
+
+        // coalesced calls share a response body, so it has to be read fully before each caller deserializes it
+        if (requestMethod.getAnnotation(Coalesced.class) != null) {
+            if (httpRequestInfo.method() != HttpMethod.GET) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Coalesced can only be used on GET "
+                        + "methods, but '" + method.getMethodName() + "' is " + httpRequestInfo.method(), requestMethod);
+            } else if (method.getResponseStrategy() != HttpRequestContext.ResponseStrategy.DESERIALIZE
+                    && method.getResponseStrategy() != HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Coalesced can only be used on methods "
+                        + "that return a deserialized value or a ByteBuffer, but '" + method.getMethodName()
+                        + "' returns " + requestMethod.getReturnType(), requestMethod);
+            } else {
+                method.setCoalesced(true);
+            }
+        }
         requestMethod.getParameters().forEach(param -> {
             HostParam hostParam = param.getAnnotation(HostParam.class);
             PathParam pathParam = param.getAnnotation(PathParam.class);
@@ -117,7 +382,7 @@ public class AnnotationProcessor extends AbstractProcessor {
                 method.addSubstitution(new Substitution(
                         hostParam.value(),
                         param.getSimpleName().toString(),
-                        hostParam.encoded()));
+                        !hostParam.encoded()));
             } else if (pathParam != null) {
                 // a PathParam is a substitution into the path value. Depending on the path value,
                 // there may be zero or more {} delimited substitutions, so we need to handle this
@@ -125,12 +390,16 @@ public class AnnotationProcessor extends AbstractProcessor {
                 method.addSubstitution(new Substitution(
                         pathParam.value(),
                         param.getSimpleName().toString(),
-                        pathParam.encoded()));
+                        !pathParam.encoded()));
             } else if (headerParam != null) {
                 method.addHeader(headerParam.value(), param.getSimpleName().toString());
             } else if (queryParam != null) {
                 // we do not support query param substitutions, so we just add the query param name and value
-                method.addQueryParam(queryParam.value(), param.getSimpleName().toString());
+                method.addQueryParam(new QueryParameter(
+                        queryParam.value(),
+                        param.getSimpleName().toString(),
+                        !queryParam.encoded(),
+                        getQueryExpansion(param, queryParam.multipleQueryParams())));
             } else if (false) {
                 // TODO support FormParam
             } else if (bodyParam != null) {
@@ -144,24 +413,142 @@ public class AnnotationProcessor extends AbstractProcessor {
                 // This is the parameter name, so we can refer to it when setting the body on the HttpRequest.
                 String parameterName = param.getSimpleName().toString();
 
-                method.setBody(new HttpRequestContext.Body(contentType, parameterType, parameterName));
+                HttpRequestContext.Body.Strategy strategy = getBodyStrategy(param.asType());
+                if (strategy == HttpRequestContext.Body.Strategy.OTHER && isJson(contentType)) {
+                    // model types are serialized by generated code, rather than by reflection at runtime
+                    strategy = HttpRequestContext.Body.Strategy.JSON;
+                }
+
+                method.setBody(new HttpRequestContext.Body(contentType, parameterType, parameterName, strategy));
             }
 
             String shortImportName = templateInput.addImport(param.asType());
             method.addParameter(new HttpRequestContext.MethodParameter(param.asType(), shortImportName, param.getSimpleName().toString()));
         });
 
-        // we can reduce the amount of regex matching on the host by doing as many substitutions as possible here
+        // the host and path are parsed once, and turned into the URL expression of the generated code here, so that
+        // neither template backend has to do any string manipulation of its own
+        long start = System.nanoTime();
         String rawHost = getHost(templateInput, method);
         method.setHost(rawHost);
+        timings.add(Phase.PATH_BUILDING, System.nanoTime() - start);
 
         return method;
     }
 
+    // picks how a body parameter is sent from its type, so that binary and streaming bodies are never buffered. This is
+    // checked by assignability, so that subtypes (such as a FileInputStream) are streamed too.
+    private HttpRequestContext.Body.Strategy getBodyStrategy(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            TypeMirror byteArray = processingEnv.getTypeUtils().getArrayType(processingEnv.getTypeUtils().getPrimitiveType(TypeKind.BYTE));
+            return processingEnv.getTypeUtils().isSameType(type, byteArray) ? HttpRequestContext.Body.Strategy.BYTE_ARRAY : HttpRequestContext.Body.Strategy.OTHER;
+        } else if (isSubtype(type, "java.lang.String")) {
+            return HttpRequestContext.Body.Strategy.STRING;
+        } else if (isSubtype(type, "java.nio.ByteBuffer")) {
+            return HttpRequestContext.Body.Strategy.BYTE_BUFFER;
+        } else if (isSubtype(type, "java.io.InputStream")) {
+            return HttpRequestContext.Body.Strategy.INPUT_STREAM;
+        } else if (isSubtype(type, "java.nio.channels.ReadableByteChannel")) {
+            return HttpRequestContext.Body.Strategy.CHANNEL;
+        } else if (isSubtype(type, "java.nio.file.Path")) {
+            return HttpRequestContext.Body.Strategy.FILE;
+        } else if (isSubtype(type, "com.azure.core.util.BinaryData")) {
+            return HttpRequestContext.Body.Strategy.BINARY_DATA;
+        } else if (isFluxOfByteBuffer(type)) {
+            return HttpRequestContext.Body.Strategy.FLUX;
+        }
+        return HttpRequestContext.Body.Strategy.OTHER;
+    }
+
+    // collections and arrays are expanded into several values, rather than being written with their toString()
+    private QueryParameter.Expansion getQueryExpansion(VariableElement param, boolean multipleQueryParams) {
+        TypeMirror type = param.asType();
+        if (type.getKind() == TypeKind.ARRAY) {
+            TypeKind componentKind = ((ArrayType) type).getComponentType().getKind();
+            if (componentKind.isPrimitive() && componentKind != TypeKind.INT && componentKind != TypeKind.LONG) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Query parameter arrays of type '"
+                        + type + "' are not supported, use an int[], long[], object array or Iterable instead", param);
+            }
+        } else if (!isSubtype(processingEnv.getTypeUtils().erasure(type), "java.lang.Iterable")) {
+            // only a primitive can be written straight into the URL, as anything else is left out when it is null
+            return type.getKind().isPrimitive() ? QueryParameter.Expansion.NONE : QueryParameter.Expansion.OPTIONAL;
+        }
+        return multipleQueryParams ? QueryParameter.Expansion.MULTIPLE : QueryParameter.Expansion.DELIMITED;
+    }
+
+    // matches application/json, as well as structured types such as application/merge-patch+json
+    private static boolean isJson(String contentType) {
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json");
+    }
+
+    // picks how the response body is returned from the declared return type, so that streaming return types are never
+    // buffered. Unlike body parameters, these must match exactly, as the return value is created by the generated code.
+    private HttpRequestContext.ResponseStrategy getResponseStrategy(TypeMirror returnType) {
+        if (returnType.getKind() == TypeKind.VOID) {
+            return HttpRequestContext.ResponseStrategy.NONE;
+        } else if (isSameType(returnType, "java.io.InputStream")) {
+            return HttpRequestContext.ResponseStrategy.INPUT_STREAM;
+        } else if (isSameType(returnType, "java.nio.channels.ReadableByteChannel")) {
+            return HttpRequestContext.ResponseStrategy.CHANNEL;
+        } else if (isSameType(returnType, "java.nio.ByteBuffer")) {
+            return HttpRequestContext.ResponseStrategy.BYTE_BUFFER;
+        } else if (isFluxOfByteBuffer(returnType) && isSameType(processingEnv.getTypeUtils().erasure(returnType), "reactor.core.publisher.Flux")) {
+            return HttpRequestContext.ResponseStrategy.FLUX;
+        }
+        return HttpRequestContext.ResponseStrategy.DESERIALIZE;
+    }
+
+    // the items of a paged method, which returns an Iterable, Stream or PagedItems of them, or null if it returns anything else
+    private TypeMirror getPagedItemType(TypeMirror returnType) {
+        if (returnType.getKind() != TypeKind.DECLARED || ((DeclaredType) returnType).getTypeArguments().size() != 1) {
+            return null;
+        }
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(returnType);
+        if (!isSameType(erasure, "java.lang.Iterable") && !isSameType(erasure, "java.util.stream.Stream")
+                && !isSameType(erasure, "net.jonathangiles.tools.codegen.runtime.PagedItems")) {
+            return null;
+        }
+        TypeMirror itemType = ((DeclaredType) returnType).getTypeArguments().get(0);
+        return itemType.getKind() == TypeKind.DECLARED || itemType.getKind() == TypeKind.ARRAY ? itemType : null;
+    }
+
+    private boolean isSameType(TypeMirror type, String typeName) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(typeName);
+        return element != null && processingEnv.getTypeUtils().isSameType(type, processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private boolean isSubtype(TypeMirror type, String typeName) {
+        // the type may not be on the classpath, in which case nothing can be a subtype of it
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(typeName);
+        return element != null && processingEnv.getTypeUtils().isAssignable(type, element.asType());
+    }
+
+    private boolean isFluxOfByteBuffer(TypeMirror type) {
+        TypeElement flux = processingEnv.getElementUtils().getTypeElement("reactor.core.publisher.Flux");
+        TypeElement byteBuffer = processingEnv.getElementUtils().getTypeElement("java.nio.ByteBuffer");
+        if (flux == null || byteBuffer == null) {
+            return false;
+        }
+        TypeMirror fluxOfByteBuffer = processingEnv.getTypeUtils().getDeclaredType(flux, byteBuffer.asType());
+        return processingEnv.getTypeUtils().isAssignable(type, fluxOfByteBuffer);
+    }
+
+    private static TypeMirror getReturnValueWireType(HttpRequestInformation httpRequestInfo) {
+        // Class values are not available at compile time, so we have to read the type mirror out of the exception
+        TypeMirror wireType;
+        try {
+            httpRequestInfo.returnValueWireType();
+            return null;
+        } catch (MirroredTypeException e) {
+            wireType = e.getTypeMirror();
+        }
+        return Void.class.getName().equals(wireType.toString()) ? null : wireType;
+    }
+
     private static String getHost(TemplateInput templateInput, HttpRequestContext method) {
-        String rawHost = templateInput.getHost() + method.getPath();
+        method.setUrlTemplate(UrlTemplate.parse(templateInput.getHost() + method.getPath()));
 
-        return PathBuilder.buildPath(rawHost, method);
+        return PathBuilder.buildPath(method.getUrlTemplate(), method);
     }
 
 
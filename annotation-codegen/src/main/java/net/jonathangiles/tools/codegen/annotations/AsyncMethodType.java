@@ -0,0 +1,18 @@
+package net.jonathangiles.tools.codegen.annotations;
+
+/**
+ * The kinds of non-blocking methods that can be generated alongside the blocking methods of a service interface.
+ *
+ * @see ServiceInterface#asyncMethods()
+ */
+public enum AsyncMethodType {
+    /**
+     * Generates a {@code fooAsync} method returning a {@code reactor.core.publisher.Mono}.
+     */
+    MONO,
+
+    /**
+     * Generates a {@code fooFuture} method returning a {@link java.util.concurrent.CompletableFuture}.
+     */
+    COMPLETABLE_FUTURE
+}
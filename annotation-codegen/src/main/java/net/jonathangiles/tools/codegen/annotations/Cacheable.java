@@ -0,0 +1,30 @@
+package net.jonathangiles.tools.codegen.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Caches the responses of a {@link HttpMethod#GET GET} service interface method, keyed on the request URL and the
+ * values of its {@link HeaderParam} parameters. A cached response is served without a request while its
+ * {@code Cache-Control: max-age} is valid, and is revalidated with {@code If-None-Match} and
+ * {@code If-Modified-Since} after that, where a {@code 304 Not Modified} response serves the cached body again.
+ * Responses with {@code Cache-Control: no-store}, or with neither a validator nor a max-age, are not cached.
+ *
+ * <p>Each pipeline has its own cache, including pipelines that are passed to a call, as pipelines may be authorized
+ * differently. The cache of a pipeline lives for as long as the pipeline is reachable, and is released once it has
+ * been collected. The method must return a deserialized value or a {@link java.nio.ByteBuffer}, and each call that
+ * returns a ByteBuffer gets a copy of the cached body.</p>
+ */
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Cacheable {
+    /**
+     * The number of responses to cache, after which the least recently used response is evicted.
+     *
+     * @return the maximum number of cached responses, which is 256 by default.
+     */
+    int maxEntries() default 256;
+}
@@ -0,0 +1,22 @@
+package net.jonathangiles.tools.codegen.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Coalesces identical concurrent calls of a {@link HttpMethod#GET GET} service interface method: while a request is in
+ * flight, calls that would send the same request wait for its response instead of sending their own. Requests are the
+ * same when they have the same URL and the same values for the {@link HeaderParam} parameters of the method.
+ *
+ * <p>This protects backends from bursts of duplicate requests, e.g. when many threads miss a cache at the same time.
+ * Requests are only coalesced with others sent through the same pipeline, including pipelines that are passed to a
+ * call, as pipelines may be authorized differently. The response body is shared, but each caller gets its own
+ * deserialized result, so the method must return a deserialized value or a {@link java.nio.ByteBuffer}.</p>
+ */
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Coalesced {
+}
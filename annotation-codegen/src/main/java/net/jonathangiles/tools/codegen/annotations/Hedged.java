@@ -0,0 +1,34 @@
+package net.jonathangiles.tools.codegen.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a {@link HttpMethod#GET GET} or {@link HttpMethod#HEAD HEAD} service interface method as idempotent, and hedges
+ * its requests: when a request has not been answered within the given percentile of recent response times, a second,
+ * identical request is sent, and whichever answers first is used while the other is cancelled, or closed if its
+ * response has already arrived. A request that fails leaves the call to the other one, so the call only fails once
+ * both have, with the error of the first request. This bounds the tail latency caused by occasional slow backend
+ * replicas, at the cost of a few percent more requests.
+ */
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Hedged {
+    /**
+     * The percentile of recent response times after which a second request is sent.
+     *
+     * @return the percentile, between 0 (exclusive) and 100 (exclusive), which is 95 by default.
+     */
+    double percentile() default 95;
+
+    /**
+     * The time after which a second request is sent until enough responses have been seen to know the percentile.
+     * This is also the minimum time after which a second request is sent.
+     *
+     * @return the delay in milliseconds, which is 100 by default.
+     */
+    long delayMillis() default 100;
+}
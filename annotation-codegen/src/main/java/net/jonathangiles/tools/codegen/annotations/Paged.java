@@ -0,0 +1,51 @@
+package net.jonathangiles.tools.codegen.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a {@link HttpMethod#GET GET} service interface method as a listing that is returned a page at a time. Each
+ * response is a JSON object with the items of the page in one property, and the next link or continuation token of
+ * the page in another. The method must return an {@code Iterable<T>}, a {@code Stream<T>} or a
+ * {@code PagedItems<T>} of the items, which requests pages lazily as it is iterated.
+ *
+ * <p>By default the next property holds the URL of the next page, which may be relative. When
+ * {@link #continuationTokenQueryParam()} is set, it holds a continuation token instead, and each later page is
+ * requested by adding the token of the page before it to the URL of the first page as that query parameter.</p>
+ */
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Paged {
+    /**
+     * The name of the property that holds the items of a page.
+     *
+     * @return the name of the items property, which is "value" by default.
+     */
+    String itemsName() default "value";
+
+    /**
+     * The name of the property that holds the next link or continuation token of a page, which is absent, null or
+     * empty on the last page.
+     *
+     * @return the name of the next property, which is "nextLink" by default.
+     */
+    String nextLinkName() default "nextLink";
+
+    /**
+     * The query parameter that a continuation token is sent as, or an empty string if pages have next links.
+     *
+     * @return the name of the continuation token query parameter, which is empty by default.
+     */
+    String continuationTokenQueryParam() default "";
+
+    /**
+     * Whether the next page is requested while the caller iterates the current one, which hides the latency of all
+     * but the first page at the cost of requesting one page more than is used when iteration stops early.
+     *
+     * @return whether pages are prefetched, which is true by default.
+     */
+    boolean prefetch() default true;
+}
@@ -24,19 +24,17 @@ public @interface QueryParam {
      * A value true for this argument indicates that value of {@link QueryParam#value()} is already encoded
      * hence engine should not encode it, by default value will be encoded.
      * @return Whether this query parameter is already encoded.
-     *
-     * TODO
      */
     boolean encoded() default false;
 
     /**
-     * A value true for this argument indicates that value of {@link QueryParam#value()} should not be
-     * converted to Json in case it is an array but instead sent as multiple values with same parameter
-     * name.
+     * Applies to parameters that are an {@link Iterable} or an array. A value true for this argument indicates
+     * that each (non-null) element should be sent as a separate query parameter with the same name, e.g.
+     * {@code ?name=a&name=b}, while by default the elements are sent as a single comma-delimited value, e.g.
+     * {@code ?name=a,b}. In both cases null elements are left out, and the query parameter is left out entirely
+     * if there are no elements.
      * @return Whether this query parameter list values should be sent as individual query
-     * params or as a single Json.
-     *
-     * TODO
+     * params or as a single comma-delimited value.
      */
     boolean multipleQueryParams() default false;
-}
\ No newline at end of file
+}
@@ -21,4 +21,34 @@ public @interface ServiceInterface {
     String name();
 
     String host() default "";
+
+    /**
+     * The non-blocking variants to generate for every method in the service interface, in addition to the blocking
+     * methods. These are built on the non-blocking {@code HttpPipeline.send} method, and can be exposed to callers by
+     * declaring them in the service interface with the same name and parameters as the generated method.
+     *
+     * @return the kinds of non-blocking methods to generate, which is none by default.
+     */
+    AsyncMethodType[] asyncMethods() default {};
+
+    /**
+     * Whether the generated methods start an {@code InstrumentationScope} for each call. Even when this is true, a
+     * scope is only started if the pipeline's tracer is enabled and the caller's span, if there is one, is being
+     * sampled. Setting this to false leaves scopes out of the generated code entirely, which suits very frequently
+     * called internal endpoints.
+     *
+     * @return whether the generated methods are traced, which is true by default.
+     */
+    boolean tracing() default true;
+
+    /**
+     * Whether to generate a batch variant of every method whose response body is not streamed. For a method such as
+     * {@code getKey}, the implementation class then has a {@code GetKeyArgs} class holding the arguments of one call,
+     * and a {@code getKeyBatch(Iterable<GetKeyArgs>, int maxConcurrency)} method that makes many calls with a bounded
+     * number in flight at a time, and returns their results in the order of the arguments. The calls are made with the
+     * non-blocking variant of the method, so a batch needs no threads of its own.
+     *
+     * @return whether batch methods are generated, which is false by default.
+     */
+    boolean batchMethods() default false;
 }
\ No newline at end of file
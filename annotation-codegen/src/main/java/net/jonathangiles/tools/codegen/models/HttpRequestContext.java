@@ -2,6 +2,7 @@ package net.jonathangiles.tools.codegen.models;
 
 import net.jonathangiles.tools.codegen.annotations.HttpMethod;
 
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.type.TypeMirror;
 import java.lang.reflect.Type;
 import java.util.*;
@@ -13,8 +14,17 @@ public final class HttpRequestContext {
      *
      * Request Configuration
      */
+    // The method of the service interface that this is created from, which errors about the method are reported on.
+    private ExecutableElement methodElement;
     private String methodName;
     private String methodReturnType;
+    private TypeMirror methodReturnTypeMirror;
+
+    // This comes from @HttpRequestInformation.returnValueWireType, and is null when no wire type was specified.
+    private TypeMirror returnValueWireType;
+
+    // This is how the response body is turned into the return value, which is determined from the return type.
+    private ResponseStrategy responseStrategy = ResponseStrategy.DESERIALIZE;
     private final List<MethodParameter> parameters;
     private HttpMethod httpMethod;
 
@@ -27,18 +37,42 @@ public final class HttpRequestContext {
     // annotated with @PathParam.
     private String path;
 
+    // The host and path, parsed into literal and placeholder segments.
+    private UrlTemplate urlTemplate;
+
+    // The static methods of the runtime that the URL expression in host calls, by fully-qualified name, which are the
+    // only ones that the generated code imports.
+    private final Set<String> urlStaticImports = new TreeSet<>();
+
+    // Header names mapped to the name of the parameter annotated with @HeaderParam that provides the value.
     private final Map<String, String> headers;
-    private final Map<String, String> queryParams;
+
+    // This comes from @HttpRequestInformation.requestHeaders, and maps header names to their constant values.
+    private final Map<String, List<String>> requestHeaders;
+    private final Map<String, QueryParameter> queryParams;
 
     private final Map<String, Substitution> substitutions;
 //    private final List<Substitution> pathSubstitutions;
 
     private int[] expectedStatusCodes;
 
+    // This comes from the @Hedged annotation, and is null when requests are not hedged.
+    private Hedging hedging;
+
+    // This is the maxEntries of the @Cacheable annotation, and is zero when responses are not cached.
+    private int cacheMaxEntries;
+
+    // This is true when the method is annotated with @Coalesced.
+    private boolean coalesced;
+
+    // This comes from the @Paged annotation, and is null when the method is not paged.
+    private Paging paging;
+
     public HttpRequestContext() {
         this.parameters = new ArrayList<>();
-        this.headers = new HashMap<>();
-        this.queryParams = new HashMap<>();
+        this.headers = new LinkedHashMap<>();
+        this.requestHeaders = new LinkedHashMap<>();
+        this.queryParams = new LinkedHashMap<>();
 //        this.hostSubstitutions = new ArrayList<>();
 //        this.pathSubstitutions = new ArrayList<>();
         this.substitutions = new HashMap<>();
@@ -46,6 +80,14 @@ public final class HttpRequestContext {
 
     private Body body;
 
+    public ExecutableElement getMethodElement() {
+        return methodElement;
+    }
+
+    public void setMethodElement(ExecutableElement methodElement) {
+        this.methodElement = methodElement;
+    }
+
     public String getMethodName() {
         return methodName;
     }
@@ -62,6 +104,66 @@ public final class HttpRequestContext {
         this.methodReturnType = methodReturnType;
     }
 
+    public TypeMirror getMethodReturnTypeMirror() {
+        return methodReturnTypeMirror;
+    }
+
+    public void setMethodReturnTypeMirror(TypeMirror methodReturnTypeMirror) {
+        this.methodReturnTypeMirror = methodReturnTypeMirror;
+    }
+
+    public TypeMirror getReturnValueWireType() {
+        return returnValueWireType;
+    }
+
+    public void setReturnValueWireType(TypeMirror returnValueWireType) {
+        this.returnValueWireType = returnValueWireType;
+    }
+
+    public Hedging getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(Hedging hedging) {
+        this.hedging = hedging;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public boolean isCached() {
+        return cacheMaxEntries > 0;
+    }
+
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    public void setCoalesced(boolean coalesced) {
+        this.coalesced = coalesced;
+    }
+
+    public Paging getPaging() {
+        return paging;
+    }
+
+    public void setPaging(Paging paging) {
+        this.paging = paging;
+    }
+
+    public ResponseStrategy getResponseStrategy() {
+        return responseStrategy;
+    }
+
+    public void setResponseStrategy(ResponseStrategy responseStrategy) {
+        this.responseStrategy = responseStrategy;
+    }
+
     public void addParameter(MethodParameter parameter) {
         this.parameters.add(parameter);
     }
@@ -78,6 +180,22 @@ public final class HttpRequestContext {
         this.host = host;
     }
 
+    public Set<String> getUrlStaticImports() {
+        return urlStaticImports;
+    }
+
+    public void addUrlStaticImport(String staticImport) {
+        this.urlStaticImports.add(staticImport);
+    }
+
+    public UrlTemplate getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    public void setUrlTemplate(UrlTemplate urlTemplate) {
+        this.urlTemplate = urlTemplate;
+    }
+
     public String getPath() {
         return path;
     }
@@ -102,15 +220,27 @@ public final class HttpRequestContext {
         headers.put(key, value);
     }
 
-    public Map<String, String> getQueryParams() {
+    public Map<String, List<String>> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public void addRequestHeader(String name, String value) {
+        requestHeaders.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+    }
+
+    public Map<String, QueryParameter> getQueryParams() {
         return queryParams;
     }
 
     public void addQueryParam(String key, String value) {
-        if (queryParams.containsKey(key)) {
-            throw new IllegalArgumentException("Cannot add duplicate query parameter '" + key + "'");
+        addQueryParam(new QueryParameter(key, value, true));
+    }
+
+    public void addQueryParam(QueryParameter queryParameter) {
+        if (queryParams.containsKey(queryParameter.getName())) {
+            throw new IllegalArgumentException("Cannot add duplicate query parameter '" + queryParameter.getName() + "'");
         }
-        queryParams.put(key, value);
+        queryParams.put(queryParameter.getName(), queryParameter);
     }
 
     public void addSubstitution(Substitution substitution) {
@@ -145,10 +275,9 @@ public final class HttpRequestContext {
     }
 
     public void setExpectedStatusCodes(int[] expectedStatusCodes) {
-        if (expectedStatusCodes != null) {
-            Arrays.sort(expectedStatusCodes);
-        }
-        this.expectedStatusCodes = expectedStatusCodes;
+        // duplicates are removed, as each status code becomes a case label in the generated code
+        this.expectedStatusCodes = expectedStatusCodes == null ? null
+                : Arrays.stream(expectedStatusCodes).distinct().sorted().toArray();
     }
 
     public List<Integer> getExpectedStatusCodes() {
@@ -156,6 +285,38 @@ public final class HttpRequestContext {
         return Arrays.stream(expectedStatusCodes).boxed().collect(Collectors.toList());
     }
 
+    /**
+     * The ways in which a response body can be returned. Streaming return types are handed the body as it arrives,
+     * and the response is only closed once the caller has finished with it, so that memory use does not depend on the
+     * size of the response.
+     */
+    public enum ResponseStrategy {
+        /** There is no return value, and the response body is ignored. */
+        NONE,
+
+        /** The response body is read in full and deserialized into the return type. */
+        DESERIALIZE,
+
+        /** The response body is returned as a ByteBuffer. */
+        BYTE_BUFFER,
+
+        /** The response body is returned as an InputStream, and closing it closes the response. */
+        INPUT_STREAM,
+
+        /** The response body is returned as a ReadableByteChannel, and closing it closes the response. */
+        CHANNEL,
+
+        /** The response body is returned as a Flux of ByteBuffers, and the response is closed when it terminates. */
+        FLUX,
+
+        /**
+         * The response of a HEAD request, which has no body, is returned as whether the resource exists. A 404 is
+         * returned as false, and any other status code must be one of the expected status codes, or a 2xx if none are
+         * given.
+         */
+        EXISTS
+    }
+
     public static class MethodParameter {
         private final TypeMirror type;
         private final String shortTypeName;
@@ -180,6 +341,84 @@ public final class HttpRequestContext {
         }
     }
 
+    public static class Hedging {
+        // The percentile of recent response times after which a second request is sent.
+        private final double percentile;
+
+        // The delay until the percentile is known, which is also the minimum delay.
+        private final long delayMillis;
+
+        public Hedging(double percentile, long delayMillis) {
+            this.percentile = percentile;
+            this.delayMillis = delayMillis;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+
+        @Override
+        public String toString() {
+            return percentile + "/" + delayMillis;
+        }
+    }
+
+    public static class Paging {
+        // The type of the items, which is the type argument of the return type.
+        private final TypeMirror itemType;
+
+        // The names of the properties of a page that hold its items and its next link or continuation token.
+        private final String itemsName;
+        private final String nextLinkName;
+
+        // The query parameter that a continuation token is sent as, or empty if pages have next links.
+        private final String continuationTokenQueryParam;
+
+        private final boolean prefetch;
+
+        public Paging(TypeMirror itemType, String itemsName, String nextLinkName, String continuationTokenQueryParam,
+                      boolean prefetch) {
+            this.itemType = itemType;
+            this.itemsName = itemsName;
+            this.nextLinkName = nextLinkName;
+            this.continuationTokenQueryParam = continuationTokenQueryParam;
+            this.prefetch = prefetch;
+        }
+
+        public TypeMirror getItemType() {
+            return itemType;
+        }
+
+        public String getItemsName() {
+            return itemsName;
+        }
+
+        public String getNextLinkName() {
+            return nextLinkName;
+        }
+
+        public String getContinuationTokenQueryParam() {
+            return continuationTokenQueryParam;
+        }
+
+        public boolean hasContinuationToken() {
+            return !continuationTokenQueryParam.isEmpty();
+        }
+
+        public boolean isPrefetch() {
+            return prefetch;
+        }
+
+        @Override
+        public String toString() {
+            return itemsName + "/" + nextLinkName + "/" + continuationTokenQueryParam + "/" + prefetch;
+        }
+    }
+
     public static class Body {
         // This is the content type as specified in the @BodyParam annotation
         private final String contentType;
@@ -191,10 +430,18 @@ public final class HttpRequestContext {
         // This is the parameter name, so we can refer to it when setting the body on the HttpRequest.
         private final String parameterName;
 
+        // This is how the parameter is turned into the request body, which is determined from its type.
+        private final Strategy strategy;
+
         public Body(String contentType, String parameterType, String parameterName) {
+            this(contentType, parameterType, parameterName, Strategy.OTHER);
+        }
+
+        public Body(String contentType, String parameterType, String parameterName, Strategy strategy) {
             this.contentType = contentType;
             this.parameterType = parameterType;
             this.parameterName = parameterName;
+            this.strategy = strategy;
         }
 
         public String getContentType() {
@@ -208,5 +455,45 @@ public final class HttpRequestContext {
         public String getParameterName() {
             return parameterName;
         }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * The ways in which a body parameter can be sent. Binary and streaming types are sent as they are, without
+         * being copied or buffered, and with a Content-Length wherever their length can be known up-front.
+         */
+        public enum Strategy {
+            /** A String, which is sent UTF-8 encoded. */
+            STRING,
+
+            /** A byte[], which is sent without copying. */
+            BYTE_ARRAY,
+
+            /** A ByteBuffer, of which the remaining bytes are sent without copying. */
+            BYTE_BUFFER,
+
+            /** An InputStream, which is streamed. */
+            INPUT_STREAM,
+
+            /** A ReadableByteChannel, such as a FileChannel, which is streamed. */
+            CHANNEL,
+
+            /** A Path to a file, which is streamed from the file. */
+            FILE,
+
+            /** A Flux of ByteBuffers, which is streamed as it is published. */
+            FLUX,
+
+            /** A BinaryData, which is sent as it is. */
+            BINARY_DATA,
+
+            /** A model type with a JSON content type, which is written by a generated serializer. */
+            JSON,
+
+            /** Any other type, which is passed to HttpRequest.setBody as it is. */
+            OTHER
+        }
     }
 }
@@ -0,0 +1,82 @@
+package net.jonathangiles.tools.codegen.models;
+
+/**
+ * A QueryParameter is a key-value pair that is appended to the query string of a URL, where the value comes from an
+ * argument of the service interface method, e.g. the "nameParam" in "http://host.com/keys?nameParam=foo".
+ */
+public class QueryParameter {
+    private final String name;
+    private final String parameterVariableName;
+    private final boolean shouldEncode;
+    private final Expansion expansion;
+
+    /**
+     * Create a new QueryParameter.
+     *
+     * @param name The name of the query parameter, as it appears in the URL.
+     * @param parameterVariableName The name of the variable whose value is used as the value of the query parameter.
+     * @param shouldEncode Whether the value from the method's argument should be encoded when it is appended to the
+     * URL.
+     */
+    public QueryParameter(String name, String parameterVariableName, boolean shouldEncode) {
+        this(name, parameterVariableName, shouldEncode, Expansion.NONE);
+    }
+
+    /**
+     * Create a new QueryParameter.
+     *
+     * @param name The name of the query parameter, as it appears in the URL.
+     * @param parameterVariableName The name of the variable whose value is used as the value of the query parameter.
+     * @param shouldEncode Whether the value from the method's argument should be encoded when it is appended to the
+     * URL.
+     * @param expansion How a collection or array argument is expanded into the URL.
+     */
+    public QueryParameter(String name, String parameterVariableName, boolean shouldEncode, Expansion expansion) {
+        this.name = name;
+        this.parameterVariableName = parameterVariableName;
+        this.shouldEncode = shouldEncode;
+        this.expansion = expansion;
+    }
+
+    /**
+     * Get the name of the query parameter.
+     *
+     * @return The name of the query parameter.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getParameterVariableName() {
+        return parameterVariableName;
+    }
+
+    /**
+     * Whether the value from the method argument needs to be encoded when it is appended to the URL.
+     *
+     * @return Whether the value from the method argument needs to be encoded when it is appended to the URL.
+     */
+    public boolean shouldEncode() {
+        return shouldEncode;
+    }
+
+    public Expansion getExpansion() {
+        return expansion;
+    }
+
+    /**
+     * The ways in which the value of a query parameter can be written into the URL.
+     */
+    public enum Expansion {
+        /** A single value that is never null, such as a primitive, which is written as {@code name=value}. */
+        NONE,
+        /** A single value that may be null, which is written as {@code name=value}, or left out if it is null. */
+        OPTIONAL,
+
+        /** A collection or array, of which each element is written as a separate {@code name=value} pair. */
+        MULTIPLE,
+
+        /** A collection or array, of which the elements are written as one comma-delimited value. */
+        DELIMITED
+    }
+}
@@ -1,12 +1,17 @@
 package net.jonathangiles.tools.codegen.models;
 
+import net.jonathangiles.tools.codegen.annotations.AsyncMethodType;
+
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class TemplateInput {
     // a map of fully-qualified class names to their short names
@@ -24,6 +29,23 @@ public class TemplateInput {
 
     private List<HttpRequestContext> httpRequestContexts;
 
+    private final Set<AsyncMethodType> asyncMethodTypes = EnumSet.noneOf(AsyncMethodType.class);
+
+    // the interface annotated with @ServiceInterface, which is the originating element of the generated sources
+    private TypeElement serviceInterfaceElement;
+
+    // a fingerprint of everything the generated implementation depends on, which is recorded in the generated source
+    private String fingerprint;
+
+    // whether the generated methods record metrics, which is set by a processor option
+    private boolean metricsEnabled;
+
+    // whether the generated methods start an InstrumentationScope, which is set on the @ServiceInterface
+    private boolean tracingEnabled = true;
+
+    // whether a batch variant is generated for each method, which is set on the @ServiceInterface
+    private boolean batchMethodsEnabled;
+
     public String getHost() {
         return host;
     }
@@ -118,6 +140,22 @@ public class TemplateInput {
         return httpRequestContexts;
     }
 
+    /**
+     * Returns the static methods of the runtime that the URL expressions of all methods call, by fully-qualified name,
+     * in order.
+     */
+    public Set<String> getUrlStaticImports() {
+        Set<String> staticImports = new TreeSet<>();
+        for (HttpRequestContext method : httpRequestContexts) {
+            staticImports.addAll(method.getUrlStaticImports());
+        }
+        return staticImports;
+    }
+
+    public Set<AsyncMethodType> getAsyncMethodTypes() {
+        return asyncMethodTypes;
+    }
+
     public void setServiceInterfaceFQN(String serviceInterfaceFQN) {
         this.serviceInterfaceFQN = serviceInterfaceFQN;
     }
@@ -125,4 +163,44 @@ public class TemplateInput {
     public String getServiceInterfaceFQN() {
         return serviceInterfaceFQN;
     }
+
+    public TypeElement getServiceInterfaceElement() {
+        return serviceInterfaceElement;
+    }
+
+    public void setServiceInterfaceElement(TypeElement serviceInterfaceElement) {
+        this.serviceInterfaceElement = serviceInterfaceElement;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public boolean isTracingEnabled() {
+        return tracingEnabled;
+    }
+
+    public void setTracingEnabled(boolean tracingEnabled) {
+        this.tracingEnabled = tracingEnabled;
+    }
+
+    public boolean isBatchMethodsEnabled() {
+        return batchMethodsEnabled;
+    }
+
+    public void setBatchMethodsEnabled(boolean batchMethodsEnabled) {
+        this.batchMethodsEnabled = batchMethodsEnabled;
+    }
 }
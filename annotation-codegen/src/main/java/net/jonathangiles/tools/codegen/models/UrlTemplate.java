@@ -0,0 +1,126 @@
+package net.jonathangiles.tools.codegen.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A UrlTemplate is a parsed host and path template, such as "https://{endpoint}/keys/{path1}", made up of literal
+ * segments and the placeholders between them. Templates are parsed in a single pass, and are immutable, so each
+ * distinct template string is only ever parsed once and the result is shared by every method that uses it.
+ */
+public final class UrlTemplate {
+    // interfaces usually share a handful of hosts and paths between many methods, and this bound only exists so that
+    // a long-lived compiler daemon cannot grow the cache without limit
+    private static final int MAX_CACHE_SIZE = 4096;
+    private static final Map<String, UrlTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final String template;
+    private final List<Segment> segments;
+
+    private UrlTemplate(String template, List<Segment> segments) {
+        this.template = template;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Parses the given template, or returns the previously parsed template for the same string.
+     *
+     * @param template The host and path template, where placeholders are delimited by curly braces.
+     * @return The parsed template.
+     */
+    public static UrlTemplate parse(String template) {
+        if (template == null) {
+            throw new NullPointerException("template cannot be null");
+        }
+
+        UrlTemplate urlTemplate = CACHE.get(template);
+        if (urlTemplate == null) {
+            urlTemplate = tokenize(template);
+            if (CACHE.size() < MAX_CACHE_SIZE) {
+                CACHE.putIfAbsent(template, urlTemplate);
+            }
+        }
+        return urlTemplate;
+    }
+
+    // A placeholder is a '{', followed by a non-empty name, followed by the next '}'. Anything else, including an
+    // unclosed '{', is literal text. Adjacent literal text is always merged into one segment.
+    private static UrlTemplate tokenize(String template) {
+        List<Segment> segments = new ArrayList<>();
+        int literalStart = 0;
+        int open = template.indexOf('{');
+        while (open >= 0) {
+            int close = template.indexOf('}', open + 2);
+            if (close < 0) {
+                break;
+            }
+            if (open > literalStart) {
+                segments.add(new Segment(template.substring(literalStart, open), false));
+            }
+            segments.add(new Segment(template.substring(open + 1, close), true));
+            literalStart = close + 1;
+            open = template.indexOf('{', literalStart);
+        }
+        if (literalStart < template.length()) {
+            segments.add(new Segment(template.substring(literalStart), false));
+        }
+        return new UrlTemplate(template, segments);
+    }
+
+    /**
+     * Get the template string that this was parsed from.
+     *
+     * @return The template string.
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Get the literal and placeholder segments of the template, in order.
+     *
+     * @return The segments of the template.
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * A run of literal text in a template, or a named placeholder.
+     */
+    public static final class Segment {
+        private final String value;
+        private final boolean placeholder;
+
+        Segment(String value, boolean placeholder) {
+            this.value = value;
+            this.placeholder = placeholder;
+        }
+
+        /**
+         * Get the literal text of this segment, or the name of the placeholder without its curly braces.
+         *
+         * @return The literal text or placeholder name.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        public boolean isPlaceholder() {
+            return placeholder;
+        }
+
+        @Override
+        public String toString() {
+            return placeholder ? "{" + value + "}" : value;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Thrown when a response has an unexpected status code in the 4xx range.
+ */
+public class ClientErrorException extends UnexpectedStatusCodeException {
+    /**
+     * Creates an exception for the given status code.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public ClientErrorException(int statusCode) {
+        super(statusCode);
+    }
+}
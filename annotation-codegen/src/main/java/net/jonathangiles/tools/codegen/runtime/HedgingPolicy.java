@@ -0,0 +1,90 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides how long generated code waits for a response before it hedges a request, i.e. sends a second, identical
+ * request. Each hedged service interface method has one of these in a static field, into which the response times of
+ * the method are recorded.
+ *
+ * <p>The delay is the configured percentile of recent response times, and is never less than the configured minimum,
+ * which is also the delay until enough responses have been seen. Response times are recorded into a
+ * {@link LatencyHistogram} that is replaced after every {@value #WINDOW_SIZE} responses, so the delay follows changes
+ * in latency, and the percentile is only recomputed for a random sample of responses, so that reading the delay is a
+ * single volatile read.</p>
+ */
+public final class HedgingPolicy {
+    // the number of response times that are needed before the percentile is used
+    private static final int MIN_SAMPLES = 32;
+
+    // the number of response times after which a new histogram is started
+    private static final int WINDOW_SIZE = 1024;
+
+    // on average, the delay is recomputed once for this many response times
+    private static final int UPDATE_INTERVAL = 16;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final AtomicBoolean updating = new AtomicBoolean();
+
+    private volatile LatencyHistogram window = new LatencyHistogram();
+    private volatile long delayNanos;
+
+    /**
+     * Creates a hedging policy.
+     *
+     * @param percentile The percentile of recent response times after which a request is hedged.
+     * @param minDelayMillis The minimum delay before a request is hedged, which is also the delay until enough
+     * responses have been seen.
+     */
+    public HedgingPolicy(double percentile, long minDelayMillis) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, but was " + percentile);
+        }
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.delayNanos = minDelayNanos;
+    }
+
+    /**
+     * Returns how long to wait for a response before hedging a request.
+     *
+     * @return The delay in nanoseconds.
+     */
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Records the time that a request took to be answered, whether or not it was hedged.
+     *
+     * @param nanos The response time in nanoseconds.
+     */
+    public void record(long nanos) {
+        window.record(nanos);
+        if (ThreadLocalRandom.current().nextInt(UPDATE_INTERVAL) == 0) {
+            update();
+        }
+    }
+
+    private void update() {
+        // only one thread recomputes the delay at a time, and the others simply carry on
+        if (!updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            LatencyHistogram.Snapshot snapshot = window.snapshot();
+            if (snapshot.getCount() >= MIN_SAMPLES) {
+                delayNanos = Math.max(minDelayNanos, snapshot.getPercentileNanos(percentile));
+            }
+            if (snapshot.getCount() >= WINDOW_SIZE) {
+                // the delay is kept until the new window has enough response times of its own
+                window = new LatencyHistogram();
+            }
+        } finally {
+            updating.set(false);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small, allocation-light, pull-based JSON reader that works directly over the bytes of a response body. The
+ * annotation processor generates a dedicated reader method for each return type of a service interface method, and
+ * these generated methods drive this class, so there is no reflection or databinding involved at runtime.
+ *
+ * <p>The reader is deliberately lenient about where commas appear, as it is only ever driven by generated code that
+ * already knows the shape of the document it is reading.</p>
+ */
+public final class JsonReader {
+    /**
+     * The type of the next value in the JSON document.
+     */
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private final byte[] buffer;
+    private final int limit;
+    private int pos;
+
+    /**
+     * Creates a new JsonReader over the entire given byte array, which must be UTF-8 encoded JSON.
+     *
+     * @param buffer The UTF-8 encoded JSON.
+     */
+    public JsonReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Creates a new JsonReader over a region of the given byte array, which must be UTF-8 encoded JSON.
+     *
+     * @param buffer The UTF-8 encoded JSON.
+     * @param offset The offset of the first byte to read.
+     * @param length The number of bytes to read.
+     */
+    public JsonReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Returns the type of the next value, without consuming it.
+     *
+     * @return The type of the next value.
+     */
+    public Token peek() {
+        if (!skipWhitespace()) {
+            return Token.END_DOCUMENT;
+        }
+        switch (buffer[pos]) {
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '"': return Token.STRING;
+            case 't':
+            case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default: return Token.NUMBER;
+        }
+    }
+
+    public void beginArray() {
+        expect('[');
+    }
+
+    public void endArray() {
+        expect(']');
+        skipSeparator();
+    }
+
+    public void beginObject() {
+        expect('{');
+    }
+
+    public void endObject() {
+        expect('}');
+        skipSeparator();
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     *
+     * @return Whether the current array or object has another element.
+     */
+    public boolean hasNext() {
+        if (!skipWhitespace()) {
+            return false;
+        }
+        byte b = buffer[pos];
+        return b != ']' && b != '}';
+    }
+
+    /**
+     * Consumes the next property name in the current object, along with the following colon.
+     *
+     * @return The property name.
+     */
+    public String nextName() {
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes the next value if it is the null literal. The end of the document is also treated as null, so that an
+     * empty response body is read as a null value.
+     *
+     * @return True if a null literal was consumed (or there is nothing left to read), false if the next value is not
+     * null.
+     */
+    public boolean nextNull() {
+        Token token = peek();
+        if (token == Token.END_DOCUMENT) {
+            return true;
+        } else if (token != Token.NULL) {
+            return false;
+        }
+        expectLiteral("null");
+        skipSeparator();
+        return true;
+    }
+
+    /**
+     * Consumes the next string value. A null literal is returned as null.
+     *
+     * @return The string value, or null.
+     */
+    public String nextString() {
+        if (nextNull()) {
+            return null;
+        }
+        String value = readString();
+        skipSeparator();
+        return value;
+    }
+
+    /**
+     * Consumes the next value, which must be a string of exactly one character.
+     *
+     * @return The character.
+     */
+    public char nextChar() {
+        int start = pos;
+        String value = readString();
+        if (value.length() != 1) {
+            pos = start;
+            throw syntaxError("Expected a single character but was \"" + value + "\"");
+        }
+        skipSeparator();
+        return value.charAt(0);
+    }
+
+    public boolean nextBoolean() {
+        boolean value;
+        if (peek() == Token.BOOLEAN && buffer[pos] == 't') {
+            expectLiteral("true");
+            value = true;
+        } else {
+            expectLiteral("false");
+            value = false;
+        }
+        skipSeparator();
+        return value;
+    }
+
+    public int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw syntaxError("Number out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    public long nextLong() {
+        skipWhitespace();
+        int start = pos;
+        boolean negative = false;
+        if (pos < limit && buffer[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+
+        // fast path - plain integers are parsed straight out of the buffer without creating a String
+        long value = 0;
+        int digits = 0;
+        while (pos < limit && buffer[pos] >= '0' && buffer[pos] <= '9' && digits < 18) {
+            value = value * 10 + (buffer[pos++] - '0');
+            digits++;
+        }
+        if (digits > 0 && (pos == limit || !isNumberChar(buffer[pos]))) {
+            skipSeparator();
+            return negative ? -value : value;
+        }
+
+        // slow path - very long numbers, or numbers with fractions or exponents
+        pos = start;
+        String number = readNumber();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            double d = Double.parseDouble(number);
+            if (d != (long) d) {
+                throw syntaxError("Expected a long but was " + number);
+            }
+            return (long) d;
+        }
+    }
+
+    public double nextDouble() {
+        return Double.parseDouble(readNumber());
+    }
+
+    /**
+     * Skips the next value, including any nested arrays or objects.
+     */
+    public void skipValue() {
+        switch (peek()) {
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case STRING:
+                nextString();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            case NUMBER:
+                readNumber();
+                break;
+            default:
+                throw syntaxError("Unexpected token " + peek());
+        }
+    }
+
+    private String readNumber() {
+        skipWhitespace();
+        int start = pos;
+        while (pos < limit && isNumberChar(buffer[pos])) {
+            pos++;
+        }
+        if (start == pos) {
+            throw syntaxError("Expected a number");
+        }
+        String number = new String(buffer, start, pos - start, StandardCharsets.US_ASCII);
+        skipSeparator();
+        return number;
+    }
+
+    private String readString() {
+        expect('"');
+        int start = pos;
+
+        // fast path - no escape sequences, so the bytes can be decoded in one go
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b == '"') {
+                String value = new String(buffer, start, pos - start, StandardCharsets.UTF_8);
+                pos++;
+                return value;
+            } else if (b == '\\') {
+                break;
+            }
+            pos++;
+        }
+
+        // slow path - decode runs of unescaped bytes and process escape sequences between them
+        StringBuilder sb = new StringBuilder((pos - start) + 16);
+        sb.append(new String(buffer, start, pos - start, StandardCharsets.UTF_8));
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b == '"') {
+                pos++;
+                return sb.toString();
+            } else if (b == '\\') {
+                pos++;
+                if (pos >= limit) {
+                    break;
+                }
+                char escaped = (char) buffer[pos++];
+                switch (escaped) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > limit) {
+                            throw syntaxError("Unterminated unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(new String(buffer, pos, 4, StandardCharsets.US_ASCII), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(escaped); break;
+                }
+            } else {
+                int runStart = pos;
+                while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+                    pos++;
+                }
+                sb.append(new String(buffer, runStart, pos - runStart, StandardCharsets.UTF_8));
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void expect(char c) {
+        if (!skipWhitespace() || buffer[pos] != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void expectLiteral(String literal) {
+        skipWhitespace();
+        for (int i = 0; i < literal.length(); i++) {
+            if (pos >= limit || buffer[pos] != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+            pos++;
+        }
+    }
+
+    // consumes any trailing comma after a value, so that the next call starts at the next value or closing bracket
+    private void skipSeparator() {
+        if (skipWhitespace() && buffer[pos] == ',') {
+            pos++;
+        }
+    }
+
+    private boolean skipWhitespace() {
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return true;
+            }
+            pos++;
+        }
+        return false;
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException(message + " at offset " + pos);
+    }
+}
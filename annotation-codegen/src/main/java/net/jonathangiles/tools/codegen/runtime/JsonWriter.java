@@ -0,0 +1,324 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A small, allocation-light JSON writer that encodes UTF-8 straight into a byte array. The annotation processor
+ * generates a dedicated writer method for each body type of a service interface method, and these generated methods
+ * drive this class, so there is no reflection or databinding involved at runtime.
+ *
+ * <p>The byte array that is written into is pooled per thread, so serializing a request body costs only the final,
+ * exactly-sized copy that is returned by {@link #toBytes()}. A writer must therefore be used by a single thread, and
+ * must not be used after {@link #toBytes()} has been called.</p>
+ */
+public final class JsonWriter {
+    private static final int INITIAL_SIZE = 1024;
+
+    // buffers that grew beyond this size are not kept, so that one large request does not pin memory on its thread
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> POOL = new ThreadLocal<>();
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    private byte[] buffer;
+    private int size;
+
+    // whether each open array or object already has an element, so that commas can be written before the next one
+    private boolean[] hasElement = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Creates a new JsonWriter, which writes into this thread's pooled buffer if it is not already in use.
+     */
+    public JsonWriter() {
+        byte[] pooled = POOL.get();
+        if (pooled != null) {
+            POOL.set(null);
+            buffer = pooled;
+        } else {
+            buffer = new byte[INITIAL_SIZE];
+        }
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        writeByte('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        writeByte('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next property in the current object, which must be followed by its value.
+     *
+     * @param name The property name.
+     * @return This writer.
+     */
+    public JsonWriter name(String name) {
+        beforeElement();
+        writeQuoted(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        writeBytes(NULL);
+        return this;
+    }
+
+    /**
+     * Writes a string value, or the null literal if the value is null.
+     *
+     * @param value The string value.
+     * @return This writer.
+     */
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            // this cannot be negated, so it is written the slow way
+            writeAscii(Long.toString(value));
+            return this;
+        }
+
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+
+        // digits are written straight into the buffer, from the last to the first
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Writes a number value. JSON has no representation of NaN or infinity, so these are rejected.
+     *
+     * @param value The number value.
+     * @return This writer.
+     */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON numbers cannot be NaN or infinite, but was " + value);
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            // whole numbers are written without a fraction, and without creating a String
+            return value((long) value);
+        }
+        beforeValue();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a number value, with the shortest representation that reads back as the same float.
+     *
+     * @param value The number value.
+     * @return This writer.
+     */
+    public JsonWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON numbers cannot be NaN or infinite, but was " + value);
+        }
+        if (value == (long) value && Math.abs(value) < 1e7f) {
+            return value((long) value);
+        }
+        beforeValue();
+        writeAscii(Float.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a byte array as a base64 encoded string, or the null literal if the value is null.
+     *
+     * @param value The bytes.
+     * @return This writer.
+     */
+    public JsonWriter value(byte[] value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeByte('"');
+        writeBytes(Base64.getEncoder().encode(value));
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Returns the UTF-8 encoded JSON that has been written, and returns the buffer to this thread's pool. The writer
+     * cannot be used afterwards.
+     *
+     * @return The UTF-8 encoded JSON.
+     */
+    public byte[] toBytes() {
+        byte[] result = Arrays.copyOf(buffer, size);
+        if (buffer.length <= MAX_POOLED_SIZE) {
+            POOL.set(buffer);
+        }
+        buffer = null;
+        return result;
+    }
+
+    // writes a comma if this is not the first element of the current array or object
+    private void beforeElement() {
+        if (depth > 0) {
+            if (hasElement[depth]) {
+                writeByte(',');
+            }
+            hasElement[depth] = true;
+        }
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            // the value of a property follows its name directly
+            afterName = false;
+        } else {
+            beforeElement();
+        }
+    }
+
+    private void push() {
+        depth++;
+        if (depth == hasElement.length) {
+            hasElement = Arrays.copyOf(hasElement, depth * 2);
+        }
+        hasElement[depth] = false;
+    }
+
+    private void writeQuoted(String value) {
+        // most characters take one byte, and the buffer is grown again if escapes or multi-byte characters need more
+        ensureCapacity(value.length() + 2);
+        buffer[size++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (size == buffer.length) {
+                    ensureCapacity(value.length() - i + 1);
+                }
+                buffer[size++] = (byte) c;
+            } else {
+                writeSpecial(value, i, c);
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        writeByte('"');
+    }
+
+    // writes a character that must be escaped, or that takes more than one byte in UTF-8
+    private void writeSpecial(String value, int index, char c) {
+        ensureCapacity(6);
+        switch (c) {
+            case '"': buffer[size++] = '\\'; buffer[size++] = '"'; return;
+            case '\\': buffer[size++] = '\\'; buffer[size++] = '\\'; return;
+            case '\n': buffer[size++] = '\\'; buffer[size++] = 'n'; return;
+            case '\r': buffer[size++] = '\\'; buffer[size++] = 'r'; return;
+            case '\t': buffer[size++] = '\\'; buffer[size++] = 't'; return;
+            default: break;
+        }
+
+        if (c < 0x20) {
+            buffer[size++] = '\\';
+            buffer[size++] = 'u';
+            buffer[size++] = '0';
+            buffer[size++] = '0';
+            buffer[size++] = HEX[c >> 4];
+            buffer[size++] = HEX[c & 0xF];
+        } else if (c < 0x800) {
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // an unpaired surrogate cannot be encoded, so it is replaced as String.getBytes would do
+            buffer[size++] = '?';
+        } else {
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeByte(char b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (buffer == null) {
+            throw new IllegalStateException("This JsonWriter cannot be used after toBytes() has been called");
+        }
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
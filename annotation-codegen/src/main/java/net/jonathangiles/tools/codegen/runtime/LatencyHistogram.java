@@ -0,0 +1,156 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with logarithmically sized buckets. Each power of two is split
+ * into four buckets, so a value is known to within 25% whatever its magnitude, and the whole histogram is a fixed array
+ * of 256 counters no matter how many values are recorded.
+ *
+ * <p>Recording is a single atomic increment plus two striped updates, so it is cheap enough to be always on. A
+ * {@link Snapshot} is taken without stopping recording, so it may be very slightly inconsistent under load, e.g. its
+ * count may include a value that the buckets do not yet.</p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds, where negative values are recorded as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Takes a snapshot of the latencies recorded so far.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    // values below 2^SUB_BUCKET_BITS have a bucket each, and above that each power of two has SUB_BUCKETS buckets,
+    // chosen by the bits that follow the highest set bit
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the largest value that falls into the given bucket
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * An immutable view of the latencies recorded by a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of latencies recorded.
+         *
+         * @return The number of latencies recorded.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the mean latency, or zero if none have been recorded.
+         *
+         * @return The mean latency in nanoseconds.
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the largest latency recorded, or zero if none have been recorded.
+         *
+         * @return The largest latency in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return max;
+        }
+
+        /**
+         * Returns an upper bound of the latency at the given percentile, which is within 25% of the actual value.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         * @return The latency in nanoseconds, or zero if none have been recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100, but was " + percentile);
+            }
+
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + ", mean=" + (long) getMeanNanos() + "ns"
+                    + ", p50=" + getPercentileNanos(50) + "ns"
+                    + ", p99=" + getPercentileNanos(99) + "ns"
+                    + ", max=" + max + "ns";
+        }
+    }
+}
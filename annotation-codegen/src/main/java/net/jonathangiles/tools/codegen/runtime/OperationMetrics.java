@@ -0,0 +1,153 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The call count, error counts and latencies of a single service interface method. When the
+ * {@code net.jonathangiles.codegen.metrics} processor option is set to {@code true}, the generated implementation
+ * keeps one of these per method in a static field, records every call into it, and exposes them through its static
+ * {@code metrics()} method.
+ *
+ * <p>Counters are striped {@link LongAdder}s and latencies go into a lock-free {@link LatencyHistogram}, so recording
+ * does not contend between threads and is cheap enough to be always on. The latency of a call is measured from its
+ * start until its response has been handled, or until a streamed response body has been handed to the caller.</p>
+ */
+public final class OperationMetrics {
+    /**
+     * The status code under which errors are counted when there was no response, e.g. for a connection failure.
+     */
+    public static final int NO_STATUS_CODE = 0;
+
+    private final String operation;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> errorsByStatusCode = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Creates the metrics of an operation.
+     *
+     * @param operation The name of the operation, which is the name of the service interface method.
+     */
+    public OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Records a call, whether it succeeded or failed, along with its latency.
+     *
+     * @param startNanos The {@link System#nanoTime()} at which the call started.
+     */
+    public void recordCall(long startNanos) {
+        calls.increment();
+        latency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records that a call failed, under the status code of its response if it was an unexpected status code.
+     *
+     * @param error The reason the call failed.
+     */
+    public void recordError(Throwable error) {
+        errors.increment();
+        int statusCode = error instanceof UnexpectedStatusCodeException
+                ? ((UnexpectedStatusCodeException) error).getStatusCode()
+                : NO_STATUS_CODE;
+
+        // the counter usually exists already, and a plain get does not lock as computeIfAbsent may
+        LongAdder counter = errorsByStatusCode.get(statusCode);
+        if (counter == null) {
+            counter = errorsByStatusCode.computeIfAbsent(statusCode, ignored -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Takes a snapshot of the metrics recorded so far.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        Map<Integer, Long> errorCounts = new TreeMap<>();
+        errorsByStatusCode.forEach((statusCode, counter) -> errorCounts.put(statusCode, counter.sum()));
+        return new Snapshot(operation, calls.sum(), errors.sum(), Collections.unmodifiableMap(errorCounts),
+                latency.snapshot());
+    }
+
+    /**
+     * An immutable view of the metrics of an operation.
+     */
+    public static final class Snapshot {
+        private final String operation;
+        private final long calls;
+        private final long errors;
+        private final Map<Integer, Long> errorsByStatusCode;
+        private final LatencyHistogram.Snapshot latency;
+
+        Snapshot(String operation, long calls, long errors, Map<Integer, Long> errorsByStatusCode,
+                 LatencyHistogram.Snapshot latency) {
+            this.operation = operation;
+            this.calls = calls;
+            this.errors = errors;
+            this.errorsByStatusCode = errorsByStatusCode;
+            this.latency = latency;
+        }
+
+        /**
+         * Returns the name of the operation.
+         *
+         * @return The name of the operation.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * Returns the number of calls that have completed, successfully or not.
+         *
+         * @return The number of calls.
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * Returns the number of calls that failed.
+         *
+         * @return The number of failed calls.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the number of failed calls by the status code of their response, where failures without a response
+         * are counted under {@link #NO_STATUS_CODE}.
+         *
+         * @return The number of failed calls by status code.
+         */
+        public Map<Integer, Long> getErrorsByStatusCode() {
+            return errorsByStatusCode;
+        }
+
+        /**
+         * Returns the latencies of the calls.
+         *
+         * @return The latencies of the calls.
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": calls=" + calls + ", errors=" + errors + " " + errorsByStatusCode
+                    + ", latency(" + latency + ")";
+        }
+    }
+}
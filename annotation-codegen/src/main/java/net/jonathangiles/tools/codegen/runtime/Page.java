@@ -0,0 +1,42 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.List;
+
+/**
+ * One page of the items of a {@code @Paged} service interface method, as read from a response by generated code.
+ *
+ * @param <T> The type of the items.
+ */
+public final class Page<T> {
+    private final List<T> items;
+    private final String continuation;
+
+    /**
+     * Creates a page.
+     *
+     * @param items The items of the page.
+     * @param continuation The next link or continuation token of the page, or null if it is the last page.
+     */
+    public Page(List<T> items, String continuation) {
+        this.items = items;
+        this.continuation = continuation;
+    }
+
+    /**
+     * Returns the items of the page.
+     *
+     * @return The items of the page.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the next link or continuation token of the page, from which the next page is requested.
+     *
+     * @return The continuation, or null if this is the last page.
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+}
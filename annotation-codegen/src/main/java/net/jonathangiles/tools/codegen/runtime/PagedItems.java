@@ -0,0 +1,169 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static net.jonathangiles.tools.codegen.runtime.PercentEncoder.encodeQueryParameter;
+
+/**
+ * The items of a {@code @Paged} service interface method, which are requested a page at a time as they are iterated.
+ * Only the page being iterated is held in memory, so a listing of any size can be iterated in constant memory.
+ *
+ * <p>Pages are requested with the non-blocking variant of the generated method, and with prefetching, the next page
+ * is requested as soon as a page has arrived, so that it is usually there by the time the caller has finished with
+ * the page before it. Each iterator or stream starts again from the first page, and a stream that is closed before it
+ * has been fully consumed cancels the page it has prefetched.</p>
+ *
+ * @param <T> The type of the items.
+ */
+public final class PagedItems<T> implements Iterable<T> {
+    private final Function<String, CompletableFuture<Page<T>>> fetchPage;
+    private final boolean prefetch;
+
+    /**
+     * Creates the items of a paged operation.
+     *
+     * @param fetchPage Requests the page for the given continuation, which is null for the first page.
+     * @param prefetch Whether the next page is requested while the caller iterates the current one.
+     */
+    public PagedItems(Function<String, CompletableFuture<Page<T>>> fetchPage, boolean prefetch) {
+        this.fetchPage = fetchPage;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new PageIterator();
+    }
+
+    /**
+     * Returns a sequential stream of the items, which cancels any prefetched page when it is closed.
+     *
+     * @return A stream of the items.
+     */
+    public Stream<T> stream() {
+        PageIterator iterator = new PageIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Returns the URL of the next page from the next link of a page, which may be relative to the URL of the first page.
+     *
+     * @param url The URL of the first page.
+     * @param nextLink The next link.
+     * @return The URL of the next page.
+     */
+    public static String resolveNextLink(String url, String nextLink) {
+        if (nextLink.startsWith("https://") || nextLink.startsWith("http://")) {
+            return nextLink;
+        }
+        return URI.create(url).resolve(nextLink).toString();
+    }
+
+    /**
+     * Returns the URL of the next page from the continuation token of a page, which is added to the URL of the first
+     * page as a query parameter.
+     *
+     * @param url The URL of the first page.
+     * @param name The name of the query parameter.
+     * @param continuationToken The continuation token.
+     * @return The URL of the next page.
+     */
+    public static String withContinuationToken(String url, String name, String continuationToken) {
+        return new StringBuilder(url.length() + name.length() + continuationToken.length() + 2)
+                .append(url)
+                .append(url.indexOf('?') < 0 ? '?' : '&')
+                .append(encodeQueryParameter(name))
+                .append('=')
+                .append(encodeQueryParameter(continuationToken))
+                .toString();
+    }
+
+    private final class PageIterator implements Iterator<T> {
+        private Iterator<T> items = Collections.emptyIterator();
+
+        // the page that has been requested but not yet iterated, if any
+        private CompletableFuture<Page<T>> nextPage;
+
+        // the continuation of the last page that has been iterated, when the next page is not prefetched
+        private String continuation;
+
+        private boolean started;
+
+        @Override
+        public boolean hasNext() {
+            while (!items.hasNext()) {
+                if (!started) {
+                    started = true;
+                    nextPage = fetchPage.apply(null);
+                } else if (continuation != null) {
+                    nextPage = fetchPage.apply(continuation);
+                    continuation = null;
+                }
+                if (nextPage == null) {
+                    return false;
+                }
+
+                Page<T> page = await(nextPage);
+                nextPage = null;
+                if (page == null) {
+                    // a response without a body has no items, and no next page either
+                    return false;
+                }
+
+                String pageContinuation = page.getContinuation();
+                if (pageContinuation != null && !pageContinuation.isEmpty()) {
+                    if (prefetch) {
+                        nextPage = fetchPage.apply(pageContinuation);
+                    } else {
+                        continuation = pageContinuation;
+                    }
+                }
+                items = page.getItems() == null ? Collections.emptyIterator() : page.getItems().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return items.next();
+        }
+
+        void close() {
+            if (nextPage != null) {
+                nextPage.cancel(true);
+                nextPage = null;
+            }
+            continuation = null;
+            items = Collections.emptyIterator();
+            started = true;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Percent-encodes values as they are written into URLs by generated code. Values that contain only characters that are
+ * safe in the target URL component are returned as-is, so the common case costs a single scan and no allocation.
+ */
+public final class PercentEncoder {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // RFC 3986 unreserved characters, which are safe everywhere
+    private static final String UNRESERVED = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-._~";
+
+    // a path segment may not contain '/' (as that would introduce a new segment), and '+' is escaped to avoid
+    // ambiguity with servers that decode it as a space
+    private static final boolean[] PATH_SEGMENT_SAFE = safeCharacters(UNRESERVED + "!$&'()*,;=:@");
+
+    // a query value may contain '/' and '?', but not the '&' and '=' delimiters, '+' or '#'
+    static final boolean[] QUERY_SAFE = safeCharacters(UNRESERVED + "!$'()*,;:@/?");
+
+    // an element of a delimited query value must also escape the ',' that separates the elements
+    static final boolean[] QUERY_ELEMENT_SAFE = safeCharacters(UNRESERVED + "!$'()*;:@/?");
+
+    private PercentEncoder() {
+    }
+
+    /**
+     * Encodes a value that is to be substituted into a single segment of a URL path.
+     *
+     * @param value The value to encode.
+     * @return The encoded value, which is the same instance as {@code value} if no encoding was necessary.
+     */
+    public static String encodePathSegment(String value) {
+        return encode(value, PATH_SEGMENT_SAFE);
+    }
+
+    /**
+     * Encodes a value that is to be substituted into a single segment of a URL path.
+     *
+     * @param value The value to encode, which is converted to a string first.
+     * @return The encoded value.
+     */
+    public static String encodePathSegment(Object value) {
+        return encode(value == null ? null : value.toString(), PATH_SEGMENT_SAFE);
+    }
+
+    /**
+     * Encodes a value that is to be used as the name or value of a query parameter.
+     *
+     * @param value The value to encode.
+     * @return The encoded value, which is the same instance as {@code value} if no encoding was necessary.
+     */
+    public static String encodeQueryParameter(String value) {
+        return encode(value, QUERY_SAFE);
+    }
+
+    /**
+     * Encodes a value that is to be used as the name or value of a query parameter.
+     *
+     * @param value The value to encode, which is converted to a string first.
+     * @return The encoded value.
+     */
+    public static String encodeQueryParameter(Object value) {
+        return encode(value == null ? null : value.toString(), QUERY_SAFE);
+    }
+
+    private static String encode(String value, boolean[] safe) {
+        if (value == null) {
+            return null;
+        }
+
+        // fast path - find the first character that needs escaping, if there is one
+        final int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c >= 128 || !safe[c]) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+
+        // slow path - copy the safe prefix, then escape the remainder
+        StringBuilder sb = new StringBuilder(length + 16);
+        sb.append(value, 0, i);
+        appendEncoded(sb, value, i, safe);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a value to a builder, percent-encoding the UTF-8 of any unsafe characters from the given index onwards.
+     * Safe characters are appended as they are, so no intermediate string is created.
+     */
+    static void appendEncoded(StringBuilder sb, String value, int start, boolean[] safe) {
+        final int length = value.length();
+        int i = start;
+        while (i < length) {
+            char c = value.charAt(i++);
+            if (c < 128 && safe[c]) {
+                sb.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(sb, c);
+            } else if (c < 0x800) {
+                appendEscaped(sb, 0xC0 | (c >> 6));
+                appendEscaped(sb, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(value.charAt(i))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(i++));
+                appendEscaped(sb, 0xF0 | (codePoint >> 18));
+                appendEscaped(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(sb, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded, so it is replaced in the same way as String.getBytes does
+                appendEscaped(sb, '?');
+            } else {
+                appendEscaped(sb, 0xE0 | (c >> 12));
+                appendEscaped(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static boolean[] safeCharacters(String characters) {
+        boolean[] safe = new boolean[128];
+        for (int i = 0; i < characters.length(); i++) {
+            safe[characters.charAt(i)] = true;
+        }
+        return safe;
+    }
+}
@@ -0,0 +1,74 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * State that generated service interface implementations keep per {@code HttpPipeline}, such as the response cache of
+ * a {@code @Cacheable} method or the requests in flight of a {@code @Coalesced} method. Calls that pass a pipeline of
+ * their own never share state with calls through another pipeline, as the pipelines may be authorized differently.
+ *
+ * <p>Pipelines are compared by identity and weakly referenced, while their state is held strongly, so the state of a
+ * pipeline lives for exactly as long as the pipeline is reachable. It does not depend on the generated instances, which
+ * are only weakly cached and may be collected and recreated between calls. Once a pipeline has been collected its state
+ * is removed the next time state is created for another pipeline. The state must not reference its pipeline, as that
+ * would keep the pipeline alive. Lookups of existing state never lock.</p>
+ *
+ * @param <K> The type of the pipeline.
+ * @param <V> The type of the state.
+ */
+public final class PipelineLocal<K, V> {
+    private final ConcurrentHashMap<Object, V> states = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> stalePipelines = new ReferenceQueue<>();
+    private final Supplier<? extends V> initial;
+
+    /**
+     * Creates per-pipeline state.
+     *
+     * @param initial Creates the state of a pipeline the first time it is used.
+     */
+    public PipelineLocal(Supplier<? extends V> initial) {
+        this.initial = initial;
+    }
+
+    /**
+     * Returns the state of the given pipeline, creating it if the pipeline has none yet. A null pipeline is never
+     * cached, and gets new state on every call.
+     *
+     * @param pipeline The pipeline, which is compared by identity.
+     * @return The state of the pipeline.
+     */
+    public V get(K pipeline) {
+        if (pipeline == null) {
+            return initial.get();
+        }
+
+        // fast path - lock-free read of existing state
+        V state = states.get(new WeakIdentityKey.Lookup(pipeline));
+        if (state != null) {
+            return state;
+        }
+
+        // slow path - tidy up after collected pipelines, then create and publish the state
+        expungeStaleEntries();
+        return states.computeIfAbsent(new WeakIdentityKey<>(pipeline, stalePipelines), key -> initial.get());
+    }
+
+    /**
+     * Returns the number of pipelines with state, including any that have been collected but not yet removed.
+     *
+     * @return The number of pipelines with state.
+     */
+    public int size() {
+        return states.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends K> stale;
+        while ((stale = stalePipelines.poll()) != null) {
+            states.remove(stale);
+        }
+    }
+}
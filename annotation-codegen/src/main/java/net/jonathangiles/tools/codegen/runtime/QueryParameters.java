@@ -0,0 +1,241 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Helps generated code to write collection and array query parameters, and single values that may be null, into the
+ * builder of the request URL. Values are written straight into the builder, percent-encoded only where they contain
+ * unsafe characters, so that no intermediate strings or lists are created. Null values and elements are left out, and a
+ * parameter with no (non-null) elements is left out of the URL entirely.
+ *
+ * <p>The separator before the first parameter written by these methods is a '?' if the URL does not yet have a query
+ * string, and a '&amp;' otherwise.</p>
+ */
+public final class QueryParameters {
+    private QueryParameters() {
+    }
+
+    /**
+     * Appends a single value, e.g. {@code ?name=a}, unless it is null.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param value The value, which may be null.
+     * @param encode Whether the value needs to be percent-encoded.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendQueryParameter(StringBuilder url, String name, Object value, boolean encode) {
+        if (value != null) {
+            url.append(separator(url)).append(name).append('=');
+            appendValue(url, value, encode ? PercentEncoder.QUERY_SAFE : null);
+        }
+        return url;
+    }
+
+    /**
+     * Appends each value as a separate parameter with the same name, e.g. {@code ?name=a&name=b}.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Whether the values need to be percent-encoded.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendMultipleQueryParameters(StringBuilder url, String name, Iterable<?> values,
+                                                              boolean encode) {
+        if (values != null) {
+            char separator = separator(url);
+            for (Object value : values) {
+                if (value != null) {
+                    url.append(separator).append(name).append('=');
+                    appendValue(url, value, encode ? PercentEncoder.QUERY_SAFE : null);
+                    separator = '&';
+                }
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends each value as a separate parameter with the same name, e.g. {@code ?name=a&name=b}.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Whether the values need to be percent-encoded.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendMultipleQueryParameters(StringBuilder url, String name, Object[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            char separator = separator(url);
+            for (Object value : values) {
+                if (value != null) {
+                    url.append(separator).append(name).append('=');
+                    appendValue(url, value, encode ? PercentEncoder.QUERY_SAFE : null);
+                    separator = '&';
+                }
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends each value as a separate parameter with the same name, e.g. {@code ?name=1&name=2}. Numbers never need
+     * to be encoded, so {@code encode} is ignored.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Ignored.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendMultipleQueryParameters(StringBuilder url, String name, int[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            char separator = separator(url);
+            for (int value : values) {
+                url.append(separator).append(name).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends each value as a separate parameter with the same name, e.g. {@code ?name=1&name=2}. Numbers never need
+     * to be encoded, so {@code encode} is ignored.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Ignored.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendMultipleQueryParameters(StringBuilder url, String name, long[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            char separator = separator(url);
+            for (long value : values) {
+                url.append(separator).append(name).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends the values as a single, comma-delimited parameter, e.g. {@code ?name=a,b}. Commas within the values are
+     * percent-encoded when {@code encode} is true, so that they cannot be mistaken for the delimiter.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Whether the values need to be percent-encoded.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendDelimitedQueryParameter(StringBuilder url, String name, Iterable<?> values,
+                                                              boolean encode) {
+        if (values != null) {
+            boolean first = true;
+            for (Object value : values) {
+                if (value != null) {
+                    appendDelimiter(url, name, first);
+                    appendValue(url, value, encode ? PercentEncoder.QUERY_ELEMENT_SAFE : null);
+                    first = false;
+                }
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends the values as a single, comma-delimited parameter, e.g. {@code ?name=a,b}. Commas within the values are
+     * percent-encoded when {@code encode} is true, so that they cannot be mistaken for the delimiter.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Whether the values need to be percent-encoded.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendDelimitedQueryParameter(StringBuilder url, String name, Object[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            boolean first = true;
+            for (Object value : values) {
+                if (value != null) {
+                    appendDelimiter(url, name, first);
+                    appendValue(url, value, encode ? PercentEncoder.QUERY_ELEMENT_SAFE : null);
+                    first = false;
+                }
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends the values as a single, comma-delimited parameter, e.g. {@code ?name=1,2}. Numbers never need to be
+     * encoded, so {@code encode} is ignored.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Ignored.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendDelimitedQueryParameter(StringBuilder url, String name, int[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                appendDelimiter(url, name, i == 0);
+                url.append(values[i]);
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Appends the values as a single, comma-delimited parameter, e.g. {@code ?name=1,2}. Numbers never need to be
+     * encoded, so {@code encode} is ignored.
+     *
+     * @param url The builder of the URL.
+     * @param name The name of the query parameter.
+     * @param values The values, which may be null.
+     * @param encode Ignored.
+     * @return The builder of the URL.
+     */
+    public static StringBuilder appendDelimitedQueryParameter(StringBuilder url, String name, long[] values,
+                                                              boolean encode) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                appendDelimiter(url, name, i == 0);
+                url.append(values[i]);
+            }
+        }
+        return url;
+    }
+
+    private static void appendDelimiter(StringBuilder url, String name, boolean first) {
+        if (first) {
+            url.append(separator(url)).append(name).append('=');
+        } else {
+            url.append(',');
+        }
+    }
+
+    // integers and booleans are appended without creating a string, as they never need to be encoded
+    private static void appendValue(StringBuilder url, Object value, boolean[] safe) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            url.append(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            url.append(((Boolean) value).booleanValue());
+        } else if (safe == null) {
+            url.append(value);
+        } else {
+            PercentEncoder.appendEncoded(url, value.toString(), 0, safe);
+        }
+    }
+
+    private static char separator(StringBuilder url) {
+        return url.indexOf("?") < 0 ? '?' : '&';
+    }
+}
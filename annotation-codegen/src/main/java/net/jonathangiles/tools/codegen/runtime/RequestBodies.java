@@ -0,0 +1,64 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Helps generated code to send streaming request bodies without buffering them. The length of a stream or channel is
+ * determined without reading from it wherever possible, so that a Content-Length can still be sent.
+ */
+public final class RequestBodies {
+    private RequestBodies() {
+    }
+
+    /**
+     * Determines how many bytes remain to be read from the given stream, without reading from it.
+     *
+     * @param stream The stream that will be sent as the request body.
+     * @return The number of bytes remaining, or null if this cannot be known up-front.
+     */
+    public static Long contentLength(InputStream stream) {
+        if (stream instanceof ByteArrayInputStream) {
+            // available() is exact for an in-memory stream
+            return (long) ((ByteArrayInputStream) stream).available();
+        } else if (stream != null && stream.getClass() == FileInputStream.class) {
+            // subclasses could override read() to return something other than the file content
+            return contentLength(((FileInputStream) stream).getChannel());
+        }
+        return null;
+    }
+
+    /**
+     * Determines how many bytes remain to be read from the given channel, without reading from it.
+     *
+     * @param channel The channel that will be sent as the request body.
+     * @return The number of bytes remaining, or null if this cannot be known up-front.
+     */
+    public static Long contentLength(ReadableByteChannel channel) {
+        if (channel instanceof SeekableByteChannel) {
+            try {
+                SeekableByteChannel seekableChannel = (SeekableByteChannel) channel;
+                return Math.max(0L, seekableChannel.size() - seekableChannel.position());
+            } catch (IOException e) {
+                // the request will be sent without a Content-Length instead
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adapts a channel to a stream, which reads from the channel's current position.
+     *
+     * @param channel The channel that will be sent as the request body.
+     * @return A stream that reads from the channel.
+     */
+    public static InputStream toInputStream(ReadableByteChannel channel) {
+        return Channels.newInputStream(channel);
+    }
+}
@@ -0,0 +1,27 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Builds the keys under which generated code caches and coalesces requests. A key is the URL of a request followed by
+ * the values of the headers that are set per request, as the constant headers of a method are the same for every
+ * request it sends.
+ */
+public final class RequestKey {
+    private RequestKey() {
+    }
+
+    /**
+     * Returns the key of a request.
+     *
+     * @param url The URL of the request.
+     * @param headerValues The values of the headers that are set per request, in a fixed order.
+     * @return The key of the request.
+     */
+    public static String of(String url, Object... headerValues) {
+        StringBuilder sb = new StringBuilder(url.length() + 16 * headerValues.length).append(url);
+        for (Object headerValue : headerValues) {
+            // a newline cannot appear in a URL or a header value, so the key is unambiguous
+            sb.append('\n').append(headerValue);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,15 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Thrown when a response has an unexpected 404 (Not Found) status code.
+ */
+public class ResourceNotFoundException extends ClientErrorException {
+    /**
+     * Creates an exception for the given status code.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public ResourceNotFoundException(int statusCode) {
+        super(statusCode);
+    }
+}
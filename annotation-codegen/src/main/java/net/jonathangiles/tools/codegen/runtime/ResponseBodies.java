@@ -0,0 +1,65 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Helps generated code to return response bodies as streams, without buffering them. The stream is handed to the
+ * caller while the response is still open, and closing the stream is what closes the response, so the connection is
+ * only released once the caller has finished reading.
+ */
+public final class ResponseBodies {
+    private ResponseBodies() {
+    }
+
+    /**
+     * Wraps a response body so that closing it also closes the response that it came from.
+     *
+     * @param body The response body.
+     * @param response The response, which is closed when the returned stream is closed.
+     * @return A stream of the response body.
+     */
+    public static InputStream closing(InputStream body, Closeable response) {
+        return new ClosingInputStream(body, response);
+    }
+
+    /**
+     * Wraps a response body as a channel, so that closing the channel also closes the response that it came from.
+     *
+     * @param body The response body.
+     * @param response The response, which is closed when the returned channel is closed.
+     * @return A channel of the response body.
+     */
+    public static ReadableByteChannel closingChannel(InputStream body, Closeable response) {
+        return Channels.newChannel(closing(body, response));
+    }
+
+    private static final class ClosingInputStream extends FilterInputStream {
+        private final Closeable response;
+        private boolean closed;
+
+        ClosingInputStream(InputStream body, Closeable response) {
+            super(body);
+            this.response = response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // the response is closed even if the body fails to close, as it owns the connection
+            try {
+                super.close();
+            } finally {
+                response.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least recently used cache of response bodies, used by the generated implementations of
+ * {@code @Cacheable} service interface methods. Entries are keyed on a {@link RequestKey}, and keep the
+ * validators of their response so that they can be revalidated with a conditional request once they are stale.
+ *
+ * <p>Freshness comes from the {@code max-age} of the {@code Cache-Control} response header, and is measured with
+ * {@link System#nanoTime()} so that it is not affected by changes to the wall clock. The {@code Expires} header is
+ * not used. Lookups take a short lock, as even a lookup reorders a least recently used map.</p>
+ */
+public final class ResponseCache {
+    // the maximum age of a response that may be stored but has to be revalidated before every use
+    private static final long MUST_REVALIDATE = 0;
+
+    // the maximum age of a response that must not be stored
+    private static final long NO_STORE = -1;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates a response cache.
+     *
+     * @param maxEntries The number of responses to cache, after which the least recently used response is evicted.
+     */
+    public ResponseCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive, but was " + maxEntries);
+        }
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached response for the given key, whether or not it is fresh.
+     *
+     * @param key The cache key of the request.
+     * @return The cached response, or null if there is none.
+     */
+    public Entry get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Caches a response, or removes any cached response for the key if the response cannot be cached.
+     *
+     * @param key The cache key of the request.
+     * @param body The response body, which must not be modified afterwards.
+     * @param eTag The {@code ETag} response header, or null.
+     * @param lastModified The {@code Last-Modified} response header, or null.
+     * @param cacheControl The {@code Cache-Control} response header, or null.
+     */
+    public void put(String key, byte[] body, String eTag, String lastModified, String cacheControl) {
+        long maxAgeNanos = maxAgeNanos(cacheControl);
+
+        // a response that is stale straight away and has no validator would never be used
+        boolean storable = maxAgeNanos > MUST_REVALIDATE
+                || (maxAgeNanos == MUST_REVALIDATE && (eTag != null || lastModified != null));
+        synchronized (entries) {
+            if (storable) {
+                entries.put(key, new Entry(body, eTag, lastModified, System.nanoTime() + maxAgeNanos));
+            } else {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Records that a cached response was revalidated by a {@code 304 Not Modified} response, which makes it fresh
+     * again for the max-age of the new response.
+     *
+     * @param key The cache key of the request.
+     * @param entry The cached response that was revalidated.
+     * @param cacheControl The {@code Cache-Control} header of the {@code 304} response, or null.
+     */
+    public void revalidated(String key, Entry entry, String cacheControl) {
+        long maxAgeNanos = maxAgeNanos(cacheControl);
+        synchronized (entries) {
+            if (maxAgeNanos == NO_STORE) {
+                entries.remove(key, entry);
+            } else if (entries.get(key) == entry) {
+                // a newer response that was cached in the meantime is kept
+                entries.put(key, new Entry(entry.body, entry.eTag, entry.lastModified, System.nanoTime() + maxAgeNanos));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached responses.
+     *
+     * @return The number of cached responses.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // returns the max-age of a Cache-Control header in nanoseconds, or NO_STORE if the response must not be stored
+    static long maxAgeNanos(String cacheControl) {
+        if (cacheControl == null) {
+            return MUST_REVALIDATE;
+        }
+
+        long maxAgeNanos = MUST_REVALIDATE;
+        boolean noCache = false;
+        for (String directive : cacheControl.split(",")) {
+            String name = directive.trim().toLowerCase(Locale.ROOT);
+            if (name.equals("no-store")) {
+                return NO_STORE;
+            } else if (name.equals("no-cache") || name.startsWith("no-cache=")) {
+                noCache = true;
+            } else if (name.startsWith("max-age=")) {
+                try {
+                    maxAgeNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(name.substring("max-age=".length()).trim()));
+                } catch (NumberFormatException e) {
+                    // an invalid max-age makes the response stale, as if it had none
+                    maxAgeNanos = MUST_REVALIDATE;
+                }
+            }
+        }
+        return noCache ? MUST_REVALIDATE : Math.max(MUST_REVALIDATE, maxAgeNanos);
+    }
+
+    /**
+     * A cached response, which is immutable.
+     */
+    public static final class Entry {
+        private final byte[] body;
+        private final String eTag;
+        private final String lastModified;
+        private final long expiresAtNanos;
+
+        Entry(byte[] body, String eTag, String lastModified, long expiresAtNanos) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        /**
+         * Returns the response body, which must not be modified.
+         *
+         * @return The response body.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Returns the {@code ETag} of the response, which is sent as {@code If-None-Match} to revalidate it.
+         *
+         * @return The ETag, or null if the response had none.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Returns the {@code Last-Modified} date of the response, which is sent as {@code If-Modified-Since} to
+         * revalidate it.
+         *
+         * @return The last modified date, or null if the response had none.
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns whether the response may still be used without revalidating it.
+         *
+         * @return Whether the response is fresh.
+         */
+        public boolean isFresh() {
+            return System.nanoTime() - expiresAtNanos < 0;
+        }
+    }
+}
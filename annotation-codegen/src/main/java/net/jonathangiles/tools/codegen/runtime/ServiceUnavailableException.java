@@ -0,0 +1,15 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Thrown when a response has an unexpected 503 (Service Unavailable) status code.
+ */
+public class ServiceUnavailableException extends ServerErrorException {
+    /**
+     * Creates an exception for the given status code.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public ServiceUnavailableException(int statusCode) {
+        super(statusCode);
+    }
+}
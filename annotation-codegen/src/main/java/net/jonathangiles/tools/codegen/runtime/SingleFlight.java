@@ -0,0 +1,110 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls that are in flight at the same time, used by the generated implementations of
+ * {@code @Coalesced} service interface methods. The first call for a key runs, and any call for the same key that
+ * arrives before it has finished waits for its result instead of running itself. Once a call has finished, the next
+ * call for its key runs again, so results are never reused after the fact.
+ *
+ * <p>Blocking and non-blocking calls for the same key share a flight. A failure is shared in the same way as a
+ * result, so every waiting caller gets the same exception.</p>
+ *
+ * @param <T> The type of the results.
+ */
+public final class SingleFlight<T> {
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the given call, or waits for the result of the identical call that is already in flight.
+     *
+     * @param key The key of the call.
+     * @param call The call, which is only run if there is no identical call in flight.
+     * @return The result of the call.
+     */
+    public T execute(String key, Supplier<T> call) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Starts the given call, or joins the identical call that is already in flight.
+     *
+     * @param key The key of the call.
+     * @param call Starts the call, which is only done if there is no identical call in flight.
+     * @return The result of the call. Each caller gets its own future, so a caller that cancels it does not cancel
+     * the call for the others.
+     */
+    public CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.thenApply(Function.identity());
+        }
+
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete((result, error) -> {
+            inFlight.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(unwrap(error));
+            } else {
+                flight.complete(result);
+            }
+        });
+        return flight.thenApply(Function.identity());
+    }
+
+    /**
+     * Returns the number of calls that are in flight.
+     *
+     * @return The number of calls in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    private static <T> T await(CompletableFuture<T> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
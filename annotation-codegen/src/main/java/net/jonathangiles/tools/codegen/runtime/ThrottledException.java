@@ -0,0 +1,15 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Thrown when a response has an unexpected 429 (Too Many Requests) status code.
+ */
+public class ThrottledException extends ClientErrorException {
+    /**
+     * Creates an exception for the given status code.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public ThrottledException(int statusCode) {
+        super(statusCode);
+    }
+}
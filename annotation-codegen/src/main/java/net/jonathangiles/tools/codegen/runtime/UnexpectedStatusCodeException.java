@@ -0,0 +1,71 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+/**
+ * Thrown by generated service interface implementations when a response has a status code that the service method
+ * does not expect. Use {@link #of(int)} to create the most specific exception type for a status code.
+ *
+ * <p>By default these exceptions do not capture a stack trace, as a burst of error responses (for example throttling
+ * or an unavailable service) would otherwise spend much of its time filling in stack traces that point into generated
+ * code. Stack traces can be enabled by setting the {@value #CAPTURE_STACK_TRACES_PROPERTY} system property to
+ * {@code true}. Suppressed exceptions are kept, so that when a call fails more than once, such as a hedged request
+ * whose copy also fails, each failure is reported.</p>
+ */
+public class UnexpectedStatusCodeException extends RuntimeException {
+    /**
+     * The system property that, when set to {@code true}, causes these exceptions to capture a stack trace.
+     */
+    public static final String CAPTURE_STACK_TRACES_PROPERTY = "net.jonathangiles.tools.codegen.captureStackTraces";
+
+    private static final boolean CAPTURE_STACK_TRACES = Boolean.getBoolean(CAPTURE_STACK_TRACES_PROPERTY);
+
+    private final int statusCode;
+
+    /**
+     * Creates an exception for the given unexpected status code.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public UnexpectedStatusCodeException(int statusCode) {
+        super(null, null, true, CAPTURE_STACK_TRACES);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Creates the most specific exception for the given unexpected status code.
+     *
+     * @param statusCode The status code of the response.
+     * @return The exception to throw.
+     */
+    public static UnexpectedStatusCodeException of(int statusCode) {
+        switch (statusCode) {
+            case 404:
+                return new ResourceNotFoundException(statusCode);
+            case 429:
+                return new ThrottledException(statusCode);
+            case 503:
+                return new ServiceUnavailableException(statusCode);
+            default:
+                if (statusCode >= 400 && statusCode < 500) {
+                    return new ClientErrorException(statusCode);
+                } else if (statusCode >= 500 && statusCode < 600) {
+                    return new ServerErrorException(statusCode);
+                }
+                return new UnexpectedStatusCodeException(statusCode);
+        }
+    }
+
+    /**
+     * Returns the status code of the response.
+     *
+     * @return The status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // the message is only built if it is asked for, rather than for every exception that is thrown
+    @Override
+    public String getMessage() {
+        return "Unexpected response code: " + statusCode;
+    }
+}
@@ -0,0 +1,62 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A map key that weakly references an object and compares it by identity, used by the caches that are keyed on an
+ * {@code HttpPipeline} so that pipelines that are no longer used can be collected.
+ *
+ * @param <K> The type of the referenced object.
+ */
+final class WeakIdentityKey<K> extends WeakReference<K> {
+    // the hash code is captured up-front so that it remains stable once the referent has been collected, allowing the
+    // entry to be found and removed
+    private final int hash;
+
+    WeakIdentityKey(K key, ReferenceQueue<K> queue) {
+        super(key, queue);
+        this.hash = System.identityHashCode(key);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        Object referent = get();
+        if (referent == null) {
+            return false;
+        } else if (obj instanceof WeakIdentityKey) {
+            return referent == ((WeakIdentityKey<?>) obj).get();
+        } else if (obj instanceof Lookup) {
+            return referent == ((Lookup) obj).key;
+        }
+        return false;
+    }
+
+    // A short-lived key used only for lookups, so that reads do not need to create a WeakReference
+    static final class Lookup {
+        private final Object key;
+
+        Lookup(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof WeakIdentityKey ? ((WeakIdentityKey<?>) obj).get() == key
+                    : obj instanceof Lookup && ((Lookup) obj).key == key;
+        }
+    }
+}
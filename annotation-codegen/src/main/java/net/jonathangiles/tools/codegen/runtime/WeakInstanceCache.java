@@ -0,0 +1,69 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache of instances keyed on the identity of another object, used by generated service interface
+ * implementations to share one instance per {@code HttpPipeline}.
+ *
+ * <p>Both keys and values are weakly referenced. Generated instances hold a strong reference to their pipeline, so
+ * holding the values strongly would keep every pipeline ever seen alive. Once a pipeline is no longer used elsewhere
+ * its entry is removed the next time an instance is created. Lookups of an existing instance never lock.</p>
+ *
+ * @param <K> The type of the key.
+ * @param <V> The type of the cached instances.
+ */
+public final class WeakInstanceCache<K, V> {
+    private final ConcurrentHashMap<Object, WeakReference<V>> instances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> staleKeys = new ReferenceQueue<>();
+
+    /**
+     * Returns the instance for the given key, creating it with the given factory if there is no live instance.
+     * A null key is never cached, and results in a new instance on every call.
+     *
+     * @param key The key to look up, which is compared by identity.
+     * @param factory Creates a new instance for the key. Under contention this may be called more than once for the
+     * same key, but only one of the created instances is ever cached.
+     * @return The instance for the key.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        if (key == null) {
+            return factory.apply(null);
+        }
+
+        // fast path - lock-free read of an existing instance
+        WeakReference<V> existing = instances.get(new WeakIdentityKey.Lookup(key));
+        V value = existing == null ? null : existing.get();
+        if (value != null) {
+            return value;
+        }
+
+        // slow path - tidy up after collected pipelines, then create and publish a new instance
+        expungeStaleEntries();
+        V created = factory.apply(key);
+        WeakReference<V> published = instances.merge(new WeakIdentityKey<>(key, staleKeys), new WeakReference<>(created),
+                (current, replacement) -> current.get() != null ? current : replacement);
+        value = published.get();
+        return value != null ? value : created;
+    }
+
+    /**
+     * Returns the number of entries in the cache, including any whose keys have been collected but not yet removed.
+     *
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        return instances.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends K> stale;
+        while ((stale = staleKeys.poll()) != null) {
+            instances.remove(stale);
+        }
+    }
+}
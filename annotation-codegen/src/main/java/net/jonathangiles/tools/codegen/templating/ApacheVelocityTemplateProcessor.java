@@ -1,5 +1,7 @@
 package net.jonathangiles.tools.codegen.templating;
 
+import net.jonathangiles.tools.codegen.AnnotationProcessor;
+import net.jonathangiles.tools.codegen.models.HttpRequestContext;
 import net.jonathangiles.tools.codegen.models.TemplateInput;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
@@ -7,57 +9,113 @@ import org.apache.velocity.app.VelocityEngine;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.tools.Diagnostic;
-import javax.tools.JavaFileObject;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 public class ApacheVelocityTemplateProcessor implements TemplateProcessor {
+    // The engine and the parsed template are shared by every interface in every round. A Template can be merged
+    // concurrently, as all per-merge state lives in the VelocityContext.
+    private static final class Templates {
+        static final Template SERVICE_INTERFACE_IMPL = createEngine().getTemplate("serviceInterfaceImpl.vm");
+
+        private static VelocityEngine createEngine() {
+            Properties props = new Properties();
+            URL url = ApacheVelocityTemplateProcessor.class.getClassLoader().getResource("velocity.properties");
+            try (InputStream in = url.openStream()) {
+                props.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            VelocityEngine ve = new VelocityEngine(props);
+            ve.init();
+            return ve;
+        }
+    }
+
     @Override
-    public void process(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
-        try {
-            String serviceInterfaceImplFQN = templateInput.getServiceInterfaceFQN() + "Impl";
-
-            System.out.println("Creating source file: " + serviceInterfaceImplFQN);
-            JavaFileObject serviceInterfaceImplOutputFile = processingEnv.getFiler().createSourceFile(serviceInterfaceImplFQN);
-
-            try (PrintWriter out = new PrintWriter(serviceInterfaceImplOutputFile.openWriter())) {
-                Properties props = new Properties();
-                URL url = this.getClass().getClassLoader().getResource("velocity.properties");
-                props.load(url.openStream());
-
-                VelocityEngine ve = new VelocityEngine(props);
-                ve.init();
-
-                VelocityContext vc = new VelocityContext();
-                vc.put("imports", templateInput.getImports().keySet());
-                vc.put("packageName", templateInput.getPackageName());
-                vc.put("serviceInterfaceShortName", templateInput.getServiceInterfaceShortName());
-                vc.put("serviceInterfaceImplShortName", templateInput.getServiceInterfaceImplShortName());
-                vc.put("methods", templateInput.getHttpRequestContexts());
-
-                Template vt = ve.getTemplate("serviceInterfaceImpl.vm");
-
-                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
-                        "Applying velocity template: " + vt.getName());
-
-                // take the output from the template and format it
-//                StringWriter writer = new StringWriter();
-                vt.merge(vc, out);
-
-//                System.out.println("Formatting source file: " + serviceInterfaceImplFQN);
-//
-//                String source = writer.toString();
-//                Formatter formatter = new Formatter();
-//                String formattedSource = formatter.formatSource(source);
-//
-//                try (PrintWriter out2 = new PrintWriter(serviceInterfaceImplOutputFile.openWriter())) {
-//                    out2.write(formattedSource);
-//                }
+    public GeneratedSource generate(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
+        String serviceInterfaceImplFQN = templateInput.getServiceInterfaceFQN() + "Impl";
+        if (!isSupported(templateInput, processingEnv)) {
+            return null;
+        }
+        StringWriter out = new StringWriter();
+
+        VelocityContext vc = new VelocityContext();
+        vc.put("imports", templateInput.getImports().keySet());
+        vc.put("staticImports", templateInput.getUrlStaticImports());
+        vc.put("packageName", templateInput.getPackageName());
+        vc.put("serviceInterfaceShortName", templateInput.getServiceInterfaceShortName());
+        vc.put("serviceInterfaceImplShortName", templateInput.getServiceInterfaceImplShortName());
+        vc.put("methods", templateInput.getHttpRequestContexts());
+        vc.put("fingerprint", templateInput.getFingerprint());
+
+        Template vt = Templates.SERVICE_INTERFACE_IMPL;
+
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "Applying velocity template: " + vt.getName());
+
+        // the template reads the models, which may in turn read from the compiler, so it is merged here on the
+        // compiler thread rather than when the source is rendered
+        vt.merge(vc, out);
+
+        String source = out.toString();
+        return new GeneratedSource(serviceInterfaceImplFQN, templateInput.getServiceInterfaceElement(), () -> source);
+    }
+
+    // The template only sends request bodies and hands back response bodies as they are, so methods that need more
+    // than that are reported here, rather than generated into code that fails when it is called. Nor does it hedge,
+    // cache or coalesce requests, record metrics or trace calls, so these are reported rather than silently ignored.
+    private static boolean isSupported(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
+        boolean supported = true;
+        if (templateInput.isMetricsEnabled()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The velocity template cannot record "
+                    + "metrics, which are turned on by the " + AnnotationProcessor.METRICS_OPTION + " option",
+                    templateInput.getServiceInterfaceElement());
+            supported = false;
+        }
+        if (templateInput.isTracingEnabled()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The velocity template cannot trace "
+                    + "calls, set tracing = false on the @ServiceInterface of '"
+                    + templateInput.getServiceInterfaceShortName() + "'", templateInput.getServiceInterfaceElement());
+            supported = false;
+        }
+        for (HttpRequestContext method : templateInput.getHttpRequestContexts()) {
+            List<String> unsupported = new ArrayList<>();
+            if (method.getHedging() != null) {
+                unsupported.add("@Hedged");
+            }
+            if (method.isCached()) {
+                unsupported.add("@Cacheable");
+            }
+            if (method.isCoalesced()) {
+                unsupported.add("@Coalesced");
+            }
+            for (String annotation : unsupported) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The velocity template does not "
+                        + "support " + annotation + ", which is used on '" + method.getMethodName() + "'",
+                        method.getMethodElement());
+                supported = false;
+            }
+            if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.DESERIALIZE) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The velocity template cannot "
+                        + "deserialize the response of '" + method.getMethodName() + "', which returns "
+                        + method.getMethodReturnType(), method.getMethodElement());
+                supported = false;
+            }
+            if (method.getBody() != null && method.getBody().getStrategy() == HttpRequestContext.Body.Strategy.JSON) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "The velocity template cannot "
+                        + "serialize the body of '" + method.getMethodName() + "', which is a "
+                        + method.getBody().getParameterType(), method.getMethodElement());
+                supported = false;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return supported;
     }
 }
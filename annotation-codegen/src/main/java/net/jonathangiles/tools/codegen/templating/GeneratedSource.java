@@ -0,0 +1,64 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.Supplier;
+
+/**
+ * A generated source file that has been fully modelled, but not yet rendered to text or written.
+ *
+ * <p>Everything that needs the compiler (such as inspecting types) happens before a GeneratedSource is created, so
+ * {@link #render()} is safe to call from any thread. Writing must still happen on the compiler thread, as the
+ * {@code Filer} is not thread-safe.</p>
+ */
+public final class GeneratedSource {
+    private final String typeFQN;
+    private final Element originatingElement;
+    private final Supplier<String> renderer;
+
+    GeneratedSource(String typeFQN, Element originatingElement, Supplier<String> renderer) {
+        this.typeFQN = typeFQN;
+        this.originatingElement = originatingElement;
+        this.renderer = renderer;
+    }
+
+    public String getTypeFQN() {
+        return typeFQN;
+    }
+
+    /**
+     * Renders the source text. This may be called from any thread.
+     *
+     * @return The source text.
+     */
+    public String render() {
+        return renderer.get();
+    }
+
+    /**
+     * Writes previously rendered source text through the {@code Filer}. This must be called from the compiler thread.
+     *
+     * @param processingEnv The processing environment.
+     * @param source The source text, as returned by {@link #render()}.
+     */
+    public void write(ProcessingEnvironment processingEnv, String source) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(typeFQN, originatingElement);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (FilerException e) {
+            // an out-of-date copy of this type is an input to this compilation, and cannot be replaced
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to regenerate " + typeFQN
+                    + " as an out-of-date copy is part of this compilation, clean the generated sources and rebuild",
+                    originatingElement);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
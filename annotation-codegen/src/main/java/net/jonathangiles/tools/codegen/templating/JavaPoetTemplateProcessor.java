@@ -1,44 +1,121 @@
 package net.jonathangiles.tools.codegen.templating;
 
 import com.squareup.javapoet.*;
+import net.jonathangiles.tools.codegen.annotations.AsyncMethodType;
 import net.jonathangiles.tools.codegen.models.HttpRequestContext;
 import net.jonathangiles.tools.codegen.models.TemplateInput;
+import net.jonathangiles.tools.codegen.utils.Fingerprints;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
-import java.io.IOException;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class JavaPoetTemplateProcessor implements TemplateProcessor {
     private ClassName INTERFACE_TYPE;
     private final ClassName HTTP_PIPELINE = ClassName.get("com.azure.core.http", "HttpPipeline");
     private final ClassName HTTP_REQUEST = ClassName.get("com.azure.core.http", "HttpRequest");
     private final ClassName HTTP_RESPONSE = ClassName.get("com.azure.core.http", "HttpResponse");
+    private final ClassName HTTP_HEADERS = ClassName.get("com.azure.core.http", "HttpHeaders");
+    private final ClassName HTTP_HEADER_NAME = ClassName.get("com.azure.core.http", "HttpHeaderName");
     private final ClassName HTTP_METHOD = ClassName.get("com.azure.core.http", "HttpMethod");
     private final ClassName CONTEXT = ClassName.get("com.azure.core.util", "Context");
+    private final ClassName BINARY_DATA = ClassName.get("com.azure.core.util", "BinaryData");
     private final ClassName INSTRUMENTATION_SCOPE = ClassName.get("com.azure.core.util.tracing", "InstrumentationScope");
+    private final ClassName TRACER = ClassName.get("com.azure.core.util.tracing", "Tracer");
+    private final ClassName MONO = ClassName.get("reactor.core.publisher", "Mono");
+    private final ClassName FLUX = ClassName.get("reactor.core.publisher", "Flux");
+    private final ClassName EXCEPTIONS = ClassName.get("reactor.core", "Exceptions");
+    private final ClassName RESPONSE_BODIES = ClassName.get("net.jonathangiles.tools.codegen.runtime", "ResponseBodies");
+    private final ClassName REQUEST_BODIES = ClassName.get("net.jonathangiles.tools.codegen.runtime", "RequestBodies");
+    private final ClassName PAGED_ITEMS = ClassName.get("net.jonathangiles.tools.codegen.runtime", "PagedItems");
+    private final ClassName REQUEST_KEY = ClassName.get("net.jonathangiles.tools.codegen.runtime", "RequestKey");
+    private final ClassName SINGLE_FLIGHT = ClassName.get("net.jonathangiles.tools.codegen.runtime", "SingleFlight");
+    private final ClassName RESPONSE_CACHE = ClassName.get("net.jonathangiles.tools.codegen.runtime", "ResponseCache");
+    private final ClassName HEDGING_POLICY = ClassName.get("net.jonathangiles.tools.codegen.runtime", "HedgingPolicy");
+    private final ClassName OPERATION_METRICS = ClassName.get("net.jonathangiles.tools.codegen.runtime", "OperationMetrics");
+    private final ClassName UNEXPECTED_STATUS_CODE_EXCEPTION = ClassName.get("net.jonathangiles.tools.codegen.runtime", "UnexpectedStatusCodeException");
+    private final ClassName WEAK_INSTANCE_CACHE = ClassName.get("net.jonathangiles.tools.codegen.runtime", "WeakInstanceCache");
+    private final ClassName PIPELINE_LOCAL = ClassName.get("net.jonathangiles.tools.codegen.runtime", "PipelineLocal");
 
     private TypeSpec.Builder classBuilder;
+    private JsonDeserializerGenerator jsonDeserializer;
+    private JsonSerializerGenerator jsonSerializer;
+    private ProcessingEnvironment processingEnv;
+
+    // static header names and header templates, shared by all methods of the generated class
+    private final Map<String, FieldSpec> headerNameFields = new LinkedHashMap<>();
+    private final Map<HttpRequestContext, FieldSpec> headerTemplateFields = new LinkedHashMap<>();
+    private final Set<String> usedFieldNames = new HashSet<>(Arrays.asList("INSTANCE_CACHE"));
+
+    // the names of the nested classes that hold the arguments of batch calls
+    private final Set<String> usedArgsClassNames = new HashSet<>();
+
+    // the implementation class, which the classes of batch arguments are nested in
+    private ClassName implClassName;
+
+    // the metrics of each operation, keyed by method name, when the metrics processor option is enabled
+    private final Map<String, FieldSpec> metricsFields = new LinkedHashMap<>();
+
+    // the hedging policy of each hedged operation, keyed by method name
+    private final Map<String, FieldSpec> hedgingFields = new LinkedHashMap<>();
+
+    // the response caches of each cached method, one per pipeline as calls through different pipelines may be authorized
+    // differently
+    private final Map<HttpRequestContext, FieldSpec> cacheFields = new LinkedHashMap<>();
+
+    // the requests in flight of each coalesced method, which are per pipeline for the same reason as the caches
+    private final Map<HttpRequestContext, FieldSpec> inFlightFields = new LinkedHashMap<>();
+
+    // the small methods that rarely taken paths are moved out into, so that the generated methods that handle calls
+    // stay within the size up to which HotSpot inlines them, keyed by name
+    private final Map<String, MethodSpec> helperMethods = new LinkedHashMap<>();
+    private final Map<HttpRequestContext, MethodSpec> cachedSendMethods = new LinkedHashMap<>();
+
+    private boolean metricsEnabled;
+
+    // whether the generated methods start an InstrumentationScope, which can be turned off per service interface
+    private boolean tracingEnabled;
 
     @Override
-    public void process(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
+    public GeneratedSource generate(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
+        this.processingEnv = processingEnv;
+        this.metricsEnabled = templateInput.isMetricsEnabled();
+        this.tracingEnabled = templateInput.isTracingEnabled();
         String serviceInterfaceImplFQN = templateInput.getServiceInterfaceFQN() + "Impl";
         String packageName = templateInput.getPackageName();
         String serviceInterfaceImplShortName = templateInput.getServiceInterfaceImplShortName();
+        this.implClassName = ClassName.get(packageName, serviceInterfaceImplShortName);
         String serviceInterfaceShortName = templateInput.getServiceInterfaceShortName();
 
         INTERFACE_TYPE = ClassName.get(packageName, serviceInterfaceShortName);
 
-        // Create the INSTANCE_MAP field
-        TypeName mapType = ParameterizedTypeName.get(
-                ClassName.get(Map.class),
+        // Create the INSTANCE_CACHE field. Instances are cached per pipeline, with lock-free lookups, and without
+        // keeping pipelines that are no longer used alive
+        TypeName cacheType = ParameterizedTypeName.get(
+                WEAK_INSTANCE_CACHE,
                 HTTP_PIPELINE,
                 INTERFACE_TYPE
         );
-        FieldSpec instanceMap = FieldSpec.builder(mapType, "INSTANCE_MAP", Modifier.PRIVATE, Modifier.STATIC)
-                .initializer("new $T<>()", HashMap.class)
+        FieldSpec instanceCache = FieldSpec.builder(cacheType, "INSTANCE_CACHE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>()", WEAK_INSTANCE_CACHE)
                 .build();
 
         // Create the defaultPipeline field
@@ -50,47 +127,112 @@ public class JavaPoetTemplateProcessor implements TemplateProcessor {
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                 .returns(ClassName.get(packageName, serviceInterfaceShortName))
                 .addParameter(HTTP_PIPELINE, "defaultPipeline")
-                .addStatement("return INSTANCE_MAP.computeIfAbsent(defaultPipeline, pipeline -> new $N(defaultPipeline))", serviceInterfaceImplShortName)
+                .addStatement("return INSTANCE_CACHE.computeIfAbsent(defaultPipeline, $N::new)", serviceInterfaceImplShortName)
                 .build();
 
         // Create the constructor
-        MethodSpec constructor = MethodSpec.constructorBuilder()
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PRIVATE)
                 .addParameter(HTTP_PIPELINE, "defaultPipeline")
-                .addStatement("this.defaultPipeline = defaultPipeline")
-                .build();
+                .addStatement("this.defaultPipeline = defaultPipeline");
 
         classBuilder = TypeSpec.classBuilder(serviceInterfaceImplShortName)
                 .addModifiers(Modifier.PUBLIC)
                 .addSuperinterface(INTERFACE_TYPE)
-                .addField(instanceMap)
-                .addField(defaultPipeline)
+                .addField(instanceCache)
+                .addField(defaultPipeline);
+
+        if (tracingEnabled) {
+            // whether the default pipeline traces at all is checked once, so that calls through it without tracing only
+            // cost a field read. getInstance accepts a null pipeline, for callers that only ever pass a pipeline of their
+            // own, and calls through a pipeline of their own are traced according to that pipeline
+            classBuilder.addField(FieldSpec.builder(boolean.class, "tracing", Modifier.PRIVATE, Modifier.FINAL).build());
+            constructor.addStatement("this.tracing = defaultPipeline != null && defaultPipeline.getTracer() != null\n"
+                    + "&& defaultPipeline.getTracer().isEnabled()");
+            classBuilder.addMethod(MethodSpec.methodBuilder("startScope")
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(INSTRUMENTATION_SCOPE)
+                    .addParameter(HTTP_PIPELINE, "pipeline")
+                    .addParameter(String.class, "name")
+                    .addParameter(CONTEXT, "context")
+                    .addStatement("boolean enabled = pipeline == defaultPipeline ? tracing\n"
+                            + ": pipeline != null && pipeline.getTracer() != null && pipeline.getTracer().isEnabled()")
+                    .addComment("no scope is started under a caller's span that is not being sampled")
+                    .addStatement("boolean trace = enabled && (context == null || !context.getData($T.PARENT_TRACE_CONTEXT_KEY).isPresent()\n"
+                            + "|| pipeline.getTracer().isRecording(context))", TRACER)
+                    .addStatement("return trace ? pipeline.getInstrumentation().startScope(name, context) : null")
+                    .build());
+        }
+
+        classBuilder
                 .addMethod(getInstance)
-                .addMethod(constructor);
+                .addMethod(constructor.build());
+        jsonDeserializer = new JsonDeserializerGenerator(processingEnv);
+        jsonSerializer = new JsonSerializerGenerator(processingEnv);
 
         for (HttpRequestContext method : templateInput.getHttpRequestContexts()) {
             generateForwardingMethod(method);
+            if (method.getPaging() != null) {
+                // a paged method has no other variants, as its items are already fetched without blocking
+                generatePagedMethod(method);
+                continue;
+            }
             generateMethod(method);
+            // batch methods are built on the Mono variant, which is kept private if it is not asked for
+            boolean batch = templateInput.isBatchMethodsEnabled() && getStreamingBody(method) == null;
+            if (!templateInput.getAsyncMethodTypes().isEmpty() || batch) {
+                generateAsyncMethods(method, templateInput.getAsyncMethodTypes());
+            }
+            if (batch) {
+                generateBatchMethods(method);
+            }
         }
+        if (jsonDeserializer.hasErrors() || jsonSerializer.hasErrors()) {
+            return null;
+        }
+        classBuilder.addFields(headerNameFields.values());
+        classBuilder.addFields(headerTemplateFields.values());
+        if (metricsEnabled) {
+            classBuilder.addFields(metricsFields.values());
+            classBuilder.addMethod(generateMetricsMethod());
+        }
+        classBuilder.addFields(cacheFields.values());
+        classBuilder.addFields(inFlightFields.values());
+        if (!hedgingFields.isEmpty()) {
+            classBuilder.addFields(hedgingFields.values());
+            classBuilder.addMethod(generateSendHedgedMethod());
+        }
+        classBuilder.addMethods(helperMethods.values());
+        classBuilder.addMethods(jsonDeserializer.getMethods());
+        classBuilder.addMethods(jsonSerializer.getMethods());
 
-        TypeSpec typeSpec = classBuilder.build();
-
-        JavaFile javaFile = JavaFile.builder(packageName, typeSpec)
-                .indent("    ") // four spaces
+        // the service interface is the only originating element, so that incremental builds can isolate this output
+        TypeSpec typeSpec = classBuilder
+                .addOriginatingElement(templateInput.getServiceInterfaceElement())
                 .build();
 
-        try {
-            javaFile.writeTo(processingEnv.getFiler());
-        } catch (IOException e) {
-            e.printStackTrace();
+        JavaFile.Builder javaFile = JavaFile.builder(packageName, typeSpec)
+                .addFileComment("Code generated by the annotation-codegen processor. Do not edit.\n")
+                .addFileComment("$L$L", Fingerprints.FINGERPRINT_PREFIX, templateInput.getFingerprint())
+                .indent("    "); // four spaces
+
+        // the URL expressions call the encoders and query parameter helpers of the runtime by their simple names, so
+        // the ones that they call are imported
+        for (String staticImport : templateInput.getUrlStaticImports()) {
+            int lastDot = staticImport.lastIndexOf('.');
+            javaFile.addStaticImport(ClassName.bestGuess(staticImport.substring(0, lastDot)), staticImport.substring(lastDot + 1));
         }
+
+        // JavaFile is immutable, so it can be rendered on any thread
+        JavaFile file = javaFile.build();
+        return new GeneratedSource(serviceInterfaceImplFQN, templateInput.getServiceInterfaceElement(), file::toString);
     }
 
     private void generateForwardingMethod(HttpRequestContext method) {
         MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(method.getMethodName())
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
-                .returns(ClassName.get("", method.getMethodReturnType()));
+                .returns(TypeName.get(method.getMethodReturnTypeMirror()));
 
         // add method parameters, with Context at the end
         for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
@@ -98,7 +240,7 @@ public class JavaPoetTemplateProcessor implements TemplateProcessor {
         }
 
         // add call to the overloaded version of this method, passing in the default http pipeline
-        String params = method.getParameters().stream().map(HttpRequestContext.MethodParameter::getName).reduce((a, b) -> a + ", " + b).orElse("");
+        String params = getParameterNames(method);
         if (!"void".equals(method.getMethodReturnType())) {
             methodBuilder.addStatement("return $L(defaultPipeline, $L)", method.getMethodName(), params);
         } else {
@@ -111,7 +253,7 @@ public class JavaPoetTemplateProcessor implements TemplateProcessor {
     private void generateMethod(HttpRequestContext method) {
         MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(method.getMethodName())
                 .addModifiers(Modifier.PUBLIC)
-                .returns(ClassName.get("", method.getMethodReturnType()));
+                .returns(TypeName.get(method.getMethodReturnTypeMirror()));
 
         // add method parameters, as well as the HttpPipeline at the front
         methodBuilder.addParameter(HTTP_PIPELINE, "pipeline");
@@ -119,24 +261,827 @@ public class JavaPoetTemplateProcessor implements TemplateProcessor {
             methodBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
         }
 
+        if (metricsEnabled) {
+            methodBuilder.addStatement("long startNanos = System.nanoTime()");
+        }
+        if (tracingEnabled) {
+            addStartScope(methodBuilder, method);
+        }
+
+        // the try block is only needed for the scope and the metrics, so without either the method is left bare
+        boolean recorded = tracingEnabled || metricsEnabled;
+        if (recorded) {
+            methodBuilder.beginControlFlow("try");
+        }
+
+        addCreateRequest(methodBuilder, method);
+
+        // send request through pipeline
+        CodeBlock streamingBody = getStreamingBody(method);
+        if (streamingBody != null) {
+            // the response stays open for as long as the caller is reading the body, so it is only closed here if
+            // the body is never handed over
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("// send the request through the pipeline")
+                    .addStatement("$T response = $L", HTTP_RESPONSE, getSendExpression(method, true))
+                    .beginControlFlow("try");
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("the response is closed once the caller has finished with the body")
+                    .addStatement("return $L", streamingBody)
+                    .nextControlFlow("catch ($T e)", RuntimeException.class)
+                    .addStatement("response.close()")
+                    .addStatement("throw e")
+                    .endControlFlow();
+        } else if (method.isCached() || method.isCoalesced()) {
+            addBufferedSend(methodBuilder, method);
+        } else {
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("// send the request through the pipeline")
+                    .beginControlFlow("try ($T response = $L)", HTTP_RESPONSE, getSendExpression(method, true));
+
+            if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.EXISTS) {
+                addExistsCheck(methodBuilder, method, CodeBlock.of("false"), CodeBlock.of("true"));
+            } else {
+                addStatusCodeCheck(methodBuilder, method);
+            }
+
+            if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+                methodBuilder
+                        .addCode("\n")
+                        .addStatement("return response.getBodyAsBinaryData().toByteBuffer()");
+            } else if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.DESERIALIZE) {
+                methodBuilder
+                        .addCode("\n")
+                        .addComment("deserialize the response body")
+                        .addStatement("$T reader = new $T(response.getBodyAsBinaryData().toBytes())",
+                                JsonDeserializerGenerator.JSON_READER, JsonDeserializerGenerator.JSON_READER)
+                        .addStatement("return $L", jsonDeserializer.readValue(getDeserializedType(method), "reader", method.getMethodElement()));
+            }
+
+            methodBuilder.endControlFlow();
+        }
+
+        if (recorded) {
+            // javac copies the finally block to every exit of the try block, so with tracing both blocks call out to
+            // helpers, and only a single metrics call is left inline
+            methodBuilder.nextControlFlow("catch ($T e)", RuntimeException.class);
+            if (tracingEnabled) {
+                methodBuilder.addStatement("throw $N(scope, $Le)", getRecordErrorMethod(),
+                        metricsEnabled ? CodeBlock.of("$N, ", getMetricsField(method)) : "");
+            } else {
+                methodBuilder
+                        .addStatement("$N.recordError(e)", getMetricsField(method))
+                        .addStatement("throw e");
+            }
+            methodBuilder.nextControlFlow("finally");
+            if (tracingEnabled) {
+                methodBuilder.addStatement("$N(scope$L)", getEndCallMethod(),
+                        metricsEnabled ? CodeBlock.of(", $N, startNanos", getMetricsField(method)) : "");
+            } else {
+                methodBuilder.addStatement("$N.recordCall(startNanos)", getMetricsField(method));
+            }
+            methodBuilder.endControlFlow();
+        }
+
+        classBuilder.addMethod(methodBuilder.build());
+    }
+
+    private void generateAsyncMethods(HttpRequestContext method, Set<AsyncMethodType> asyncMethodTypes) {
+        TypeName returnType = TypeName.get(method.getMethodReturnTypeMirror()).box();
+        TypeName monoType = ParameterizedTypeName.get(MONO, returnType);
+        String asyncMethodName = method.getMethodName() + "Async";
+
+        // the Mono variant is always generated, as the CompletableFuture variant is built on top of it
+        Modifier monoVisibility = asyncMethodTypes.contains(AsyncMethodType.MONO) ? Modifier.PUBLIC : Modifier.PRIVATE;
+        if (asyncMethodTypes.contains(AsyncMethodType.MONO)) {
+            generateAsyncForwardingMethod(method, asyncMethodName, monoType, asyncMethodName, "");
+        }
+
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(asyncMethodName)
+                .addModifiers(monoVisibility)
+                .returns(monoType);
+
+        methodBuilder.addParameter(HTTP_PIPELINE, "pipeline");
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            methodBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
+        }
+
+        // the request is only created and sent once the Mono is subscribed to
+        methodBuilder.beginControlFlow("return $T.defer(() ->", MONO);
+        if (metricsEnabled) {
+            methodBuilder.addStatement("long startNanos = System.nanoTime()");
+        }
+        if (tracingEnabled) {
+            addStartScope(methodBuilder, method);
+        }
+
+        addCreateRequest(methodBuilder, method);
+
+        // with tracing, the Mono is only decorated with the scope once it is known whether a scope was started. The
+        // type of flatMap is given explicitly, as a wire type may be a subtype of the declared return type
+        CodeBlock send = tracingEnabled ? CodeBlock.of("$T mono =", monoType) : CodeBlock.of("return");
+
+        CodeBlock streamingBody = getStreamingBody(method);
+        if (streamingBody != null) {
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline, leaving the response open until the caller has")
+                    .addComment("finished with the body")
+                    .addCode("$L $L\n$>$>", send, getSendExpression(method, false))
+                    .beginControlFlow(".<$T>flatMap(response ->", returnType)
+                    .beginControlFlow("try");
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("return $T.just($L)", MONO, streamingBody)
+                    .nextControlFlow("catch ($T e)", RuntimeException.class)
+                    .addStatement("response.close()")
+                    .addStatement("throw e")
+                    .endControlFlow()
+                    .addCode("$<})");
+        } else if (method.isCached() || method.isCoalesced()) {
+            addBufferedSendAsync(methodBuilder, method, send, returnType);
+        } else {
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline, closing the response once it has been handled")
+                    .addCode("$L $L\n$>$>", send, getSendExpression(method, false))
+                    .beginControlFlow(".<$T>flatMap(response -> $T.using(() -> response, ignored ->", returnType, MONO);
+
+            if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.EXISTS) {
+                addExistsCheck(methodBuilder, method, CodeBlock.of("$T.just(false)", MONO), CodeBlock.of("$T.just(true)", MONO));
+            } else {
+                addStatusCodeCheck(methodBuilder, method);
+            }
+
+            if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+                methodBuilder
+                        .addCode("\n")
+                        .addStatement("return response.getBodyAsByteArray().map($T::wrap)", ByteBuffer.class);
+            } else if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.DESERIALIZE) {
+                methodBuilder
+                        .addCode("\n")
+                        .addComment("deserialize the response body")
+                        .beginControlFlow("return response.getBodyAsByteArray().flatMap(body ->")
+                        .addStatement("$T reader = new $T(body)", JsonDeserializerGenerator.JSON_READER, JsonDeserializerGenerator.JSON_READER)
+                        .addStatement("return $T.justOrEmpty($L)", MONO, jsonDeserializer.readValue(getDeserializedType(method), "reader", method.getMethodElement()))
+                        .addCode("$<});\n");
+            } else if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.NONE) {
+                methodBuilder.addStatement("return $T.<$T>empty()", MONO, Void.class);
+            }
+
+            methodBuilder.addCode("$<}, $T::close))", HTTP_RESPONSE);
+        }
+
+        if (metricsEnabled) {
+            methodBuilder
+                    .addCode("\n.doOnError($N::recordError)", getMetricsField(method))
+                    .addCode("\n.doFinally(signal -> $N.recordCall(startNanos))", getMetricsField(method));
+        }
+        methodBuilder.addCode(";\n$<$<");
+
+        if (tracingEnabled) {
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("return $N(mono, scope)", getWithScopeMethod());
+        }
+        methodBuilder.addCode("$<});\n");
+
+        classBuilder.addMethod(methodBuilder.build());
+
+        if (asyncMethodTypes.contains(AsyncMethodType.COMPLETABLE_FUTURE)) {
+            TypeName futureType = ParameterizedTypeName.get(ClassName.get(CompletableFuture.class), returnType);
+            String futureMethodName = method.getMethodName() + "Future";
+            generateAsyncForwardingMethod(method, futureMethodName, futureType, asyncMethodName, ".toFuture()");
+
+            MethodSpec.Builder futureBuilder = MethodSpec.methodBuilder(futureMethodName)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(futureType)
+                    .addParameter(HTTP_PIPELINE, "pipeline");
+            for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+                futureBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
+            }
+            futureBuilder.addStatement("return $L(pipeline, $L).toFuture()", asyncMethodName, getParameterNames(method));
+            classBuilder.addMethod(futureBuilder.build());
+        }
+    }
+
+    private void generateAsyncForwardingMethod(HttpRequestContext method, String methodName, TypeName returnType,
+                                               String targetMethodName, String suffix) {
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returnType);
+
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            methodBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
+        }
+
+        methodBuilder.addStatement("return $L(defaultPipeline, $L)$L", targetMethodName, getParameterNames(method), suffix);
+        classBuilder.addMethod(methodBuilder.build());
+    }
+
+    // Sends the request of a @Cacheable or @Coalesced method, whose response body is read fully before it is handled,
+    // as it may be cached or shared. Each caller then deserializes its own copy of the body.
+    private void addBufferedSend(MethodSpec.Builder methodBuilder, HttpRequestContext method) {
+        addRequestKey(methodBuilder, method);
+        String bodyName = "responseBody";
+        if (method.isCoalesced()) {
+            bodyName = "coalescedBody";
+            methodBuilder
+                    .addComment("identical requests that are in flight at the same time are sent once, and share the response body")
+                    .addCode("byte[] coalescedBody = $N.get(pipeline).execute(requestKey, () -> {\n$>", getInFlightField(method));
+        }
+
+        if (method.isCached()) {
+            // only a cache hit is handled here, as the request is sent from a method of its own
+            addCacheLookup(methodBuilder, getCacheField(method));
+            methodBuilder.addStatement("byte[] responseBody = cached != null && cached.isFresh()\n"
+                    + "? cached.getBody() : $N(pipeline, httpRequest, context, cache, requestKey, cached)", getCachedSendMethod(method));
+        } else {
+            methodBuilder
+                    .addStatement("byte[] responseBody")
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline")
+                    .beginControlFlow("try ($T response = $L)", HTTP_RESPONSE, getSendExpression(method, true));
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("responseBody = response.getBodyAsBinaryData().toBytes()")
+                    .endControlFlow();
+        }
+
+        if (method.isCoalesced()) {
+            methodBuilder
+                    .addStatement("return responseBody")
+                    .addCode("$<});\n");
+        }
+        methodBuilder.addCode("\n");
+
+        if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+            methodBuilder
+                    .addComment("the body may be cached or shared, so the caller gets a copy of it")
+                    .addStatement("return $T.wrap($L.clone())", ByteBuffer.class, bodyName);
+        } else {
+            methodBuilder
+                    .addComment("deserialize the response body")
+                    .addStatement("$T reader = new $T($L)", JsonDeserializerGenerator.JSON_READER, JsonDeserializerGenerator.JSON_READER, bodyName)
+                    .addStatement("return $L", jsonDeserializer.readValue(getDeserializedType(method), "reader", method.getMethodElement()));
+        }
+    }
+
+    // Returns the method that sends the request of a @Cacheable method when there is no fresh cached response, and
+    // caches the response. A response that is cached is served without a request being sent, so sending the request is
+    // the rarely taken branch, and is kept out of the method so that a cache hit is handled by a small method.
+    private MethodSpec getCachedSendMethod(HttpRequestContext method) {
+        return cachedSendMethods.computeIfAbsent(method, key -> {
+            // overloads of a method each have their own cache, and so their own method
+            String name = method.getMethodName() + "Send";
+            for (int i = 2; helperMethods.containsKey(name); i++) {
+                name = method.getMethodName() + "Send" + i;
+            }
+            MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(name)
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(byte[].class)
+                    .addParameter(HTTP_PIPELINE, "pipeline")
+                    .addParameter(HTTP_REQUEST, "httpRequest")
+                    .addParameter(CONTEXT, "context")
+                    .addParameter(RESPONSE_CACHE, "cache")
+                    .addParameter(String.class, "requestKey")
+                    .addParameter(RESPONSE_CACHE.nestedClass("Entry"), "cached");
+            addConditionalHeaders(methodBuilder);
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline")
+                    .beginControlFlow("try ($T response = $L)", HTTP_RESPONSE, getSendExpression(method, true))
+                    .beginControlFlow("if (cached != null && response.getStatusCode() == 304)")
+                    .addStatement("cache.revalidated(requestKey, cached, response.getHeaderValue($T.CACHE_CONTROL))", HTTP_HEADER_NAME)
+                    .addStatement("return cached.getBody()")
+                    .endControlFlow();
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            MethodSpec sendMethod = methodBuilder
+                    .addCode("\n")
+                    .addStatement("byte[] responseBody = response.getBodyAsBinaryData().toBytes()")
+                    .addStatement("$L", getCachePut("responseBody"))
+                    .addStatement("return responseBody")
+                    .endControlFlow()
+                    .build();
+            helperMethods.put(name, sendMethod);
+            return sendMethod;
+        });
+    }
+
+    // the non-blocking version of addBufferedSend, which leaves the Mono of the result unterminated so that it can be
+    // decorated further
+    private void addBufferedSendAsync(MethodSpec.Builder methodBuilder, HttpRequestContext method, CodeBlock send, TypeName returnType) {
+        addRequestKey(methodBuilder, method);
+        String bodyName = "responseBody";
+        if (method.isCoalesced()) {
+            // each caller gets its own copy of the future, so that one of them cancelling does not affect the others
+            bodyName = "coalescedBody";
+            methodBuilder
+                    .addComment("identical requests that are in flight at the same time are sent once, and share the response body")
+                    .addCode("$T<byte[]> coalescedBody = $T.fromFuture($N.get(pipeline).executeAsync(requestKey, () -> {\n$>",
+                            MONO, MONO, getInFlightField(method));
+        }
+
+        methodBuilder.addStatement("$T<byte[]> responseBody", MONO);
+        if (method.isCached()) {
+            addCacheLookup(methodBuilder, getCacheField(method));
+            methodBuilder
+                    .beginControlFlow("if (cached != null && cached.isFresh())")
+                    .addStatement("responseBody = $T.just(cached.getBody())", MONO)
+                    .nextControlFlow("else");
+            addConditionalHeaders(methodBuilder);
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline, closing the response once its body has been read")
+                    .addCode("responseBody = $L\n$>$>", getSendExpression(method, false))
+                    .beginControlFlow(".flatMap(response -> $T.using(() -> response, ignored ->", MONO)
+                    .beginControlFlow("if (cached != null && response.getStatusCode() == 304)")
+                    .addStatement("cache.revalidated(requestKey, cached, response.getHeaderValue($T.CACHE_CONTROL))", HTTP_HEADER_NAME)
+                    .addStatement("return $T.just(cached.getBody())", MONO)
+                    .endControlFlow();
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("return response.getBodyAsByteArray().doOnNext(bytes -> $L)", getCachePut("bytes"))
+                    .addCode("$<}, $T::close));\n$<$<", HTTP_RESPONSE)
+                    .endControlFlow();
+        } else {
+            methodBuilder
+                    .addCode("\n")
+                    .addComment("send the request through the pipeline, closing the response once its body has been read")
+                    .addCode("responseBody = $L\n$>$>", getSendExpression(method, false))
+                    .beginControlFlow(".flatMap(response -> $T.using(() -> response, ignored ->", MONO);
+
+            addStatusCodeCheck(methodBuilder, method);
+
+            methodBuilder
+                    .addCode("\n")
+                    .addStatement("return response.getBodyAsByteArray()")
+                    .addCode("$<}, $T::close));\n$<$<", HTTP_RESPONSE);
+        }
+
+        if (method.isCoalesced()) {
+            methodBuilder
+                    .addStatement("return responseBody.toFuture()")
+                    .addCode("$<}));\n");
+        }
+        methodBuilder.addCode("\n");
+
+        if (method.getResponseStrategy() == HttpRequestContext.ResponseStrategy.BYTE_BUFFER) {
+            methodBuilder
+                    .addComment("the body may be cached or shared, so the caller gets a copy of it")
+                    .addCode("$L $L\n$>$>.map(bytes -> $T.wrap(bytes.clone()))", send, bodyName, ByteBuffer.class);
+        } else {
+            methodBuilder
+                    .addComment("deserialize the response body")
+                    .addCode("$L $L\n$>$>", send, bodyName)
+                    .beginControlFlow(".<$T>flatMap(bytes ->", returnType)
+                    .addStatement("$T reader = new $T(bytes)", JsonDeserializerGenerator.JSON_READER, JsonDeserializerGenerator.JSON_READER)
+                    .addStatement("return $T.justOrEmpty($L)", MONO, jsonDeserializer.readValue(getDeserializedType(method), "reader", method.getMethodElement()))
+                    .addCode("$<})");
+        }
+    }
+
+    // the key of a request for caching and coalescing, which is its URL and the values of its per-request headers
+    private void addRequestKey(MethodSpec.Builder methodBuilder, HttpRequestContext method) {
+        CodeBlock requestKey = method.getHeaders().isEmpty()
+                ? CodeBlock.of("host")
+                : CodeBlock.of("$T.of(host, $L)", REQUEST_KEY, String.join(", ", method.getHeaders().values()));
         methodBuilder
-                .addStatement("$T scope = defaultPipeline.getInstrumentation().startScope(\"$L\", context)", INSTRUMENTATION_SCOPE, method.getMethodName())
-                .beginControlFlow("try");
+                .addCode("\n")
+                .addStatement("String requestKey = $L", requestKey);
+    }
 
+    private void addCacheLookup(MethodSpec.Builder methodBuilder, FieldSpec cacheField) {
+        methodBuilder
+                .addComment("a fresh cached response is used without sending the request, and a stale one is revalidated")
+                .addStatement("$T cache = $N.get(pipeline)", RESPONSE_CACHE, cacheField)
+                .addStatement("$T cached = cache.get(requestKey)", RESPONSE_CACHE.nestedClass("Entry"));
+    }
+
+    private void addConditionalHeaders(MethodSpec.Builder methodBuilder) {
+        methodBuilder.addStatement("$N(httpRequest, cached)", getSetConditionalHeadersMethod());
+    }
+
+    private CodeBlock getCachePut(String body) {
+        return CodeBlock.of("$N(cache, requestKey, $L, response)", getCacheResponseMethod(), body);
+    }
+
+    // Returns the response caches of the given method, creating them if they do not yet exist. They are static, and kept
+    // per pipeline, so that a cache lives as long as its pipeline rather than as long as the weakly cached instance.
+    private FieldSpec getCacheField(HttpRequestContext method) {
+        return cacheFields.computeIfAbsent(method, key -> {
+            return FieldSpec.builder(ParameterizedTypeName.get(PIPELINE_LOCAL, HTTP_PIPELINE, RESPONSE_CACHE),
+                            uniqueFieldName(toConstantName(method.getMethodName()) + "_CACHE"), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T<>(() -> new $T($L))", PIPELINE_LOCAL, RESPONSE_CACHE, method.getCacheMaxEntries())
+                    .build();
+        });
+    }
+
+    // returns the requests in flight of the given method, which are kept per pipeline in the same way as the caches
+    private FieldSpec getInFlightField(HttpRequestContext method) {
+        return inFlightFields.computeIfAbsent(method, key -> {
+            TypeName singleFlightType = ParameterizedTypeName.get(SINGLE_FLIGHT, TypeName.get(byte[].class));
+            return FieldSpec.builder(ParameterizedTypeName.get(PIPELINE_LOCAL, HTTP_PIPELINE, singleFlightType),
+                            uniqueFieldName(toConstantName(method.getMethodName()) + "_IN_FLIGHT"), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T<>($T::new)", PIPELINE_LOCAL, SINGLE_FLIGHT)
+                    .build();
+        });
+    }
+
+    // Generates the method of a @Paged operation, which returns its items lazily, along with the method that requests one
+    // page of them. Pages are requested with the non-blocking pipeline, so that the next page can be prefetched without
+    // a thread of its own, and each page is traced and recorded as a call of the operation.
+    private void generatePagedMethod(HttpRequestContext method) {
+        HttpRequestContext.Paging paging = method.getPaging();
+        TypeName itemType = TypeName.get(paging.getItemType());
+        TypeName pageType = ParameterizedTypeName.get(JsonDeserializerGenerator.PAGE, itemType);
+        String pageMethodName = method.getMethodName() + "Page";
+
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(method.getMethodName())
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.get(method.getMethodReturnTypeMirror()))
+                .addParameter(HTTP_PIPELINE, "pipeline");
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            methodBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
+        }
+        String arguments = getParameterNames(method);
+        methodBuilder.addStatement("$T<$T> items = new $T<>(continuation -> $L(pipeline, $L$Lcontinuation), $L)",
+                PAGED_ITEMS, itemType, PAGED_ITEMS, pageMethodName, arguments, arguments.isEmpty() ? "" : ", ",
+                paging.isPrefetch());
+        if (isSameType(method.getMethodReturnTypeMirror(), Stream.class)) {
+            methodBuilder.addStatement("return items.stream()");
+        } else {
+            methodBuilder.addStatement("return items");
+        }
+        classBuilder.addMethod(methodBuilder.build());
+
+        MethodSpec.Builder pageBuilder = MethodSpec.methodBuilder(pageMethodName)
+                .addModifiers(Modifier.PRIVATE)
+                .returns(ParameterizedTypeName.get(ClassName.get(CompletableFuture.class), pageType))
+                .addParameter(HTTP_PIPELINE, "pipeline");
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            pageBuilder.addParameter(TypeName.get(parameter.getTypeMirror()), parameter.getName());
+        }
+        pageBuilder
+                .addParameter(String.class, "continuation")
+                .beginControlFlow("return $T.defer(() ->", MONO);
+        if (metricsEnabled) {
+            pageBuilder.addStatement("long startNanos = System.nanoTime()");
+        }
+        if (tracingEnabled) {
+            addStartScope(pageBuilder, method);
+        }
+
+        addCreateRequest(pageBuilder, method);
+
+        String readPage = jsonDeserializer.getPageReadMethod(paging.getItemType(), paging.getItemsName(), paging.getNextLinkName(),
+                method.getMethodElement());
+        pageBuilder
+                .addCode("\n")
+                .addComment("send the request through the pipeline, closing the response once the page has been read")
+                .addCode("$L $L\n$>$>", tracingEnabled ? CodeBlock.of("$T<$T> mono =", MONO, pageType) : CodeBlock.of("return"),
+                        getSendExpression(method, false))
+                .beginControlFlow(".flatMap(response -> $T.using(() -> response, ignored ->", MONO);
+
+        addStatusCodeCheck(pageBuilder, method);
+
+        pageBuilder
+                .addCode("\n")
+                .addStatement("return response.getBodyAsByteArray().map(body -> $N(new $T(body)))", readPage,
+                        JsonDeserializerGenerator.JSON_READER)
+                .addCode("$<}, $T::close))", HTTP_RESPONSE);
+        if (metricsEnabled) {
+            pageBuilder
+                    .addCode("\n.doOnError($N::recordError)", getMetricsField(method))
+                    .addCode("\n.doFinally(signal -> $N.recordCall(startNanos))", getMetricsField(method));
+        }
+        pageBuilder.addCode(";\n$<$<");
+
+        if (tracingEnabled) {
+            pageBuilder
+                    .addCode("\n")
+                    .addStatement("return $N(mono, scope)", getWithScopeMethod());
+        }
+        pageBuilder.addCode("$<}).toFuture();\n");
+
+        classBuilder.addMethod(pageBuilder.build());
+    }
+
+    private boolean isSameType(TypeMirror type, Class<?> clazz) {
+        return processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(type),
+                processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement(clazz.getName()).asType()));
+    }
+
+    // Generates a class holding the arguments of one call, and a method that makes a batch of calls through the Mono
+    // variant of the method. The calls are subscribed to in order with at most maxConcurrency in flight, and their
+    // results are emitted in order, so a slow call holds back the results after it but not the calls.
+    private void generateBatchMethods(HttpRequestContext method) {
+        String methodName = method.getMethodName();
+        String argsClassName = Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + "Args";
+        for (int i = 2; !usedArgsClassNames.add(argsClassName); i++) {
+            argsClassName = Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + i + "Args";
+        }
+        ClassName argsType = implClassName.nestedClass(argsClassName);
+
+        MethodSpec.Builder argsConstructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC);
+        TypeSpec.Builder argsClass = TypeSpec.classBuilder(argsClassName)
+                .addJavadoc("The arguments of one call of {@code $L}, for use with {@code $LBatch}.\n", methodName, methodName)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            TypeName type = TypeName.get(parameter.getTypeMirror());
+            argsClass.addField(type, parameter.getName(), Modifier.PRIVATE, Modifier.FINAL);
+            argsConstructor
+                    .addParameter(type, parameter.getName())
+                    .addStatement("this.$N = $N", parameter.getName(), parameter.getName());
+        }
+        classBuilder.addType(argsClass.addMethod(argsConstructor.build()).build());
+
+        boolean isVoid = "void".equals(method.getMethodReturnType());
+        TypeName resultType = TypeName.get(method.getMethodReturnTypeMirror()).box();
+        TypeName returnType = isVoid ? TypeName.VOID : ParameterizedTypeName.get(ClassName.get(List.class), resultType);
+        TypeName batchType = ParameterizedTypeName.get(ClassName.get(Iterable.class), argsType);
+        String batchMethodName = methodName + "Batch";
+
+        classBuilder.addMethod(MethodSpec.methodBuilder(batchMethodName)
+                .addJavadoc("Calls {@code $L} once for each of the given arguments, with at most {@code maxConcurrency}\n"
+                        + "calls in flight at a time. The first call to fail fails the batch, and cancels the calls that\n"
+                        + "are still in flight.\n", methodName)
+                .addJavadoc(isVoid ? "" : "\n@return the results of the calls, in the order of the arguments\n")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returnType)
+                .addParameter(batchType, "batch")
+                .addParameter(int.class, "maxConcurrency")
+                .addStatement("$L$L(defaultPipeline, batch, maxConcurrency)", isVoid ? "" : "return ", batchMethodName)
+                .build());
+
+        String arguments = method.getParameters().stream()
+                .map(parameter -> "args." + parameter.getName())
+                .reduce((a, b) -> a + ", " + b).orElse("");
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(batchMethodName)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returnType)
+                .addParameter(HTTP_PIPELINE, "pipeline")
+                .addParameter(batchType, "batch")
+                .addParameter(int.class, "maxConcurrency");
+        if (isVoid) {
+            methodBuilder.addStatement("$T.fromIterable(batch)\n"
+                    + ".flatMap(args -> $LAsync(pipeline, $L), maxConcurrency)\n"
+                    + ".then()\n"
+                    + ".block()", FLUX, methodName, arguments);
+        } else {
+            TypeName optionalType = ParameterizedTypeName.get(ClassName.get(Optional.class), resultType);
+            methodBuilder
+                    .addComment("an empty result is kept as null, so that the results stay in the order of the arguments")
+                    .addStatement("$T<$T> results = $T.fromIterable(batch)\n"
+                            + ".flatMapSequential(args -> $LAsync(pipeline, $L)\n$>$>"
+                            + ".map($T::of)\n"
+                            + ".defaultIfEmpty($T.empty()), maxConcurrency)$<$<\n"
+                            + ".collectList()\n"
+                            + ".block()", List.class, optionalType, FLUX, methodName, arguments, Optional.class, Optional.class)
+                    .addStatement("return results.stream().map(result -> result.orElse(null)).collect($T.toList())", Collectors.class);
+        }
+        classBuilder.addMethod(methodBuilder.build());
+    }
+
+    // returns the expression that sends the request, which is hedged for methods that are annotated with @Hedged
+    private CodeBlock getSendExpression(HttpRequestContext method, boolean sync) {
+        if (method.getHedging() == null) {
+            return sync ? CodeBlock.of("pipeline.sendSync(httpRequest, context)") : CodeBlock.of("pipeline.send(httpRequest, context)");
+        }
+        FieldSpec hedgingField = hedgingFields.computeIfAbsent(method.getMethodName(), key -> {
+            return FieldSpec.builder(HEDGING_POLICY, uniqueFieldName(toConstantName(key) + "_HEDGING"), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T($L, $LL)", HEDGING_POLICY, method.getHedging().getPercentile(), method.getHedging().getDelayMillis())
+                    .build();
+        });
+
+        // a hedged request is always sent asynchronously, as the two requests are in flight at the same time
+        return CodeBlock.of("sendHedged(pipeline, httpRequest, context, $N)$L", hedgingField, sync ? ".block()" : "");
+    }
+
+    // sends a request, and a copy of it if there is no response within the hedging delay. The first response is used
+    // and the other request is cancelled, while a request that fails leaves the call to the other, so that it only fails
+    // once both have
+    private MethodSpec generateSendHedgedMethod() {
+        TypeName monoType = ParameterizedTypeName.get(MONO, HTTP_RESPONSE);
+        return MethodSpec.methodBuilder("sendHedged")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(monoType)
+                .addParameter(HTTP_PIPELINE, "pipeline")
+                .addParameter(HTTP_REQUEST, "httpRequest")
+                .addParameter(CONTEXT, "context")
+                .addParameter(HEDGING_POLICY, "hedging")
+                .beginControlFlow("return $T.defer(() ->", MONO)
+                .addComment("the copy is taken before the request is sent, as the pipeline may modify the request")
+                .addStatement("$T hedgedRequest = httpRequest.copy()", HTTP_REQUEST)
+                .addStatement("long startNanos = System.nanoTime()")
+                .addCode("\n")
+                .addComment("firstWithValue drops a response that loses the race without closing it, so only the first")
+                .addComment("response to arrive is let through to it, and any other is closed here, as is one that is")
+                .addComment("dropped on its way from the pipeline when its request is cancelled")
+                .addStatement("$T decided = new $T()", AtomicBoolean.class, AtomicBoolean.class)
+                .addStatement("$T primary = pipeline.send(httpRequest, context)\n"
+                        + ".filter(response -> $N(decided, response))\n"
+                        + ".doOnDiscard($T.class, $T::close)", monoType, getIsFirstResponseMethod(), HTTP_RESPONSE,
+                        HTTP_RESPONSE)
+                .addStatement("$T hedge = $T.defer(() -> pipeline.send(hedgedRequest, context))\n"
+                        + ".delaySubscription($T.ofNanos(hedging.getDelayNanos()))\n"
+                        + ".filter(response -> $N(decided, response))\n"
+                        + ".doOnDiscard($T.class, $T::close)", monoType, MONO, Duration.class, getIsFirstResponseMethod(),
+                        HTTP_RESPONSE, HTTP_RESPONSE)
+                .addStatement("return $T.firstWithValue(primary, hedge)\n"
+                        + ".doOnNext(response -> hedging.record(System.nanoTime() - startNanos))\n"
+                        + ".onErrorMap($T.class, $T::$N)", MONO, NoSuchElementException.class, implClassName,
+                        getHedgedErrorMethod())
+                .addCode("$<});\n")
+                .build();
+    }
+
+    // lets the first response of a hedged request through, and closes any response that arrives after it
+    private MethodSpec getIsFirstResponseMethod() {
+        return helperMethods.computeIfAbsent("isFirstResponse", name -> MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(boolean.class)
+                .addParameter(AtomicBoolean.class, "decided")
+                .addParameter(HTTP_RESPONSE, "response")
+                .beginControlFlow("if (decided.compareAndSet(false, true))")
+                .addStatement("return true")
+                .endControlFlow()
+                .addStatement("response.close()")
+                .addStatement("return false")
+                .build());
+    }
+
+    // firstWithValue fails with a NoSuchElementException once both requests have failed, so the error of the original
+    // request is thrown in its place, with that of the copy suppressed
+    private MethodSpec getHedgedErrorMethod() {
+        return helperMethods.computeIfAbsent("hedgedError", name -> MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(Throwable.class)
+                .addParameter(NoSuchElementException.class, "e")
+                .addStatement("$T<$T> errors = $T.unwrapMultiple(e.getCause())", List.class, Throwable.class, EXCEPTIONS)
+                .beginControlFlow("if (errors.isEmpty())")
+                .addStatement("return e")
+                .endControlFlow()
+                .beginControlFlow("for (int i = 1; i < errors.size(); i++)")
+                .addStatement("errors.get(0).addSuppressed(errors.get(i))")
+                .endControlFlow()
+                .addStatement("return errors.get(0)")
+                .build());
+    }
+
+    // records a failed call, and returns the exception so that the catch block is just a call and a throw
+    private MethodSpec getRecordErrorMethod() {
+        return helperMethods.computeIfAbsent("recordError", name -> {
+            MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(name)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(RuntimeException.class)
+                    .addParameter(INSTRUMENTATION_SCOPE, "scope");
+            if (metricsEnabled) {
+                methodBuilder.addParameter(OPERATION_METRICS, "metrics");
+            }
+            methodBuilder
+                    .addParameter(RuntimeException.class, "e")
+                    .beginControlFlow("if (scope != null)")
+                    .addStatement("scope.setError(e)")
+                    .endControlFlow();
+            if (metricsEnabled) {
+                methodBuilder.addStatement("metrics.recordError(e)");
+            }
+            return methodBuilder.addStatement("return e").build();
+        });
+    }
+
+    // ends a call, whether it succeeded or not
+    private MethodSpec getEndCallMethod() {
+        return helperMethods.computeIfAbsent("endCall", name -> {
+            MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(name)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addParameter(INSTRUMENTATION_SCOPE, "scope");
+            if (metricsEnabled) {
+                methodBuilder
+                        .addParameter(OPERATION_METRICS, "metrics")
+                        .addParameter(long.class, "startNanos")
+                        .addStatement("metrics.recordCall(startNanos)");
+            }
+            return methodBuilder
+                    .beginControlFlow("if (scope != null)")
+                    .addStatement("scope.close()")
+                    .endControlFlow()
+                    .build();
+        });
+    }
+
+    // ends the scope of a non-blocking call when its Mono terminates, if a scope was started
+    private MethodSpec getWithScopeMethod() {
+        return helperMethods.computeIfAbsent("withScope", name -> {
+            TypeVariableName t = TypeVariableName.get("T");
+            TypeName monoType = ParameterizedTypeName.get(MONO, t);
+            return MethodSpec.methodBuilder(name)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addTypeVariable(t)
+                    .returns(monoType)
+                    .addParameter(monoType, "mono")
+                    .addParameter(INSTRUMENTATION_SCOPE, "scope")
+                    .beginControlFlow("if (scope == null)")
+                    .addStatement("return mono")
+                    .endControlFlow()
+                    .addStatement("return mono.doOnError(scope::setError).doFinally(signal -> scope.close())")
+                    .build();
+        });
+    }
+
+    // asks for a stale cached response to be revalidated, rather than sent again, if it can be
+    private MethodSpec getSetConditionalHeadersMethod() {
+        return helperMethods.computeIfAbsent("setConditionalHeaders", name -> MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(HTTP_REQUEST, "httpRequest")
+                .addParameter(RESPONSE_CACHE.nestedClass("Entry"), "cached")
+                .beginControlFlow("if (cached == null)")
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if (cached.getETag() != null)")
+                .addStatement("httpRequest.setHeader($T.IF_NONE_MATCH, cached.getETag())", HTTP_HEADER_NAME)
+                .endControlFlow()
+                .beginControlFlow("if (cached.getLastModified() != null)")
+                .addStatement("httpRequest.setHeader($T.IF_MODIFIED_SINCE, cached.getLastModified())", HTTP_HEADER_NAME)
+                .endControlFlow()
+                .build());
+    }
+
+    private MethodSpec getCacheResponseMethod() {
+        return helperMethods.computeIfAbsent("cacheResponse", name -> MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(RESPONSE_CACHE, "cache")
+                .addParameter(String.class, "requestKey")
+                .addParameter(byte[].class, "body")
+                .addParameter(HTTP_RESPONSE, "response")
+                .addStatement("cache.put(requestKey, body, response.getHeaderValue($T.ETAG),\n"
+                        + "response.getHeaderValue($T.LAST_MODIFIED), response.getHeaderValue($T.CACHE_CONTROL))",
+                        HTTP_HEADER_NAME, HTTP_HEADER_NAME, HTTP_HEADER_NAME)
+                .build());
+    }
+
+    // starts the scope of a call through the pipeline that it is sent through, or leaves it null if the call is not to be traced
+    private void addStartScope(MethodSpec.Builder methodBuilder, HttpRequestContext method) {
+        methodBuilder.addStatement("$T scope = startScope(pipeline, $S, context)", INSTRUMENTATION_SCOPE, method.getMethodName());
+    }
+
+    private static String getParameterNames(HttpRequestContext method) {
+        return method.getParameters().stream().map(HttpRequestContext.MethodParameter::getName).reduce((a, b) -> a + ", " + b).orElse("");
+    }
+
+    // adds the statements that create the HttpRequest, shared by the blocking and non-blocking methods
+    private void addCreateRequest(MethodSpec.Builder methodBuilder, HttpRequestContext method) {
+        methodBuilder.addStatement("String host = $L", method.getHost());
+        if (method.getPaging() != null) {
+            // the pages after the first are requested from the next link or continuation token of the page before
+            methodBuilder.beginControlFlow("if (continuation != null)");
+            if (method.getPaging().hasContinuationToken()) {
+                methodBuilder.addStatement("host = $T.withContinuationToken(host, $S, continuation)", PAGED_ITEMS,
+                        method.getPaging().getContinuationTokenQueryParam());
+            } else {
+                methodBuilder.addStatement("host = $T.resolveNextLink(host, continuation)", PAGED_ITEMS);
+            }
+            methodBuilder.endControlFlow();
+        }
         methodBuilder
-                .addStatement("String host = $L", method.getHost())
                 .addCode("\n")
                 .addStatement("// create the request")
                 .addStatement("$T httpRequest = new $T($T.$L, host)", HTTP_REQUEST, HTTP_REQUEST, HTTP_METHOD, method.getHttpMethod());
 
-        // add headers
-        if (!method.getHeaders().isEmpty()) {
+        // add headers - constant headers are copied from a pre-built template, and only the values of
+        // @HeaderParam parameters are set per request
+        if (!method.getHeaders().isEmpty() || !method.getRequestHeaders().isEmpty()) {
+            int headerCount = method.getHeaders().size() + method.getRequestHeaders().size();
             methodBuilder
                     .addCode("\n")
-                    .addStatement("// set the headers")
-                    .addStatement("$T headers = new $T()", ClassName.get("com.azure.core.http", "HttpHeaders"), ClassName.get("com.azure.core.http", "HttpHeaders"));
+                    .addStatement("// set the headers");
+            if (method.getRequestHeaders().isEmpty()) {
+                methodBuilder.addStatement("$T headers = new $T($L)", HTTP_HEADERS, HTTP_HEADERS, headerCount);
+            } else {
+                methodBuilder.addStatement("$T headers = new $T($L).setAllHttpHeaders($N)", HTTP_HEADERS, HTTP_HEADERS,
+                        headerCount, getHeaderTemplateField(method));
+            }
             for (Map.Entry<String, String> header : method.getHeaders().entrySet()) {
-                methodBuilder.addStatement("headers.add($S, $S)", header.getKey(), header.getValue());
+                methodBuilder.addStatement("headers.set($N, $L)", getHeaderNameField(header.getKey()), header.getValue());
             }
             methodBuilder.addStatement("httpRequest.setHeaders(headers)");
         }
@@ -146,43 +1091,225 @@ public class JavaPoetTemplateProcessor implements TemplateProcessor {
             methodBuilder
                     .addCode("\n")
                     .addStatement("// set the body")
-                    .addStatement("httpRequest.setBody($L)", method.getBody().getParameterName());
+                    .beginControlFlow("if ($L != null)", method.getBody().getParameterName());
+            if (method.getBody().getStrategy() == HttpRequestContext.Body.Strategy.JSON) {
+                // the model is written by a generated serializer into a pooled buffer, and only the result is copied
+                methodBuilder
+                        .addStatement("$T bodyWriter = new $T()", JsonSerializerGenerator.JSON_WRITER, JsonSerializerGenerator.JSON_WRITER)
+                        .addStatement(jsonSerializer.writeValue(getBodyType(method), method.getBody().getParameterName(), "bodyWriter",
+                                getBodyElement(method)))
+                        .addStatement("httpRequest.setBody($T.fromBytes(bodyWriter.toBytes()))", BINARY_DATA);
+            } else {
+                methodBuilder.addStatement("httpRequest.setBody($L)", getBodyExpression(method.getBody()));
+            }
+            methodBuilder.endControlFlow();
         }
 
-        // send request through pipeline
-        methodBuilder
-                .addCode("\n")
-                .addStatement("// send the request through the pipeline")
-                .addStatement("$T response = pipeline.sendSync(httpRequest, context)", HTTP_RESPONSE);
+    }
 
-        // check for expected status codes
-        if (!method.getExpectedStatusCodes().isEmpty()) {
-            methodBuilder
-                    .addCode("\n")
-                    .addStatement("final int responseCode = response.getStatusCode()");
-            if (method.getExpectedStatusCodes().size() == 1) {
-                methodBuilder.addStatement("boolean expectedResponse = responseCode == $L", method.getExpectedStatusCodes().get(0));
-            } else {
-                methodBuilder.addStatement("boolean expectedResponse = $T.binarySearch(new int[] {$L}, responseCode) > -1", Arrays.class, method.getExpectedStatusCodes().toString());
+    // Returns the expression that hands the open response body to the caller, or null if the body is not streamed.
+    // The body is read from the BinaryData of the response, which streams from the connection with synchronous HTTP
+    // clients, while a Flux streams from any client.
+    private CodeBlock getStreamingBody(HttpRequestContext method) {
+        switch (method.getResponseStrategy()) {
+            case INPUT_STREAM:
+                return CodeBlock.of("$T.closing(response.getBodyAsBinaryData().toStream(), response)", RESPONSE_BODIES);
+            case CHANNEL:
+                return CodeBlock.of("$T.closingChannel(response.getBodyAsBinaryData().toStream(), response)", RESPONSE_BODIES);
+            case FLUX:
+                return CodeBlock.of("response.getBody().doFinally(signal -> response.close())");
+            default:
+                return null;
+        }
+    }
+
+    private static TypeMirror getBodyType(HttpRequestContext method) {
+        for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+            if (parameter.getName().equals(method.getBody().getParameterName())) {
+                return parameter.getTypeMirror();
             }
-            methodBuilder.beginControlFlow("if (!expectedResponse)")
-                    .addStatement("throw new $T(\"Unexpected response code: \" + responseCode)", RuntimeException.class)
-                    .endControlFlow();
         }
+        throw new IllegalStateException("No parameter named " + method.getBody().getParameterName());
+    }
 
-        // add return statement if method return type is not "void"
-        if (!"void".equals(method.getMethodReturnType())) {
-            methodBuilder.addStatement("return $T.asList(\"Hello\", \"World!\")", Arrays.class);
+    // the body parameter, which errors about the body are reported against
+    private static Element getBodyElement(HttpRequestContext method) {
+        for (VariableElement parameter : method.getMethodElement().getParameters()) {
+            if (parameter.getSimpleName().contentEquals(method.getBody().getParameterName())) {
+                return parameter;
+            }
+        }
+        return method.getMethodElement();
+    }
+
+    // Binary and streaming bodies are wrapped in a BinaryData without being copied or buffered, and with their length
+    // where it is known, as the request then gets a Content-Length rather than being sent chunked.
+    private CodeBlock getBodyExpression(HttpRequestContext.Body body) {
+        String name = body.getParameterName();
+        switch (body.getStrategy()) {
+            case BYTE_ARRAY:
+                return CodeBlock.of("$T.fromBytes($L)", BINARY_DATA, name);
+            case BYTE_BUFFER:
+                return CodeBlock.of("$T.fromByteBuffer($L)", BINARY_DATA, name);
+            case INPUT_STREAM:
+                return CodeBlock.of("$T.fromStream($L, $T.contentLength($L))", BINARY_DATA, name, REQUEST_BODIES, name);
+            case CHANNEL:
+                return CodeBlock.of("$T.fromStream($T.toInputStream($L), $T.contentLength($L))", BINARY_DATA,
+                        REQUEST_BODIES, name, REQUEST_BODIES, name);
+            case FILE:
+                return CodeBlock.of("$T.fromFile($L)", BINARY_DATA, name);
+            default:
+                // Strings, Flux<ByteBuffer> and BinaryData have their own setBody overloads
+                return CodeBlock.of("$L", name);
+        }
+    }
+
+    // returns the static metrics of the given operation, creating them if they do not yet exist. Overloads of a method
+    // are recorded as the same operation.
+    private FieldSpec getMetricsField(HttpRequestContext method) {
+        return metricsFields.computeIfAbsent(method.getMethodName(), key -> {
+            return FieldSpec.builder(OPERATION_METRICS, uniqueFieldName(toConstantName(key) + "_METRICS"), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T($S)", OPERATION_METRICS, key)
+                    .build();
+        });
+    }
+
+    private MethodSpec generateMetricsMethod() {
+        TypeName snapshotType = OPERATION_METRICS.nestedClass("Snapshot");
+        TypeName mapType = ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), snapshotType);
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("metrics")
+                .addJavadoc("Returns a snapshot of the metrics of each operation, keyed by method name.\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(mapType)
+                .addStatement("$T metrics = new $T<>()", mapType, LinkedHashMap.class);
+        for (Map.Entry<String, FieldSpec> metricsField : metricsFields.entrySet()) {
+            methodBuilder.addStatement("metrics.put($S, $N.snapshot())", metricsField.getKey(), metricsField.getValue());
         }
+        return methodBuilder.addStatement("return metrics").build();
+    }
 
+    // returns the static HttpHeaderName constant for the given header name, creating it if it does not yet exist
+    private FieldSpec getHeaderNameField(String headerName) {
+        return headerNameFields.computeIfAbsent(headerName.toLowerCase(Locale.ROOT), key -> {
+            return FieldSpec.builder(HTTP_HEADER_NAME, uniqueFieldName(toConstantName(headerName)), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.fromString($S)", HTTP_HEADER_NAME, headerName)
+                    .build();
+        });
+    }
+
+    // returns the static template of constant headers for the given method, creating it if it does not yet exist. The
+    // template is never modified after it is built, and is only ever copied into the headers of a request.
+    private FieldSpec getHeaderTemplateField(HttpRequestContext method) {
+        return headerTemplateFields.computeIfAbsent(method, key -> {
+            CodeBlock.Builder initializer = CodeBlock.builder()
+                    .add("new $T($L)", HTTP_HEADERS, method.getRequestHeaders().size());
+            for (Map.Entry<String, List<String>> header : method.getRequestHeaders().entrySet()) {
+                FieldSpec headerName = getHeaderNameField(header.getKey());
+                for (String value : header.getValue()) {
+                    initializer.add("\n$>$>.add($N, $S)$<$<", headerName, value);
+                }
+            }
+
+            return FieldSpec.builder(HTTP_HEADERS, uniqueFieldName(toConstantName(method.getMethodName()) + "_HEADERS"), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(initializer.build())
+                    .build();
+        });
+    }
+
+    private String uniqueFieldName(String name) {
+        String fieldName = name;
+        for (int i = 2; !usedFieldNames.add(fieldName); i++) {
+            fieldName = name + "_" + i;
+        }
+        return fieldName;
+    }
+
+    // converts a header or method name such as 'x-ms-clientRequestId' into a constant name such as X_MS_CLIENT_REQUEST_ID
+    private static String toConstantName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 8);
+        char previous = '_';
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                c = '_';
+            } else if (Character.isUpperCase(c) && (Character.isLowerCase(previous) || Character.isDigit(previous))) {
+                sb.append('_');
+            }
+            if (c != '_' || previous != '_') {
+                sb.append(Character.toUpperCase(c));
+            }
+            previous = c;
+        }
+        if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        return sb.toString();
+    }
+
+    // adds the statements that check the response status code, shared by the blocking and non-blocking methods
+    private void addStatusCodeCheck(MethodSpec.Builder methodBuilder, HttpRequestContext method) {
+        List<Integer> expectedStatusCodes = method.getExpectedStatusCodes();
+        if (expectedStatusCodes.isEmpty()) {
+            return;
+        }
+
+        // the expected status codes are known at compile time, so the check is a constant comparison or a switch,
+        // and any other status code is mapped to a typed exception
         methodBuilder
-                .nextControlFlow("catch ($T e)", RuntimeException.class)
-                .addStatement("scope.setError(e)")
-                .addStatement("throw e")
-                .nextControlFlow("finally")
-                .addStatement("scope.close()")
+                .addCode("\n")
+                .addStatement("final int responseCode = response.getStatusCode()");
+        if (expectedStatusCodes.size() == 1) {
+            methodBuilder.beginControlFlow("if (responseCode != $L)", expectedStatusCodes.get(0))
+                    .addStatement("throw $T.of(responseCode)", UNEXPECTED_STATUS_CODE_EXCEPTION)
+                    .endControlFlow();
+        } else {
+            methodBuilder.beginControlFlow("switch (responseCode)");
+            for (int statusCode : expectedStatusCodes) {
+                methodBuilder.addCode("case $L:\n", statusCode);
+            }
+            methodBuilder
+                    .addCode("$>break;\n$<")
+                    .addCode("default:\n$>")
+                    .addStatement("throw $T.of(responseCode)", UNEXPECTED_STATUS_CODE_EXCEPTION)
+                    .addCode("$<")
+                    .endControlFlow();
+        }
+    }
+
+    // Adds the statements that return whether the resource of a HEAD request exists. The response has no body, so this
+    // is told by the status code alone, where a 404 means that the resource does not exist.
+    private void addExistsCheck(MethodSpec.Builder methodBuilder, HttpRequestContext method, CodeBlock notFound, CodeBlock found) {
+        methodBuilder
+                .addCode("\n")
+                .beginControlFlow("if (response.getStatusCode() == 404)")
+                .addStatement("return $L", notFound)
                 .endControlFlow();
+        if (method.getExpectedStatusCodes().isEmpty()) {
+            methodBuilder
+                    .addStatement("final int responseCode = response.getStatusCode()")
+                    .beginControlFlow("if (responseCode < 200 || responseCode >= 300)")
+                    .addStatement("throw $T.of(responseCode)", UNEXPECTED_STATUS_CODE_EXCEPTION)
+                    .endControlFlow();
+        } else {
+            addStatusCodeCheck(methodBuilder, method);
+        }
+        methodBuilder
+                .addCode("\n")
+                .addStatement("return $L", found);
+    }
 
-        classBuilder.addMethod(methodBuilder.build());
+    // the type to read from the wire, which is the return type unless a compatible wire type was specified
+    private TypeMirror getDeserializedType(HttpRequestContext method) {
+        TypeMirror returnType = method.getMethodReturnTypeMirror();
+        TypeMirror wireType = method.getReturnValueWireType();
+        if (wireType == null) {
+            return returnType;
+        }
+        if (!processingEnv.getTypeUtils().isAssignable(wireType, returnType)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Wire type '" + wireType
+                    + "' of method '" + method.getMethodName() + "' is not assignable to its return type '" + returnType + "'");
+            return returnType;
+        }
+        return wireType;
     }
 }
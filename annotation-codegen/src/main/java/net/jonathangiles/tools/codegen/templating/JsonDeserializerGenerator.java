@@ -0,0 +1,341 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates reflection-free JSON deserialization code for the return types of service interface methods. For each
+ * type that is not a simple scalar, a private static {@code readXxx(JsonReader)} method is generated to be added to
+ * the generated class, and these methods call each other for nested types.
+ */
+final class JsonDeserializerGenerator {
+    static final ClassName JSON_READER = ClassName.get("net.jonathangiles.tools.codegen.runtime", "JsonReader");
+    static final ClassName PAGE = ClassName.get("net.jonathangiles.tools.codegen.runtime", "Page");
+
+    private final Types types;
+    private final Elements elements;
+    private final JsonTypes jsonTypes;
+    private final List<MethodSpec> methods = new ArrayList<>();
+
+    // a map of the type (as a string) to the name of the generated method that reads it
+    private final Map<String, String> readMethods = new HashMap<>();
+
+    JsonDeserializerGenerator(ProcessingEnvironment processingEnv) {
+        this.types = processingEnv.getTypeUtils();
+        this.elements = processingEnv.getElementUtils();
+        this.jsonTypes = new JsonTypes(processingEnv);
+    }
+
+    /**
+     * Returns an expression that reads a value of the given type from the {@code JsonReader} variable with the given
+     * name, generating any helper methods that are required along the way. Types that cannot be read are reported as
+     * errors against the given element.
+     */
+    CodeBlock readValue(TypeMirror type, String readerName, Element element) {
+        switch (type.getKind()) {
+            case BOOLEAN: return CodeBlock.of("$L.nextBoolean()", readerName);
+            case INT: return CodeBlock.of("$L.nextInt()", readerName);
+            case LONG: return CodeBlock.of("$L.nextLong()", readerName);
+            case DOUBLE: return CodeBlock.of("$L.nextDouble()", readerName);
+            case FLOAT: return CodeBlock.of("(float) $L.nextDouble()", readerName);
+            case SHORT: return CodeBlock.of("(short) $L.nextInt()", readerName);
+            case BYTE: return CodeBlock.of("(byte) $L.nextInt()", readerName);
+            case CHAR: return CodeBlock.of("$L.nextChar()", readerName);
+            default: break;
+        }
+
+        if (jsonTypes.isPrimitiveWrapper(type)) {
+            TypeMirror primitive = types.unboxedType(type);
+            return CodeBlock.of("$L.nextNull() ? null : $T.valueOf($L)",
+                    readerName, TypeName.get(type), readValue(primitive, readerName, element));
+        }
+        if (JsonTypes.isType(type, String.class)) {
+            return CodeBlock.of("$L.nextString()", readerName);
+        }
+
+        return CodeBlock.of("$N($L)", getReadMethod(type, element), readerName);
+    }
+
+    /**
+     * Returns the name of a method that reads a page of items of the given type from a JSON object, where the items are
+     * an array in one property and the next link or continuation token is a string in another, generating the method
+     * if it does not yet exist. Types that cannot be read are reported as errors against the given element.
+     */
+    String getPageReadMethod(TypeMirror itemType, String itemsName, String nextLinkName, Element element) {
+        String key = "page " + itemType + " " + itemsName + " " + nextLinkName;
+        String existing = readMethods.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        String methodName = JsonTypes.uniqueMethodName("read" + JsonTypes.describe(itemType) + "Page", readMethods.values());
+        readMethods.put(key, methodName);
+
+        TypeMirror listType = types.getDeclaredType(elements.getTypeElement(List.class.getName()), itemType);
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(ParameterizedTypeName.get(PAGE, TypeName.get(itemType)))
+                .addParameter(JSON_READER, "reader")
+                .beginControlFlow("if (reader.nextNull())")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$T items = null", TypeName.get(listType))
+                .addStatement("String continuation = null")
+                .addStatement("reader.beginObject()")
+                .beginControlFlow("while (reader.hasNext())")
+                .beginControlFlow("switch (reader.nextName())")
+                .addCode("case $S:\n$>", itemsName)
+                .addStatement("items = $L", readValue(listType, "reader", element))
+                .addStatement("break")
+                .addCode("$<case $S:\n$>", nextLinkName)
+                .addStatement("continuation = reader.nextString()")
+                .addStatement("break")
+                .addCode("$<default:\n$>")
+                .addStatement("reader.skipValue()")
+                .addStatement("break")
+                .addCode("$<")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("reader.endObject()")
+                .addStatement("return new $T<>(items, continuation)", PAGE);
+
+        methods.add(methodBuilder.build());
+        return methodName;
+    }
+
+    /**
+     * Returns all of the reader methods that have been generated so far, to be added to the generated class.
+     */
+    List<MethodSpec> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Returns whether any type could not be read, in which case the errors have been reported and the generated code
+     * is incomplete.
+     */
+    boolean hasErrors() {
+        return jsonTypes.hasErrors();
+    }
+
+    private String getReadMethod(TypeMirror type, Element element) {
+        String key = type.toString();
+        String existing = readMethods.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        String methodName = JsonTypes.uniqueMethodName("read" + JsonTypes.describe(type), readMethods.values());
+
+        // register the method before generating it, so that recursive types refer back to it rather than looping
+        readMethods.put(key, methodName);
+
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.get(type))
+                .addParameter(JSON_READER, "reader")
+                .beginControlFlow("if (reader.nextNull())")
+                .addStatement("return null")
+                .endControlFlow();
+
+        if (type.getKind() == TypeKind.ARRAY) {
+            addArrayBody(methodBuilder, (ArrayType) type, element);
+        } else if (type.getKind() == TypeKind.DECLARED && jsonTypes.isCollection(type)) {
+            addCollectionBody(methodBuilder, (DeclaredType) type, element);
+        } else if (type.getKind() == TypeKind.DECLARED && jsonTypes.isMap(type)) {
+            addMapBody(methodBuilder, (DeclaredType) type, element);
+        } else if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM) {
+            methodBuilder.addStatement("return $T.valueOf(reader.nextString())", TypeName.get(type));
+        } else if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.CLASS
+                && !JsonTypes.isType(type, Object.class)) {
+            addObjectBody(methodBuilder, (DeclaredType) type, element);
+        } else {
+            // no method is generated, as the implementation is not written once there are errors
+            jsonTypes.error("Cannot generate a JSON deserializer for type '" + type + "'", element);
+            return methodName;
+        }
+
+        methods.add(methodBuilder.build());
+        return methodName;
+    }
+
+    private void addArrayBody(MethodSpec.Builder methodBuilder, ArrayType type, Element element) {
+        TypeMirror componentType = type.getComponentType();
+        if (componentType.getKind() == TypeKind.BYTE) {
+            // byte arrays are sent as base64 encoded strings
+            methodBuilder.addStatement("return $T.getDecoder().decode(reader.nextString())", Base64.class);
+            return;
+        }
+
+        TypeMirror boxed = componentType.getKind().isPrimitive()
+                ? types.boxedClass((PrimitiveType) componentType).asType()
+                : componentType;
+        methodBuilder
+                .addStatement("$T<$T> values = new $T<>()", List.class, TypeName.get(boxed), ArrayList.class)
+                .addStatement("reader.beginArray()")
+                .beginControlFlow("while (reader.hasNext())")
+                .addStatement("values.add($L)", readValue(componentType, "reader", element))
+                .endControlFlow()
+                .addStatement("reader.endArray()");
+
+        if (componentType.getKind().isPrimitive()) {
+            methodBuilder
+                    .addStatement("$T array = new $T[values.size()]", TypeName.get(type), TypeName.get(componentType))
+                    .beginControlFlow("for (int i = 0; i < array.length; i++)")
+                    .addStatement("array[i] = values.get(i)")
+                    .endControlFlow()
+                    .addStatement("return array");
+        } else {
+            methodBuilder.addStatement("return values.toArray(new $T[0])", TypeName.get(types.erasure(componentType)));
+        }
+    }
+
+    private void addCollectionBody(MethodSpec.Builder methodBuilder, DeclaredType type, Element element) {
+        TypeMirror elementType = jsonTypes.typeArgument(type, 0, element);
+        if (isInstantiable(type)) {
+            methodBuilder.addStatement("$T values = new $T<>()", TypeName.get(type), rawType(type));
+        } else if (jsonTypes.isAssignableFrom(type, "java.util.Set")) {
+            methodBuilder.addStatement("$T<$T> values = new $T<>()", Set.class, TypeName.get(elementType), LinkedHashSet.class);
+        } else {
+            methodBuilder.addStatement("$T<$T> values = new $T<>()", List.class, TypeName.get(elementType), ArrayList.class);
+        }
+
+        methodBuilder
+                .addStatement("reader.beginArray()")
+                .beginControlFlow("while (reader.hasNext())")
+                .addStatement("values.add($L)", readValue(elementType, "reader", element))
+                .endControlFlow()
+                .addStatement("reader.endArray()")
+                .addStatement("return values");
+    }
+
+    private void addMapBody(MethodSpec.Builder methodBuilder, DeclaredType type, Element element) {
+        TypeMirror valueType = jsonTypes.mapValueType(type, element);
+        methodBuilder
+                .addStatement("$T values = new $T<>()", TypeName.get(type),
+                        isInstantiable(type) ? rawType(type) : ClassName.get(LinkedHashMap.class))
+                .addStatement("reader.beginObject()")
+                .beginControlFlow("while (reader.hasNext())")
+                .addStatement("String name = reader.nextName()")
+                .addStatement("values.put(name, $L)", readValue(valueType, "reader", element))
+                .endControlFlow()
+                .addStatement("reader.endObject()")
+                .addStatement("return values");
+    }
+
+    private void addObjectBody(MethodSpec.Builder methodBuilder, DeclaredType type, Element element) {
+        TypeElement typeElement = (TypeElement) type.asElement();
+        if (!hasAccessibleNoArgConstructor(typeElement)) {
+            jsonTypes.error("Type '" + type + "' must have a public no-argument constructor to be deserialized", element);
+        }
+
+        methodBuilder
+                .addStatement("$T value = new $T()", TypeName.get(type), TypeName.get(type))
+                .addStatement("reader.beginObject()")
+                .beginControlFlow("while (reader.hasNext())")
+                .beginControlFlow("switch (reader.nextName())");
+
+        for (VariableElement field : jsonTypes.fieldsOf(typeElement)) {
+            TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+            String fieldName = field.getSimpleName().toString();
+            TypeMirror fieldType = types.asMemberOf(type, field);
+            CodeBlock read = readValue(fieldType, "reader", element);
+
+            String setterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+            CodeBlock assignment;
+            if (hasPublicSetter(declaringType, setterName, fieldType)) {
+                assignment = CodeBlock.of("value.$N($L)", setterName, read);
+            } else if (field.getModifiers().contains(Modifier.PUBLIC) && !field.getModifiers().contains(Modifier.FINAL)) {
+                assignment = CodeBlock.of("value.$N = $L", fieldName, read);
+            } else {
+                // there is no way to set this field, so it will be skipped along with any unknown properties
+                continue;
+            }
+
+            methodBuilder.addCode("case $S:\n$>", fieldName);
+            if (fieldType.getKind().isPrimitive()) {
+                // a null cannot be assigned to a primitive, so the field keeps its default, as for a missing property
+                methodBuilder.beginControlFlow("if (!reader.nextNull())")
+                        .addStatement(assignment)
+                        .endControlFlow();
+            } else {
+                methodBuilder.addStatement(assignment);
+            }
+            methodBuilder.addStatement("break").addCode("$<");
+        }
+
+        methodBuilder
+                .addCode("default:\n$>")
+                .addStatement("reader.skipValue()")
+                .addStatement("break")
+                .addCode("$<")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("reader.endObject()")
+                .addStatement("return value");
+    }
+
+    // whether the type is a concrete class that we can create directly, rather than an interface such as List
+    private boolean isInstantiable(DeclaredType type) {
+        TypeElement typeElement = (TypeElement) type.asElement();
+        return typeElement.getKind() == ElementKind.CLASS && hasAccessibleNoArgConstructor(typeElement);
+    }
+
+    private static ClassName rawType(DeclaredType type) {
+        return ClassName.get((TypeElement) type.asElement());
+    }
+
+    private boolean hasAccessibleNoArgConstructor(TypeElement typeElement) {
+        if (typeElement.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPublicSetter(TypeElement typeElement, String setterName, TypeMirror fieldType) {
+        for (ExecutableElement method : ElementFilter.methodsIn(typeElement.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(setterName)
+                    && method.getModifiers().contains(Modifier.PUBLIC)
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && method.getParameters().size() == 1
+                    && types.isSameType(types.erasure(method.getParameters().get(0).asType()), types.erasure(fieldType))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
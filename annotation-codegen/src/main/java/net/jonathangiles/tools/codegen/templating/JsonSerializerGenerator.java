@@ -0,0 +1,219 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates reflection-free JSON serialization code for the body parameters of service interface methods. For each
+ * type that is not a simple scalar, a private static {@code writeXxx(JsonWriter, Xxx)} method is generated to be added
+ * to the generated class, and these methods call each other for nested types.
+ *
+ * <p>Properties are read through their public getter where there is one, and otherwise through the field if it is
+ * public. Null properties are left out of the JSON entirely, rather than being written as null.</p>
+ */
+final class JsonSerializerGenerator {
+    static final ClassName JSON_WRITER = ClassName.get("net.jonathangiles.tools.codegen.runtime", "JsonWriter");
+
+    private final Types types;
+    private final JsonTypes jsonTypes;
+    private final List<MethodSpec> methods = new ArrayList<>();
+
+    // a map of the type (as a string) to the name of the generated method that writes it
+    private final Map<String, String> writeMethods = new HashMap<>();
+
+    JsonSerializerGenerator(ProcessingEnvironment processingEnv) {
+        this.types = processingEnv.getTypeUtils();
+        this.jsonTypes = new JsonTypes(processingEnv);
+    }
+
+    /**
+     * Returns a statement that writes the value of the given expression, of the given type, to the {@code JsonWriter}
+     * variable with the given name, generating any helper methods that are required along the way. Types that cannot be
+     * written are reported as errors against the given element.
+     */
+    CodeBlock writeValue(TypeMirror type, String valueExpression, String writerName, Element element) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case FLOAT:
+            case SHORT:
+            case BYTE:
+                return CodeBlock.of("$L.value($L)", writerName, valueExpression);
+            case CHAR:
+                return CodeBlock.of("$L.value($T.valueOf($L))", writerName, String.class, valueExpression);
+            default: break;
+        }
+
+        if (JsonTypes.isType(type, String.class) || isByteArray(type)) {
+            return CodeBlock.of("$L.value($L)", writerName, valueExpression);
+        }
+
+        return CodeBlock.of("$N($L, $L)", getWriteMethod(type, element), writerName, valueExpression);
+    }
+
+    /**
+     * Returns all of the writer methods that have been generated so far, to be added to the generated class.
+     */
+    List<MethodSpec> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Returns whether any type could not be written, in which case the errors have been reported and the generated
+     * code is incomplete.
+     */
+    boolean hasErrors() {
+        return jsonTypes.hasErrors();
+    }
+
+    private String getWriteMethod(TypeMirror type, Element element) {
+        String key = type.toString();
+        String existing = writeMethods.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        String methodName = JsonTypes.uniqueMethodName("write" + JsonTypes.describe(type), writeMethods.values());
+
+        // register the method before generating it, so that recursive types refer back to it rather than looping
+        writeMethods.put(key, methodName);
+
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(JSON_WRITER, "writer")
+                .addParameter(TypeName.get(type), "value")
+                .beginControlFlow("if (value == null)")
+                .addStatement("writer.nullValue()")
+                .addStatement("return")
+                .endControlFlow();
+
+        if (jsonTypes.isPrimitiveWrapper(type)) {
+            methodBuilder.addStatement(writeValue(types.unboxedType(type), "value", "writer", element));
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            methodBuilder
+                    .addStatement("writer.beginArray()")
+                    .beginControlFlow("for ($T element : value)", TypeName.get(((ArrayType) type).getComponentType()))
+                    .addStatement(writeValue(((ArrayType) type).getComponentType(), "element", "writer", element))
+                    .endControlFlow()
+                    .addStatement("writer.endArray()");
+        } else if (type.getKind() == TypeKind.DECLARED && jsonTypes.isCollection(type)) {
+            TypeMirror elementType = jsonTypes.typeArgument((DeclaredType) type, 0, element);
+            methodBuilder
+                    .addStatement("writer.beginArray()")
+                    .beginControlFlow("for ($T element : value)", TypeName.get(elementType))
+                    .addStatement(writeValue(elementType, "element", "writer", element))
+                    .endControlFlow()
+                    .addStatement("writer.endArray()");
+        } else if (type.getKind() == TypeKind.DECLARED && jsonTypes.isMap(type)) {
+            addMapBody(methodBuilder, (DeclaredType) type, element);
+        } else if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM) {
+            methodBuilder.addStatement("writer.value(value.name())");
+        } else if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.CLASS
+                && !JsonTypes.isType(type, Object.class)) {
+            addObjectBody(methodBuilder, (DeclaredType) type, element);
+        } else {
+            // no method is generated, as the implementation is not written once there are errors
+            jsonTypes.error("Cannot generate a JSON serializer for type '" + type + "'", element);
+            return methodName;
+        }
+
+        methods.add(methodBuilder.build());
+        return methodName;
+    }
+
+    private void addMapBody(MethodSpec.Builder methodBuilder, DeclaredType type, Element element) {
+        TypeMirror valueType = jsonTypes.mapValueType(type, element);
+        methodBuilder
+                .addStatement("writer.beginObject()")
+                .beginControlFlow("for ($T.Entry<$T, $T> entry : value.entrySet())", Map.class, String.class,
+                        TypeName.get(valueType))
+                .addStatement("writer.name(entry.getKey())")
+                .addStatement(writeValue(valueType, "entry.getValue()", "writer", element))
+                .endControlFlow()
+                .addStatement("writer.endObject()");
+    }
+
+    private void addObjectBody(MethodSpec.Builder methodBuilder, DeclaredType type, Element element) {
+        methodBuilder.addStatement("writer.beginObject()");
+
+        for (VariableElement field : jsonTypes.fieldsOf((TypeElement) type.asElement())) {
+            TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+            String fieldName = field.getSimpleName().toString();
+            TypeMirror fieldType = types.asMemberOf(type, field);
+
+            String accessor;
+            String getterName = findPublicGetter(declaringType, fieldName, fieldType);
+            if (getterName != null) {
+                accessor = "value." + getterName + "()";
+            } else if (field.getModifiers().contains(Modifier.PUBLIC)) {
+                accessor = "value." + fieldName;
+            } else {
+                // there is no way to read this field, so it is not part of the JSON
+                continue;
+            }
+
+            if (fieldType.getKind().isPrimitive()) {
+                methodBuilder.addStatement("writer.name($S)", fieldName)
+                        .addStatement(writeValue(fieldType, accessor, "writer", element));
+            } else {
+                // the property is read once into a local, as a getter may not be cheap
+                String local = fieldName + "Value";
+                methodBuilder.addStatement("$T $N = $L", TypeName.get(fieldType), local, accessor)
+                        .beginControlFlow("if ($N != null)", local)
+                        .addStatement("writer.name($S)", fieldName)
+                        .addStatement(writeValue(fieldType, local, "writer", element))
+                        .endControlFlow();
+            }
+        }
+
+        methodBuilder.addStatement("writer.endObject()");
+    }
+
+    private String findPublicGetter(TypeElement typeElement, String fieldName, TypeMirror fieldType) {
+        String capitalized = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+        String[] candidates = fieldType.getKind() == TypeKind.BOOLEAN
+                ? new String[] { "is" + capitalized, "get" + capitalized }
+                : new String[] { "get" + capitalized };
+
+        for (String candidate : candidates) {
+            for (ExecutableElement method : ElementFilter.methodsIn(typeElement.getEnclosedElements())) {
+                if (method.getSimpleName().contentEquals(candidate)
+                        && method.getModifiers().contains(Modifier.PUBLIC)
+                        && !method.getModifiers().contains(Modifier.STATIC)
+                        && method.getParameters().isEmpty()
+                        && types.isSameType(types.erasure(method.getReturnType()), types.erasure(fieldType))) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isByteArray(TypeMirror type) {
+        return type.getKind() == TypeKind.ARRAY && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+    }
+}
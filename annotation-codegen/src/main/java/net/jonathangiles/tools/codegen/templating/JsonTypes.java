@@ -0,0 +1,163 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The questions about types that {@link JsonSerializerGenerator} and {@link JsonDeserializerGenerator} both ask, such as
+ * whether a type is written as a JSON array or object and which of its fields are properties, along with the naming of
+ * the methods that they generate and the reporting of the types that they cannot handle.
+ */
+final class JsonTypes {
+    private final Types types;
+    private final Elements elements;
+    private final ProcessingEnvironment processingEnv;
+    private boolean errors;
+
+    JsonTypes(ProcessingEnvironment processingEnv) {
+        this.processingEnv = processingEnv;
+        this.types = processingEnv.getTypeUtils();
+        this.elements = processingEnv.getElementUtils();
+    }
+
+    // whether the type is a JSON array, which is any Iterable that is a Collection, or Iterable itself
+    boolean isCollection(TypeMirror type) {
+        String erased = types.erasure(type).toString();
+        return "java.lang.Iterable".equals(erased) || isAssignableFrom(type, "java.util.Collection");
+    }
+
+    boolean isMap(TypeMirror type) {
+        return isAssignableFrom(type, "java.util.Map");
+    }
+
+    boolean isAssignableFrom(TypeMirror type, String fqcn) {
+        return types.isAssignable(types.erasure(type), types.erasure(elements.getTypeElement(fqcn).asType()));
+    }
+
+    boolean isPrimitiveWrapper(TypeMirror type) {
+        try {
+            types.unboxedType(type);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static boolean isType(TypeMirror type, Class<?> clazz) {
+        return clazz.getName().equals(type.toString());
+    }
+
+    /**
+     * Returns the type argument at the given index, using the upper bound of a wildcard. A raw type is reported as an
+     * error against the given element, and its type arguments are taken to be Object.
+     */
+    TypeMirror typeArgument(DeclaredType type, int index, Element element) {
+        List<? extends TypeMirror> typeArguments = type.getTypeArguments();
+        if (typeArguments.size() <= index) {
+            error("Raw type '" + type + "' cannot be converted to or from JSON, type arguments are required", element);
+            return elements.getTypeElement(Object.class.getName()).asType();
+        }
+        TypeMirror typeArgument = typeArguments.get(index);
+        if (typeArgument.getKind() == TypeKind.WILDCARD) {
+            TypeMirror bound = ((WildcardType) typeArgument).getExtendsBound();
+            return bound == null ? elements.getTypeElement(Object.class.getName()).asType() : bound;
+        }
+        return typeArgument;
+    }
+
+    /**
+     * Returns the value type of the given map type, reporting an error against the given element if its keys are not
+     * strings, as only strings can be JSON property names.
+     */
+    TypeMirror mapValueType(DeclaredType type, Element element) {
+        if (!isType(typeArgument(type, 0, element), String.class)) {
+            error("JSON maps must have String keys, but found '" + type + "'", element);
+        }
+        return typeArgument(type, 1, element);
+    }
+
+    /**
+     * Returns the fields of the given class and its superclasses that may be JSON properties, which are those that are
+     * neither static nor transient, in declaration order starting with the class itself. Whether a field is a property
+     * also depends on whether it can be read or written, which is for the caller to decide.
+     */
+    List<VariableElement> fieldsOf(TypeElement typeElement) {
+        List<VariableElement> fields = new ArrayList<>();
+        for (TypeElement current = typeElement; current != null; current = superclassOf(current)) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT)) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private TypeElement superclassOf(TypeElement typeElement) {
+        TypeMirror superclass = typeElement.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED || isType(superclass, Object.class)) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    // creates a readable name for the type, e.g. List<Map<String, Foo>> becomes ListOfMapOfStringAndFoo
+    static String describe(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return describe(((ArrayType) type).getComponentType()) + "Array";
+        } else if (type.getKind().isPrimitive()) {
+            String name = type.toString();
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declaredType = (DeclaredType) type;
+            StringBuilder sb = new StringBuilder(declaredType.asElement().getSimpleName());
+            String separator = "Of";
+            for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
+                sb.append(separator).append(describe(typeArgument));
+                separator = "And";
+            }
+            return sb.toString();
+        } else if (type.getKind() == TypeKind.WILDCARD) {
+            TypeMirror bound = ((WildcardType) type).getExtendsBound();
+            return bound == null ? "Object" : describe(bound);
+        }
+        return "Value";
+    }
+
+    // returns the candidate name, or the candidate with the lowest number appended that is not already taken
+    static String uniqueMethodName(String candidate, Collection<String> taken) {
+        String methodName = candidate;
+        int counter = 2;
+        while (taken.contains(methodName)) {
+            methodName = candidate + counter++;
+        }
+        return methodName;
+    }
+
+    void error(String message, Element element) {
+        errors = true;
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Returns whether any errors have been reported, in which case the generated code is incomplete.
+     */
+    boolean hasErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,192 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.squareup.javapoet.*;
+import net.jonathangiles.tools.codegen.models.TemplateInput;
+import net.jonathangiles.tools.codegen.utils.Fingerprints;
+
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Generates a {@code ServiceInterfaceFactories} class into each package that contains service interfaces. The class
+ * maps each service interface to a method reference to its generated implementation's {@code getInstance} method, so
+ * that service interfaces can obtain their implementation without any reflection.
+ *
+ * <p>An index of all service interfaces and the registry class for each is also written to {@link #INDEX_RESOURCE},
+ * which allows tooling to discover the generated implementations without scanning the classpath.</p>
+ */
+public class ServiceInterfaceFactoriesGenerator {
+    public static final String REGISTRY_SHORT_NAME = "ServiceInterfaceFactories";
+    public static final String INDEX_RESOURCE = "META-INF/net.jonathangiles.tools.codegen/service-interfaces";
+
+    private static final ClassName HTTP_PIPELINE = ClassName.get("com.azure.core.http", "HttpPipeline");
+
+    // service interfaces that are waiting to be written, grouped by package
+    private final Map<String, List<TemplateInput>> pending = new TreeMap<>();
+
+    // packages that already have a registry, as the Filer does not allow a file to be written twice
+    private final Set<String> writtenPackages = new HashSet<>();
+
+    // service interface FQN to registry FQN, for all service interfaces in this compilation
+    private final Map<String, String> index = new TreeMap<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    public void add(TemplateInput templateInput) {
+        originatingElements.add(templateInput.getServiceInterfaceElement());
+        String packageName = templateInput.getPackageName() == null ? "" : templateInput.getPackageName();
+        pending.computeIfAbsent(packageName, p -> new ArrayList<>()).add(templateInput);
+    }
+
+    /**
+     * Writes a registry for each package that has had service interfaces added since the last call. This should be
+     * called at the end of each processing round, so that the registries are compiled along with the implementations.
+     */
+    public void writeRegistries(ProcessingEnvironment processingEnv) {
+        for (Map.Entry<String, List<TemplateInput>> entry : pending.entrySet()) {
+            String packageName = entry.getKey();
+            if (!writtenPackages.add(packageName)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Service interfaces in package '"
+                        + packageName + "' were generated across multiple processing rounds, but only one "
+                        + REGISTRY_SHORT_NAME + " class can be generated per package");
+                continue;
+            }
+
+            // the registry only needs to be regenerated if the set of service interfaces in the package has changed
+            List<String> registered = new ArrayList<>();
+            for (TemplateInput serviceInterface : entry.getValue()) {
+                registered.add(serviceInterface.getServiceInterfaceFQN());
+                index.put(serviceInterface.getServiceInterfaceFQN(), registryFQN(packageName));
+            }
+            Collections.sort(registered);
+            String fingerprint = Fingerprints.of(registered);
+            if (Fingerprints.isUpToDate(processingEnv, registryFQN(packageName), fingerprint)) {
+                continue;
+            }
+
+            JavaFile javaFile = JavaFile.builder(packageName, createRegistry(packageName, entry.getValue()))
+                    .addFileComment("Code generated by the annotation-codegen processor. Do not edit.\n")
+                    .addFileComment("$L$L", Fingerprints.FINGERPRINT_PREFIX, fingerprint)
+                    .indent("    ") // four spaces
+                    .build();
+
+            try {
+                javaFile.writeTo(processingEnv.getFiler());
+            } catch (FilerException e) {
+                // an out-of-date copy of the registry is an input to this compilation, and cannot be replaced
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to regenerate "
+                        + registryFQN(packageName) + " as an out-of-date copy is part of this compilation, clean the "
+                        + "generated sources and rebuild");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Writes the index of all service interfaces seen in this compilation. This should be called once processing is
+     * over.
+     */
+    public void writeIndex(ProcessingEnvironment processingEnv) {
+        if (index.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE,
+                    originatingElements.toArray(new Element[0]));
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, String> entry : index.entrySet()) {
+                    out.print(entry.getKey());
+                    out.print('=');
+                    out.print(entry.getValue());
+                    out.print('\n');
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String registryFQN(String packageName) {
+        return packageName.isEmpty() ? REGISTRY_SHORT_NAME : packageName + "." + REGISTRY_SHORT_NAME;
+    }
+
+    private TypeSpec createRegistry(String packageName, List<TemplateInput> serviceInterfaces) {
+        ClassName registryType = ClassName.get(packageName, REGISTRY_SHORT_NAME);
+        TypeName factoryType = ParameterizedTypeName.get(ClassName.get(Function.class), HTTP_PIPELINE,
+                WildcardTypeName.subtypeOf(Object.class));
+        TypeName factoriesType = ParameterizedTypeName.get(ClassName.get(Map.class),
+                ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class)),
+                factoryType);
+
+        TypeSpec.Builder classBuilder = TypeSpec.classBuilder(registryType)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("Provides the generated implementation of each service interface in this package, "
+                        + "without the use of reflection.\n")
+                .addField(FieldSpec.builder(factoriesType, "FACTORIES", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .build());
+
+        CodeBlock.Builder staticInit = CodeBlock.builder()
+                .addStatement("$T factories = new $T<>()", factoriesType, HashMap.class);
+
+        for (TemplateInput serviceInterface : serviceInterfaces) {
+            ClassName interfaceType = ClassName.get(packageName, serviceInterface.getServiceInterfaceShortName());
+            ClassName implType = ClassName.get(packageName, serviceInterface.getServiceInterfaceImplShortName());
+            TypeName typedFactoryType = ParameterizedTypeName.get(ClassName.get(Function.class), HTTP_PIPELINE, interfaceType);
+
+            staticInit.addStatement("factories.put($T.class, ($T) $T::getInstance)", interfaceType, typedFactoryType, implType);
+
+            classBuilder.addMethod(MethodSpec.methodBuilder("get" + serviceInterface.getServiceInterfaceShortName())
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                    .returns(interfaceType)
+                    .addParameter(HTTP_PIPELINE, "pipeline")
+                    .addStatement("return $T.getInstance(pipeline)", implType)
+                    .build());
+
+            classBuilder.addOriginatingElement(serviceInterface.getServiceInterfaceElement());
+        }
+
+        staticInit.addStatement("FACTORIES = $T.unmodifiableMap(factories)", Collections.class);
+        classBuilder.addStaticBlock(staticInit.build());
+
+        // a generic lookup, for callers that only have the Class of the service interface
+        TypeVariableName t = TypeVariableName.get("T");
+        classBuilder.addMethod(MethodSpec.methodBuilder("getFactory")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addTypeVariable(t)
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build())
+                .returns(ParameterizedTypeName.get(ClassName.get(Function.class), HTTP_PIPELINE, t))
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class), t), "serviceInterface")
+                .addStatement("$T factory = FACTORIES.get(serviceInterface)", factoryType)
+                .beginControlFlow("if (factory == null)")
+                .addStatement("throw new $T(\"No generated implementation for \" + serviceInterface.getName())",
+                        IllegalArgumentException.class)
+                .endControlFlow()
+                .addStatement("return ($T) factory", ParameterizedTypeName.get(ClassName.get(Function.class), HTTP_PIPELINE, t))
+                .build());
+
+        return classBuilder.build();
+    }
+}
@@ -10,5 +10,20 @@ public interface TemplateProcessor {
         return new JavaPoetTemplateProcessor();
     }
 
-    void process(TemplateInput templateInput, ProcessingEnvironment processingEnv);
+    /**
+     * Generates the implementation of the given service interface, and writes it through the {@code Filer}.
+     */
+    default void process(TemplateInput templateInput, ProcessingEnvironment processingEnv) {
+        GeneratedSource source = generate(templateInput, processingEnv);
+        if (source != null) {
+            source.write(processingEnv, source.render());
+        }
+    }
+
+    /**
+     * Models the implementation of the given service interface without writing it, so that it can be rendered on
+     * another thread. This must be called from the compiler thread. Returns null if the service interface cannot be
+     * implemented, in which case the reasons have been reported as errors.
+     */
+    GeneratedSource generate(TemplateInput templateInput, ProcessingEnvironment processingEnv);
 }
@@ -0,0 +1,209 @@
+package net.jonathangiles.tools.codegen.utils;
+
+import net.jonathangiles.tools.codegen.models.HttpRequestContext;
+import net.jonathangiles.tools.codegen.models.QueryParameter;
+import net.jonathangiles.tools.codegen.models.TemplateInput;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes stable fingerprints of the inputs to code generation, and checks them against previously generated
+ * sources. This allows unchanged service interfaces to be skipped, rather than being regenerated and rewritten on
+ * every build.
+ */
+public final class Fingerprints {
+    // This is part of every fingerprint, and must be changed whenever the generated code changes for the same input,
+    // so that sources generated by an older version of the processor are not treated as up-to-date.
+    static final String GENERATOR_VERSION = "20";
+
+    /**
+     * The prefix of the line in generated source files that records the fingerprint of their input.
+     */
+    public static final String FINGERPRINT_PREFIX = "Fingerprint: ";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Fingerprints() {
+    }
+
+    /**
+     * Computes the fingerprint of everything that the generated implementation of a service interface depends on.
+     * This includes the structure of any types that are deserialized, as the generated code reads their fields.
+     *
+     * @param templateInput The service interface.
+     * @param backend The name of the template processor that will generate the implementation.
+     * @return The fingerprint, as a hex string.
+     */
+    public static String of(TemplateInput templateInput, String backend) {
+        StringBuilder sb = new StringBuilder(1024)
+                .append(GENERATOR_VERSION).append('\n')
+                .append(backend).append('\n')
+                .append(templateInput.getServiceInterfaceFQN()).append('\n')
+                .append(templateInput.getHost()).append('\n')
+                .append(templateInput.getAsyncMethodTypes()).append('\n')
+                .append("metrics ").append(templateInput.isMetricsEnabled()).append('\n')
+                .append("tracing ").append(templateInput.isTracingEnabled()).append('\n')
+                .append("batch ").append(templateInput.isBatchMethodsEnabled()).append('\n')
+                .append(templateInput.getImports().keySet()).append('\n');
+
+        Set<String> visitedTypes = new HashSet<>();
+        for (HttpRequestContext method : templateInput.getHttpRequestContexts()) {
+            sb.append("method ").append(method.getMethodName())
+                    .append(' ').append(method.getHttpMethod())
+                    .append(' ').append(method.getHost())
+                    .append(' ').append(method.getExpectedStatusCodes())
+                    .append(' ').append(method.getResponseStrategy())
+                    .append(' ').append(method.getHedging())
+                    .append(' ').append(method.getCacheMaxEntries())
+                    .append(' ').append(method.isCoalesced())
+                    .append(' ').append(method.getPaging())
+                    .append('\n');
+
+            appendType(sb, method.getMethodReturnTypeMirror(), visitedTypes);
+            appendType(sb, method.getReturnValueWireType(), visitedTypes);
+            for (HttpRequestContext.MethodParameter parameter : method.getParameters()) {
+                sb.append("param ").append(parameter.getName()).append(' ');
+                appendType(sb, parameter.getTypeMirror(), visitedTypes);
+            }
+            appendMap(sb, "header", method.getHeaders());
+            appendMap(sb, "requestHeader", method.getRequestHeaders());
+            for (QueryParameter queryParameter : method.getQueryParams().values()) {
+                sb.append("query ").append(queryParameter.getName())
+                        .append('=').append(queryParameter.getParameterVariableName())
+                        .append(' ').append(queryParameter.shouldEncode())
+                        .append(' ').append(queryParameter.getExpansion()).append('\n');
+            }
+            if (method.getBody() != null) {
+                sb.append("body ").append(method.getBody().getContentType())
+                        .append(' ').append(method.getBody().getParameterType())
+                        .append(' ').append(method.getBody().getParameterName())
+                        .append(' ').append(method.getBody().getStrategy()).append('\n');
+            }
+        }
+
+        return hash(sb);
+    }
+
+    /**
+     * Computes a fingerprint of an arbitrary list of values, for generated sources that only depend on simple values.
+     *
+     * @param values The values that the generated source depends on.
+     * @return The fingerprint, as a hex string.
+     */
+    public static String of(List<String> values) {
+        StringBuilder sb = new StringBuilder(256).append(GENERATOR_VERSION).append('\n');
+        for (String value : values) {
+            sb.append(value).append('\n');
+        }
+        return hash(sb);
+    }
+
+    /**
+     * Determines whether the given type has already been generated from input with the given fingerprint, and is part
+     * of this compilation. This is the case when the generated sources directory is also a source root, as it is with
+     * Maven, and in that case the type must not be generated again.
+     *
+     * @param processingEnv The processing environment.
+     * @param typeFQN The fully-qualified name of the generated type.
+     * @param fingerprint The fingerprint of the input that the type would be generated from.
+     * @return True if the existing source is up-to-date.
+     */
+    public static boolean isUpToDate(ProcessingEnvironment processingEnv, String typeFQN, String fingerprint) {
+        TypeElement existing = processingEnv.getElementUtils().getTypeElement(typeFQN);
+        if (existing == null) {
+            return false;
+        }
+
+        int lastDot = typeFQN.lastIndexOf('.');
+        String packageName = lastDot > 0 ? typeFQN.substring(0, lastDot) : "";
+        String fileName = typeFQN.substring(lastDot + 1) + ".java";
+        try {
+            FileObject source = processingEnv.getFiler().getResource(StandardLocation.SOURCE_OUTPUT, packageName, fileName);
+            CharSequence content = source.getCharContent(true);
+
+            // the fingerprint is recorded in the file comment, so only the start of the file needs to be checked
+            String header = content.subSequence(0, Math.min(content.length(), 512)).toString();
+            return header.contains(FINGERPRINT_PREFIX + fingerprint);
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            // the file does not exist, or the build tool does not allow generated sources to be read back
+            return false;
+        }
+    }
+
+    private static void appendType(StringBuilder sb, TypeMirror type, Set<String> visitedTypes) {
+        if (type == null) {
+            sb.append("null\n");
+            return;
+        }
+        sb.append(type).append('\n');
+
+        if (type.getKind() == TypeKind.ARRAY) {
+            appendType(sb, ((ArrayType) type).getComponentType(), visitedTypes);
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declaredType = (DeclaredType) type;
+            for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
+                appendType(sb, typeArgument, visitedTypes);
+            }
+
+            // the structure of JDK types cannot change between builds, but that of user types can
+            TypeElement element = (TypeElement) declaredType.asElement();
+            String name = element.getQualifiedName().toString();
+            if (name.startsWith("java.") || name.startsWith("javax.") || !visitedTypes.add(name)) {
+                return;
+            }
+
+            sb.append("members ").append(name).append('\n');
+            for (Element member : element.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.FIELD || member.getKind() == ElementKind.METHOD
+                        || member.getKind() == ElementKind.CONSTRUCTOR || member.getKind() == ElementKind.ENUM_CONSTANT) {
+                    sb.append(member.getModifiers()).append(' ').append(member.getSimpleName())
+                            .append(' ').append(member.asType()).append('\n');
+                }
+                if (member.getKind() == ElementKind.FIELD) {
+                    appendType(sb, member.asType(), visitedTypes);
+                }
+            }
+            appendType(sb, element.getSuperclass(), visitedTypes);
+        }
+    }
+
+    private static void appendMap(StringBuilder sb, String label, Map<String, ?> map) {
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            sb.append(label).append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+    }
+
+    private static String hash(CharSequence input) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(input.toString().getBytes(StandardCharsets.UTF_8));
+
+            // half of a SHA-256 digest is plenty to detect changes
+            char[] hex = new char[32];
+            for (int i = 0; i < 16; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package net.jonathangiles.tools.codegen.utils;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Warns when a method of a generated implementation compiles to more bytecode than HotSpot will inline. Generated code
+ * is written so that the methods on the path of a call stay small, but a service interface method with many parameters
+ * or headers can still grow past the limits, and then its callers can no longer be optimized across the call.
+ *
+ * <p>Bytecode only exists once javac has compiled the generated sources, long after the processor has run, so the
+ * check listens for javac writing the class files of the generated implementations, and reads the length of the code of
+ * each method from them. Other compilers, and build tools that hide the javac task from processors, are not supported,
+ * in which case nothing is checked.</p>
+ */
+public final class MethodSizeCheck implements TaskListener {
+    /**
+     * The size up to which HotSpot inlines methods that are called frequently, -XX:FreqInlineSize, which is the
+     * default limit of the check.
+     */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    // the size above which HotSpot does not compile a method at all, -XX:HugeMethodLimit
+    static final int HUGE_METHOD_LIMIT = 8000;
+
+    private final ProcessingEnvironment processingEnv;
+    private final int limit;
+
+    // the generated types to check, and the service interfaces that they are generated from
+    private final Map<String, Element> types = new ConcurrentHashMap<>();
+
+    private MethodSizeCheck(ProcessingEnvironment processingEnv, int limit) {
+        this.processingEnv = processingEnv;
+        this.limit = limit;
+    }
+
+    /**
+     * Starts checking the generated types of this compilation, if the compiler allows it.
+     *
+     * @param processingEnv The processing environment.
+     * @param limit The size in bytes above which a method is reported.
+     * @return The check, or null if the compiler is not javac.
+     */
+    public static MethodSizeCheck register(ProcessingEnvironment processingEnv, int limit) {
+        MethodSizeCheck check = new MethodSizeCheck(processingEnv, limit);
+        try {
+            JavacTask.instance(processingEnv).addTaskListener(check);
+            return check;
+        } catch (IllegalArgumentException | LinkageError e) {
+            // the processing environment is not javac's own, or javac's API is not available
+            return null;
+        }
+    }
+
+    /**
+     * Checks the class file of the given generated type once it has been written.
+     *
+     * @param typeFQN The fully-qualified name of the generated type.
+     * @param origin The element that the type is generated from, which warnings are reported against.
+     */
+    public void add(String typeFQN, Element origin) {
+        types.put(typeFQN, origin);
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+        if (event.getKind() != TaskEvent.Kind.GENERATE || event.getTypeElement() == null) {
+            return;
+        }
+        TypeElement type = event.getTypeElement();
+        String typeFQN = type.getQualifiedName().toString();
+        Element origin = types.get(typeFQN);
+        if (origin == null) {
+            return;
+        }
+
+        Map<String, Integer> codeLengths;
+        int lastDot = typeFQN.lastIndexOf('.');
+        String packageName = lastDot > 0 ? typeFQN.substring(0, lastDot) : "";
+        String fileName = typeFQN.substring(lastDot + 1) + ".class";
+        try {
+            FileObject classFile = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, packageName, fileName);
+            try (InputStream in = classFile.openInputStream()) {
+                codeLengths = readCodeLengths(in);
+            }
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            // the class file was written somewhere that cannot be read back, so there is nothing to check
+            return;
+        }
+
+        for (Map.Entry<String, Integer> method : codeLengths.entrySet()) {
+            String name = method.getKey().substring(0, method.getKey().indexOf('('));
+            int length = method.getValue();
+            if (name.equals("<clinit>") || length <= limit) {
+                // static initializers only run once, so their size does not matter
+                continue;
+            }
+            String reason = length > HUGE_METHOD_LIMIT
+                    ? "HotSpot does not compile methods of more than " + HUGE_METHOD_LIMIT + " bytes (-XX:HugeMethodLimit)"
+                    : "HotSpot only inlines frequently called methods of up to -XX:FreqInlineSize bytes, which is "
+                        + FREQ_INLINE_SIZE + " by default";
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Generated method " + typeFQN + "."
+                    + name + " is " + length + " bytes of bytecode, more than the limit of " + limit + " bytes. "
+                    + reason, origin);
+        }
+    }
+
+    /**
+     * Reads the length of the code of each method in a class file.
+     *
+     * @param classFile The class file.
+     * @return The length of the code of each method that has code, keyed by name and descriptor, in class file order.
+     * @throws IOException If the class file cannot be read, or is not a class file.
+     */
+    static Map<String, Integer> readCodeLengths(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // only the UTF-8 constants are kept, as they hold the names that are needed
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    // eight byte constants take up two entries of the constant pool
+                    skip(in, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        skip(in, 6); // access flags, this class and super class
+        skip(in, 2 * in.readUnsignedShort()); // interfaces
+
+        int fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            skip(in, 6); // access flags, name and descriptor
+            skipAttributes(in);
+        }
+
+        Map<String, Integer> codeLengths = new LinkedHashMap<>();
+        int methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            skip(in, 2); // access flags
+            String method = utf8[in.readUnsignedShort()] + utf8[in.readUnsignedShort()];
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                String attributeName = utf8[in.readUnsignedShort()];
+                int attributeLength = in.readInt();
+                if ("Code".equals(attributeName)) {
+                    skip(in, 4); // max stack and max locals
+                    codeLengths.put(method, in.readInt());
+                    skip(in, attributeLength - 8);
+                } else {
+                    skip(in, attributeLength);
+                }
+            }
+        }
+        return codeLengths;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            skip(in, 2);
+            skip(in, in.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        for (int remaining = length; remaining > 0; ) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -2,82 +2,173 @@ package net.jonathangiles.tools.codegen.utils;
 
 import net.jonathangiles.tools.codegen.exceptions.MissingSubstitutionException;
 import net.jonathangiles.tools.codegen.models.HttpRequestContext;
+import net.jonathangiles.tools.codegen.models.QueryParameter;
 import net.jonathangiles.tools.codegen.models.Substitution;
+import net.jonathangiles.tools.codegen.models.UrlTemplate;
 
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class PathBuilder {
+    // The capacity reserved for each dynamic value when sizing the StringBuilder in the generated code. This avoids
+    // the StringBuilder having to grow in the common case, without needing to inspect the values at runtime.
+    static final int DYNAMIC_VALUE_CAPACITY = 16;
+
+    // As above, but for a collection or array query parameter, which is expected to expand to several values.
+    static final int EXPANDED_VALUE_CAPACITY = 64;
+
+    private static final String PERCENT_ENCODER = "net.jonathangiles.tools.codegen.runtime.PercentEncoder";
+    private static final String QUERY_PARAMETERS = "net.jonathangiles.tools.codegen.runtime.QueryParameters";
+
     // this class takes a 'raw host' string that contains {} delimited parameters, and needs to convert it into a
-    // Java string concatenation that can be used in the generated code. For example, the raw host string:
+    // Java expression that can be used in the generated code. For example, the raw host string:
     // https://{endpoint}/keys/{path1}
     // would be converted into:
-    // "https://" + endpointParam + "/keys/" + pathValue
-    // Note that query parameters may also exist, and should be appended to the end of the URL string using
-    // a Map containing key-value pairs.
+    // new StringBuilder(46).append("https://").append(endpointParam).append("/keys/").append(encodePathSegment(pathValue)).toString()
+    // The static segments and the dynamic values are written into a single StringBuilder that is sized up-front, and
+    // dynamic values are only percent-encoded if they are not already encoded. The encodePathSegment and
+    // encodeQueryParameter methods are static imports from PercentEncoder.
+    // Query parameters with a single value are appended as static segments and dynamic values in the same way, starting
+    // with a '&' rather than a '?' if the template already has a query string. Those
+    // with a collection or array value, or a single value that may be null, are appended after them, by passing the
+    // same StringBuilder through the appendMultipleQueryParameters, appendDelimitedQueryParameter and
+    // appendQueryParameter methods of QueryParameters (also static imports), which leave out null values and write the
+    // '?' or '&' separator depending on what has already been written.
+    // The static methods that the expression calls are recorded on the method, so that only those are imported.
     // Note that the 'endpoint' parameter is special - it is always the first parameter, and is always a host parameter.
     public static String buildPath(String rawHost, HttpRequestContext method) {
+        return buildPath(UrlTemplate.parse(rawHost), method);
+    }
+
+    // As above, but for a template that has already been parsed.
+    public static String buildPath(UrlTemplate urlTemplate, HttpRequestContext method) {
         if (method == null) {
             throw new NullPointerException("method cannot be null");
         }
 
-        final boolean hasQueryParams = !method.getQueryParams().isEmpty();
+        UrlExpression url = new UrlExpression();
 
-        Pattern pattern = Pattern.compile("\\{(.+?)\\}");
-        Matcher matcher = pattern.matcher(rawHost);
-        StringBuffer buffer = new StringBuffer();
+        // the template may already have a query string, which the query parameters are then added to
+        boolean hasQuery = false;
+        for (UrlTemplate.Segment segment : urlTemplate.getSegments()) {
+            if (!segment.isPlaceholder()) {
+                url.appendLiteral(segment.getValue());
+                hasQuery |= segment.getValue().indexOf('?') >= 0;
+                continue;
+            }
 
-        while (matcher.find()) {
-            String paramName = matcher.group(1);
-            Substitution substitution = method.getSubstitution(paramName);
-            if (substitution != null && !substitution.getParameterVariableName().isEmpty()) {
-                matcher.appendReplacement(buffer, "");
+            Substitution substitution = method.getSubstitution(segment.getValue());
+            if (substitution == null || substitution.getParameterVariableName().isEmpty()) {
+                throw new MissingSubstitutionException("Could not find substitution for '" + segment.getValue() + "' in method '" + method.getMethodName() + "'");
+            }
+            url.appendValue(substitution.getParameterVariableName(), substitution.shouldEncode() ? "encodePathSegment" : null);
+        }
 
-                if (buffer.length() != 0) {
-                    buffer.append("\" + ");
-                }
-                buffer.append(substitution.getParameterVariableName()).append(" + \"");
-            } else {
-                throw new MissingSubstitutionException("Could not find substitution for '" + paramName + "' in method '" + method.getMethodName() + "'");
+        char separator = hasQuery ? '&' : '?';
+        for (QueryParameter queryParameter : method.getQueryParams().values()) {
+            final String key = queryParameter.getName();
+            final String value = queryParameter.getParameterVariableName();
+            if (key.isEmpty() || value.isEmpty()) {
+                throw new IllegalArgumentException("Query parameter key and value must not be empty");
+            }
+            if (queryParameter.getExpansion() == QueryParameter.Expansion.MULTIPLE) {
+                url.appendExpansion("appendMultipleQueryParameters", key, value, queryParameter.shouldEncode(),
+                        EXPANDED_VALUE_CAPACITY);
+                continue;
+            } else if (queryParameter.getExpansion() == QueryParameter.Expansion.DELIMITED) {
+                url.appendExpansion("appendDelimitedQueryParameter", key, value, queryParameter.shouldEncode(),
+                        EXPANDED_VALUE_CAPACITY);
+                continue;
+            } else if (queryParameter.getExpansion() == QueryParameter.Expansion.OPTIONAL) {
+                // the separator, name and '=' are reserved along with the value, as they are only written with it
+                url.appendExpansion("appendQueryParameter", key, value, queryParameter.shouldEncode(),
+                        key.length() + 2 + DYNAMIC_VALUE_CAPACITY);
+                continue;
             }
+            url.appendLiteral(separator + key + "=");
+            url.appendValue(value, queryParameter.shouldEncode() ? "encodeQueryParameter" : null);
+            separator = '&';
         }
 
-        // Remove the last " + \""
-        if (matcher.hitEnd()) {
-            matcher.appendTail(buffer);
+        method.getUrlStaticImports().addAll(url.staticImports);
+        return url.toString();
+    }
 
-            if (!hasQueryParams) {
-                buffer.append("\"");
-            }
+    // Accumulates the pieces of the URL, merging adjacent static segments, and renders them as a Java expression
+    private static final class UrlExpression {
+        private final List<String> appends = new ArrayList<>();
+        private final List<String[]> expansions = new ArrayList<>();
+        private final Set<String> staticImports = new TreeSet<>();
+        private final StringBuilder pendingLiteral = new StringBuilder();
+        private int literalLength;
+        private int dynamicValues;
+        private int expansionCapacity;
+
+        void appendLiteral(String literal) {
+            pendingLiteral.append(literal);
         }
 
-        if (hasQueryParams) {
-            buffer.append("?");
-            for (Map.Entry<String, String> entry : method.getQueryParams().entrySet()) {
-                final String key = entry.getKey();
-                final String value = entry.getValue();
-                if (key.isEmpty() || value.isEmpty()) {
-                    throw new IllegalArgumentException("Query parameter key and value must not be empty");
-                }
-                buffer.append(entry.getKey()).append("=\" + ").append(entry.getValue()).append(" + \"&");
+        void appendValue(String variableName, String encoder) {
+            flushLiteral();
+            if (encoder == null) {
+                appends.add(variableName);
+            } else {
+                appends.add(encoder + "(" + variableName + ")");
+                staticImports.add(PERCENT_ENCODER + "." + encoder);
             }
-            // Remove the last "&\""
-            buffer.delete(buffer.length() - 5, buffer.length());
+            dynamicValues++;
         }
 
-        // Add opening and closing quotes if they are not present and the first/last part is not a substitution
-        if (buffer.charAt(0) != '\"' && !rawHost.startsWith("{")) {
-            buffer.insert(0, '\"');
+        // expansions are applied after all of the appends, each wrapping the expression of the builder so far
+        void appendExpansion(String method, String key, String variableName, boolean encode, int capacity) {
+            expansions.add(new String[] { method + "(", ", " + quote(key) + ", " + variableName + ", " + encode + ")" });
+            staticImports.add(QUERY_PARAMETERS + "." + method);
+            expansionCapacity += capacity;
         }
-        if (!hasQueryParams && buffer.charAt(buffer.length() - 1) != '\"' && !rawHost.endsWith("}")) {
-            buffer.append('\"');
+
+        private void flushLiteral() {
+            if (pendingLiteral.length() > 0) {
+                appends.add(quote(pendingLiteral));
+                literalLength += pendingLiteral.length();
+                pendingLiteral.setLength(0);
+            }
         }
 
-        // strip out unnecessary `+ ""` in the buffer
-        String result = buffer.toString();
-        result = result.replaceAll(" \\+ \"\"", "");
+        @Override
+        public String toString() {
+            flushLiteral();
+
+            // a URL without any dynamic values is simply a string constant
+            if (dynamicValues == 0 && expansions.isEmpty()) {
+                return appends.isEmpty() ? "\"\"" : appends.get(0);
+            }
+
+            StringBuilder expression = new StringBuilder("new StringBuilder(")
+                    .append(literalLength + dynamicValues * DYNAMIC_VALUE_CAPACITY + expansionCapacity)
+                    .append(')');
+            for (String append : appends) {
+                expression.append(".append(").append(append).append(')');
+            }
+
+            String builder = expression.toString();
+            for (String[] expansion : expansions) {
+                builder = expansion[0] + builder + expansion[1];
+            }
+            return builder + ".toString()";
+        }
 
-        return result;
+        private static String quote(CharSequence literal) {
+            StringBuilder quoted = new StringBuilder(literal.length() + 2).append('"');
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\');
+                }
+                quoted.append(c);
+            }
+            return quoted.append('"').toString();
+        }
     }
 }
@@ -0,0 +1,59 @@
+package net.jonathangiles.tools.codegen.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates the time that the annotation processor spends in each phase of code generation, across all service
+ * interfaces and rounds of a compilation. This makes it possible to tell which part of the processor is responsible
+ * when a large API surface makes compilation slow.
+ *
+ * <p>Timings are only recorded on the compiler thread. When sources are rendered in parallel, the rendering phase is
+ * the elapsed time on the compiler thread, not the sum of the time spent on every thread.</p>
+ */
+public final class ProcessorTimings {
+    /**
+     * The phases of code generation. The phases do not overlap, so the time spent in each can be added together.
+     */
+    public enum Phase {
+        /** Reading the service interface from the compiler into the models, excluding path building. */
+        MODEL_EXTRACTION,
+
+        /** Turning the host and path templates into the URL expressions of the generated code. */
+        PATH_BUILDING,
+
+        /** Generating the source text of the implementations from the models. */
+        RENDERING,
+
+        /** Writing the source text through the {@code Filer}. */
+        WRITING
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    public void add(Phase phase, long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        for (Phase phase : Phase.values()) {
+            sb.append(phase.name().toLowerCase(Locale.ROOT).replace('_', ' '))
+                    .append(' ').append(TimeUnit.NANOSECONDS.toMillis(getNanos(phase))).append("ms, ");
+        }
+        return sb.append("total ").append(TimeUnit.NANOSECONDS.toMillis(getTotalNanos())).append("ms").toString();
+    }
+}
@@ -0,0 +1,45 @@
+package net.jonathangiles.tools.codegen.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class UrlTemplateTest {
+
+    private static String segments(String template) {
+        List<UrlTemplate.Segment> segments = UrlTemplate.parse(template).getSegments();
+        return segments.stream().map(s -> (s.isPlaceholder() ? "P:" : "L:") + s.getValue()).collect(Collectors.joining("|"));
+    }
+
+    @Test
+    public void parsesLiteralsAndPlaceholders() {
+        assertEquals("L:https://|P:endpoint|L:/keys/|P:path1", segments("https://{endpoint}/keys/{path1}"));
+    }
+
+    @Test
+    public void parsesAdjacentPlaceholders() {
+        assertEquals("P:a|P:b|L:.html", segments("{a}{b}.html"));
+    }
+
+    @Test
+    public void parsesTemplateWithoutPlaceholders() {
+        assertEquals("L:https://example.com/keys", segments("https://example.com/keys"));
+        assertEquals("", segments(""));
+    }
+
+    @Test
+    public void unclosedBraceIsLiteral() {
+        assertEquals("L:https://|P:endpoint|L:/keys/{path1", segments("https://{endpoint}/keys/{path1"));
+    }
+
+    @Test
+    public void returnsCachedTemplateForSameString() {
+        String template = "https://{endpoint}/cached";
+        assertSame(UrlTemplate.parse(template), UrlTemplate.parse(new String(template)));
+        assertEquals(template, UrlTemplate.parse(template).toString());
+    }
+}
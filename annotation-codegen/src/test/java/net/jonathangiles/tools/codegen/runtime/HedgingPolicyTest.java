@@ -0,0 +1,49 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HedgingPolicyTest {
+
+    @Test
+    public void usesMinimumDelayUntilEnoughResponsesHaveBeenSeen() {
+        HedgingPolicy policy = new HedgingPolicy(95, 100);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.getDelayNanos());
+
+        policy.record(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.getDelayNanos());
+    }
+
+    @Test
+    public void followsPercentileOfResponseTimes() {
+        HedgingPolicy policy = new HedgingPolicy(90, 1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        for (int i = 0; i < 4000; i++) {
+            policy.record(slow);
+        }
+
+        // the percentile is an upper bound that is within 25% of the actual value
+        long delay = policy.getDelayNanos();
+        assertTrue(delay >= slow * 3 / 4 && delay <= slow, "delay was " + delay);
+    }
+
+    @Test
+    public void neverHedgesSoonerThanMinimumDelay() {
+        HedgingPolicy policy = new HedgingPolicy(50, 100);
+        for (int i = 0; i < 4000; i++) {
+            policy.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.getDelayNanos());
+    }
+
+    @Test
+    public void rejectsInvalidPercentile() {
+        assertThrows(IllegalArgumentException.class, () -> new HedgingPolicy(0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new HedgingPolicy(100, 100));
+    }
+}
@@ -0,0 +1,115 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonReaderTest {
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsArrayOfStrings() {
+        JsonReader reader = reader(" [ \"Hello\", \"World!\" ] ");
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        assertEquals("Hello", reader.nextString());
+        assertEquals("World!", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void readsObjectWithScalars() {
+        JsonReader reader = reader("{\"name\":\"foo\",\"count\":-42,\"big\":12345678901234,\"ratio\":1.5e2,\"flag\":true}");
+        reader.beginObject();
+        assertEquals("name", reader.nextName());
+        assertEquals("foo", reader.nextString());
+        assertEquals("count", reader.nextName());
+        assertEquals(-42, reader.nextInt());
+        assertEquals("big", reader.nextName());
+        assertEquals(12345678901234L, reader.nextLong());
+        assertEquals("ratio", reader.nextName());
+        assertEquals(150.0, reader.nextDouble());
+        assertEquals("flag", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+
+    @Test
+    public void readsEscapedAndUnicodeStrings() {
+        JsonReader reader = reader("[\"café\", \"a\\\"b\\\\c\\n\", \"\\u00e9\\u0041\"]");
+        reader.beginArray();
+        assertEquals("café", reader.nextString());
+        assertEquals("a\"b\\c\n", reader.nextString());
+        assertEquals("éA", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    public void readsNulls() {
+        JsonReader reader = reader("[null, \"x\"]");
+        reader.beginArray();
+        assertNull(reader.nextString());
+        assertFalse(reader.nextNull());
+        assertEquals("x", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    public void emptyDocumentIsNull() {
+        assertTrue(reader("").nextNull());
+        assertTrue(reader("  ").nextNull());
+    }
+
+    @Test
+    public void skipsNestedValues() {
+        JsonReader reader = reader("{\"skip\":{\"a\":[1,2,{\"b\":[true,false,null]}],\"c\":\"d\"},\"keep\":7}");
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("keep", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endObject();
+    }
+
+    @Test
+    public void rejectsFractionalLong() {
+        assertThrows(IllegalStateException.class, () -> reader("1.5").nextLong());
+    }
+
+    @Test
+    public void rejectsIntOverflow() {
+        assertThrows(IllegalStateException.class, () -> reader("3000000000").nextInt());
+    }
+
+    @Test
+    public void readsSingleCharacter() {
+        JsonReader reader = reader("[\"a\", \"\\u00e9\"]");
+        reader.beginArray();
+        assertEquals('a', reader.nextChar());
+        assertEquals('\u00e9', reader.nextChar());
+        reader.endArray();
+    }
+
+    @Test
+    public void rejectsEmptyOrLongerStringAsCharacter() {
+        assertThrows(IllegalStateException.class, () -> reader("\"\"").nextChar());
+        assertThrows(IllegalStateException.class, () -> reader("\"ab\"").nextChar());
+    }
+
+    @Test
+    public void rejectsUnexpectedToken() {
+        assertThrows(IllegalStateException.class, () -> reader("{\"a\":1}").beginArray());
+    }
+}
@@ -0,0 +1,93 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JsonWriterTest {
+
+    @Test
+    public void writesNestedStructuresWithCommas() {
+        JsonWriter writer = new JsonWriter()
+                .beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value(true).nullValue().beginObject().endObject().endArray()
+                .name("c").beginObject().name("d").value("e").endObject()
+                .endObject();
+
+        assertEquals("{\"a\":1,\"b\":[true,null,{}],\"c\":{\"d\":\"e\"}}", json(writer));
+    }
+
+    @Test
+    public void escapesStrings() {
+        JsonWriter writer = new JsonWriter().value("quote\" backslash\\ newline\n tab\t control\u0001");
+
+        assertEquals("\"quote\\\" backslash\\\\ newline\\n tab\\t control\\u0001\"", json(writer));
+    }
+
+    @Test
+    public void encodesUtf8() {
+        String value = "café € 😀";
+        byte[] bytes = new JsonWriter().value(value).toBytes();
+
+        assertEquals("\"" + value + "\"", new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8).length, bytes.length);
+    }
+
+    @Test
+    public void writesNumbers() {
+        JsonWriter writer = new JsonWriter()
+                .beginArray()
+                .value(0).value(-42).value(Long.MAX_VALUE).value(Long.MIN_VALUE)
+                .value(2.0).value(0.5).value(1.5f)
+                .endArray();
+
+        assertEquals("[0,-42,9223372036854775807,-9223372036854775808,2,0.5,1.5]", json(writer));
+    }
+
+    @Test
+    public void rejectsNonFiniteNumbers() {
+        assertThrows(IllegalArgumentException.class, () -> new JsonWriter().value(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> new JsonWriter().value(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void writesBytesAsBase64() {
+        JsonWriter writer = new JsonWriter().value(new byte[] { 1, 2, 3 });
+
+        assertEquals("\"AQID\"", json(writer));
+    }
+
+    @Test
+    public void growsBeyondInitialSize() {
+        char[] chars = new char[10_000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+
+        assertEquals("\"" + value + "\"", json(new JsonWriter().value(value)));
+    }
+
+    @Test
+    public void bufferIsReusedAfterToBytes() {
+        assertEquals("\"first\"", json(new JsonWriter().value("first")));
+
+        // the pooled buffer still holds the previous content, which must not leak into the next result
+        assertEquals("1", json(new JsonWriter().value(1)));
+    }
+
+    @Test
+    public void cannotBeUsedAfterToBytes() {
+        JsonWriter writer = new JsonWriter().value(1);
+        writer.toBytes();
+
+        assertThrows(IllegalStateException.class, () -> writer.value(2));
+    }
+
+    private static String json(JsonWriter writer) {
+        return new String(writer.toBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OperationMetricsTest {
+
+    @Test
+    public void recordsCallsAndErrorsByStatusCode() {
+        OperationMetrics metrics = new OperationMetrics("getKey");
+        long start = System.nanoTime();
+        metrics.recordCall(start);
+        metrics.recordError(UnexpectedStatusCodeException.of(404));
+        metrics.recordCall(start);
+        metrics.recordError(UnexpectedStatusCodeException.of(404));
+        metrics.recordCall(start);
+        metrics.recordError(new UncheckedIOException(new IOException("connection reset")));
+        metrics.recordCall(start);
+
+        OperationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals("getKey", snapshot.getOperation());
+        assertEquals(4, snapshot.getCalls());
+        assertEquals(3, snapshot.getErrors());
+        assertEquals(2L, snapshot.getErrorsByStatusCode().get(404));
+        assertEquals(1L, snapshot.getErrorsByStatusCode().get(OperationMetrics.NO_STATUS_CODE));
+        assertEquals(4, snapshot.getLatency().getCount());
+    }
+
+    @Test
+    public void recordsConcurrently() throws InterruptedException {
+        OperationMetrics metrics = new OperationMetrics("setKey");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    metrics.recordCall(System.nanoTime());
+                    metrics.recordError(UnexpectedStatusCodeException.of(503));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        OperationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(40_000, snapshot.getCalls());
+        assertEquals(40_000L, snapshot.getErrorsByStatusCode().get(503));
+        assertEquals(40_000, snapshot.getLatency().getCount());
+    }
+}
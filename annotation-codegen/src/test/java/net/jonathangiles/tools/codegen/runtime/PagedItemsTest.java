@@ -0,0 +1,138 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PagedItemsTest {
+
+    @Test
+    public void pagesAreOnlyRequestedWhenIterated() {
+        Pages pages = new Pages()
+                .page(null, Arrays.asList("a", "b"), "2")
+                .page("2", Collections.emptyList(), "3")
+                .page("3", Collections.singletonList("c"), null);
+        PagedItems<String> items = new PagedItems<>(pages::fetch, false);
+        assertEquals(Collections.emptyList(), pages.requested);
+
+        Iterator<String> iterator = items.iterator();
+        assertEquals(Collections.emptyList(), pages.requested);
+        assertEquals("a", iterator.next());
+        assertEquals("b", iterator.next());
+        assertEquals(Collections.singletonList(null), pages.requested);
+
+        // empty pages are skipped
+        assertEquals("c", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertEquals(Arrays.asList(null, "2", "3"), pages.requested);
+    }
+
+    @Test
+    public void nextPageIsPrefetched() {
+        Pages pages = new Pages()
+                .page(null, Arrays.asList("a", "b"), "2")
+                .page("2", Collections.singletonList("c"), null);
+        Iterator<String> iterator = new PagedItems<>(pages::fetch, true).iterator();
+
+        assertEquals("a", iterator.next());
+        assertEquals(Arrays.asList(null, "2"), pages.requested);
+        assertEquals(Arrays.asList("b", "c"), Arrays.asList(iterator.next(), iterator.next()));
+        assertFalse(iterator.hasNext());
+        assertEquals(Arrays.asList(null, "2"), pages.requested);
+    }
+
+    @Test
+    public void eachIterationStartsFromFirstPage() {
+        Pages pages = new Pages()
+                .page(null, Collections.singletonList("a"), "2")
+                .page("2", Collections.singletonList("b"), "");
+        PagedItems<String> items = new PagedItems<>(pages::fetch, true);
+
+        List<String> first = new ArrayList<>();
+        items.forEach(first::add);
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(Arrays.asList("a", "b"), items.stream().collect(Collectors.toList()));
+        assertEquals(Arrays.asList(null, "2", null, "2"), pages.requested);
+    }
+
+    @Test
+    public void missingPageEndsIteration() {
+        PagedItems<String> items = new PagedItems<>(continuation -> CompletableFuture.completedFuture(null), true);
+        assertFalse(items.iterator().hasNext());
+
+        PagedItems<String> noItems = new PagedItems<>(
+                continuation -> CompletableFuture.completedFuture(new Page<>(null, null)), true);
+        assertFalse(noItems.iterator().hasNext());
+    }
+
+    @Test
+    public void closingStreamCancelsPrefetchedPage() {
+        CompletableFuture<Page<String>> secondPage = new CompletableFuture<>();
+        PagedItems<String> items = new PagedItems<>(continuation -> continuation == null
+                ? CompletableFuture.completedFuture(new Page<>(Arrays.asList("a", "b"), "2"))
+                : secondPage, true);
+
+        try (Stream<String> stream = items.stream()) {
+            assertEquals("a", stream.findFirst().get());
+        }
+        assertTrue(secondPage.isCancelled());
+    }
+
+    @Test
+    public void failedPageIsRethrown() {
+        IllegalStateException failure = new IllegalStateException("failed");
+        CompletableFuture<Page<String>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(failure);
+        Iterator<String> iterator = new PagedItems<>(continuation -> failed, true).iterator();
+
+        assertSame(failure, assertThrows(IllegalStateException.class, iterator::hasNext));
+    }
+
+    @Test
+    public void nextLinksAreResolvedAgainstFirstPage() {
+        assertEquals("https://other/keys?page=2",
+                PagedItems.resolveNextLink("https://host/keys?top=5", "https://other/keys?page=2"));
+        assertEquals("https://host/keys?page=2", PagedItems.resolveNextLink("https://host/keys?top=5", "/keys?page=2"));
+        assertEquals("https://host/v1/keys?page=2",
+                PagedItems.resolveNextLink("https://host/v1/items?top=5", "keys?page=2"));
+    }
+
+    @Test
+    public void continuationTokensAreAddedAsQueryParameter() {
+        assertEquals("https://host/keys?ct=a%20b", PagedItems.withContinuationToken("https://host/keys", "ct", "a b"));
+        assertEquals("https://host/keys?top=5&ct=a%26b",
+                PagedItems.withContinuationToken("https://host/keys?top=5", "ct", "a&b"));
+    }
+
+    private static final class Pages {
+        private final Map<String, Page<String>> pages = new HashMap<>();
+        private final List<String> requested = new ArrayList<>();
+
+        Pages page(String continuation, List<String> items, String nextContinuation) {
+            pages.put(continuation, new Page<>(items, nextContinuation));
+            return this;
+        }
+
+        CompletableFuture<Page<String>> fetch(String continuation) {
+            requested.add(continuation);
+            return CompletableFuture.completedFuture(pages.get(continuation));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PercentEncoderTest {
+
+    @Test
+    public void returnsSafeValuesAsIs() {
+        String value = "abc-XYZ_0.9~";
+        assertSame(value, PercentEncoder.encodePathSegment(value));
+        assertSame(value, PercentEncoder.encodeQueryParameter(value));
+    }
+
+    @Test
+    public void encodesPathSegment() {
+        assertEquals("a%2Fb%20c%2Bd", PercentEncoder.encodePathSegment("a/b c+d"));
+        assertEquals("key:1@host", PercentEncoder.encodePathSegment("key:1@host"));
+    }
+
+    @Test
+    public void encodesQueryParameter() {
+        assertEquals("a%26b%3Dc%23d%2Be%20f", PercentEncoder.encodeQueryParameter("a&b=c#d+e f"));
+        assertEquals("a/b?c", PercentEncoder.encodeQueryParameter("a/b?c"));
+    }
+
+    @Test
+    public void encodesNonAsciiAsUtf8() {
+        assertEquals("caf%C3%A9", PercentEncoder.encodePathSegment("café"));
+        assertEquals("%E2%82%AC", PercentEncoder.encodeQueryParameter("€"));
+        assertEquals("%F0%9F%98%80", PercentEncoder.encodeQueryParameter("😀"));
+        assertEquals("%3F", PercentEncoder.encodeQueryParameter("\uD83D"));
+    }
+
+    @Test
+    public void encodesNonStringValues() {
+        assertEquals("42", PercentEncoder.encodePathSegment((Object) 42));
+        assertEquals("true", PercentEncoder.encodeQueryParameter((Object) Boolean.TRUE));
+    }
+
+    @Test
+    public void passesThroughNull() {
+        assertNull(PercentEncoder.encodePathSegment((String) null));
+        assertNull(PercentEncoder.encodeQueryParameter((Object) null));
+    }
+}
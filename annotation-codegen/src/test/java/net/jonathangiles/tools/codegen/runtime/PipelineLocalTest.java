@@ -0,0 +1,78 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PipelineLocalTest {
+
+    // a pipeline with value-based equality, to check that pipelines are compared by identity
+    private static final class Pipeline {
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Pipeline;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void eachPipelineHasStateOfItsOwn() {
+        AtomicInteger created = new AtomicInteger();
+        PipelineLocal<Pipeline, Object> state = new PipelineLocal<>(() -> created.incrementAndGet());
+        Pipeline first = new Pipeline();
+        Pipeline second = new Pipeline();
+
+        assertSame(state.get(first), state.get(first));
+        assertNotSame(state.get(first), state.get(second));
+        assertEquals(2, created.get());
+        assertEquals(2, state.size());
+    }
+
+    @Test
+    public void stateIsKeptWhilePipelineIsReachable() throws InterruptedException {
+        PipelineLocal<Pipeline, Object> state = new PipelineLocal<>(Object::new);
+        Pipeline pipeline = new Pipeline();
+        WeakReference<Object> created = new WeakReference<>(state.get(pipeline));
+
+        // nothing but the pipeline's entry references the state, which is still there after a GC
+        System.gc();
+        Thread.sleep(10);
+        assertNotNull(created.get());
+        assertSame(created.get(), state.get(pipeline));
+    }
+
+    @Test
+    public void nullPipelineIsNotCached() {
+        PipelineLocal<Pipeline, Object> state = new PipelineLocal<>(Object::new);
+
+        assertNotSame(state.get(null), state.get(null));
+        assertEquals(0, state.size());
+    }
+
+    @Test
+    public void collectedPipelinesAreRemoved() throws InterruptedException {
+        PipelineLocal<Pipeline, Object> state = new PipelineLocal<>(Object::new);
+        for (int i = 0; i < 100; i++) {
+            state.get(new Pipeline());
+        }
+
+        // entries are removed lazily when new state is created, so keep creating it until a GC has happened
+        for (int i = 0; i < 50 && state.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            state.get(new Pipeline());
+        }
+        assertTrue(state.size() < 100, "expected collected pipelines to be removed, but size was " + state.size());
+    }
+}
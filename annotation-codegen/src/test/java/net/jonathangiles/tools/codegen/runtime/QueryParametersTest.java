@@ -0,0 +1,60 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueryParametersTest {
+
+    @Test
+    public void appendsMultipleParametersAndSkipsNulls() {
+        StringBuilder url = new StringBuilder("https://host/keys");
+        QueryParameters.appendMultipleQueryParameters(url, "tag", Arrays.asList("a", null, "b c"), true);
+        assertEquals("https://host/keys?tag=a&tag=b%20c", url.toString());
+    }
+
+    @Test
+    public void appendsSingleParameterUnlessNull() {
+        StringBuilder url = new StringBuilder("https://host/keys");
+        QueryParameters.appendQueryParameter(url, "a", null, true);
+        QueryParameters.appendQueryParameter(url, "b", "x y", true);
+        QueryParameters.appendQueryParameter(url, "c", null, true);
+        QueryParameters.appendQueryParameter(url, "d", 42, true);
+        assertEquals("https://host/keys?b=x%20y&d=42", url.toString());
+    }
+
+    @Test
+    public void appendsAfterExistingQueryString() {
+        StringBuilder url = new StringBuilder("https://host/keys?x=1");
+        QueryParameters.appendMultipleQueryParameters(url, "n", new int[] { 1, 2 }, true);
+        QueryParameters.appendDelimitedQueryParameter(url, "m", new long[] { 3, 4 }, true);
+        assertEquals("https://host/keys?x=1&n=1&n=2&m=3,4", url.toString());
+    }
+
+    @Test
+    public void appendsDelimitedParameterAndEscapesDelimiter() {
+        StringBuilder url = new StringBuilder("https://host/keys");
+        QueryParameters.appendDelimitedQueryParameter(url, "tags", new Object[] { "a,b", null, 7, true }, true);
+        assertEquals("https://host/keys?tags=a%2Cb,7,true", url.toString());
+    }
+
+    @Test
+    public void leavesValuesAsIsWhenAlreadyEncoded() {
+        StringBuilder url = new StringBuilder("https://host/keys");
+        QueryParameters.appendDelimitedQueryParameter(url, "tags", Arrays.asList("a%2Cb", "c"), false);
+        assertEquals("https://host/keys?tags=a%2Cb,c", url.toString());
+    }
+
+    @Test
+    public void leavesOutEmptyAndNullParameters() {
+        StringBuilder url = new StringBuilder("https://host/keys");
+        QueryParameters.appendMultipleQueryParameters(url, "a", Collections.emptyList(), true);
+        QueryParameters.appendDelimitedQueryParameter(url, "b", Arrays.asList(null, null), true);
+        QueryParameters.appendMultipleQueryParameters(url, "c", (Object[]) null, true);
+        QueryParameters.appendDelimitedQueryParameter(url, "d", (int[]) null, true);
+        assertEquals("https://host/keys", url.toString());
+    }
+}
@@ -0,0 +1,54 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RequestBodiesTest {
+
+    @Test
+    public void lengthOfInMemoryStream() throws IOException {
+        ByteArrayInputStream stream = new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8));
+        stream.read();
+        assertEquals(4L, RequestBodies.contentLength(stream));
+    }
+
+    @Test
+    public void lengthOfFileStreamAndChannelFromPosition() throws IOException {
+        Path file = Files.createTempFile("request-bodies", ".txt");
+        try {
+            Files.write(file, "file-content".getBytes(StandardCharsets.UTF_8));
+
+            try (FileInputStream stream = new FileInputStream(file.toFile())) {
+                stream.skip(5);
+                assertEquals(7L, RequestBodies.contentLength(stream));
+            }
+            try (FileChannel channel = FileChannel.open(file)) {
+                channel.position(2);
+                assertEquals(10L, RequestBodies.contentLength(channel));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void lengthOfOtherStreamsIsUnknown() {
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(new byte[10]));
+        assertNull(RequestBodies.contentLength(stream));
+        assertNull(RequestBodies.contentLength(Channels.newChannel(stream)));
+        assertNull(RequestBodies.contentLength((InputStream) null));
+    }
+}
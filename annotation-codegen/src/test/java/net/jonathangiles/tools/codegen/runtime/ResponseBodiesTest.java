@@ -0,0 +1,63 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ResponseBodiesTest {
+
+    @Test
+    public void closingStreamClosesResponseOnce() throws IOException {
+        AtomicInteger closed = new AtomicInteger();
+        InputStream stream = ResponseBodies.closing(body("payload"), closed::incrementAndGet);
+
+        assertEquals('p', stream.read());
+        assertEquals(0, closed.get());
+
+        stream.close();
+        stream.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void closingChannelClosesResponse() throws IOException {
+        AtomicInteger closed = new AtomicInteger();
+        ReadableByteChannel channel = ResponseBodies.closingChannel(body("payload"), closed::incrementAndGet);
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertEquals(7, channel.read(buffer));
+        assertEquals(0, closed.get());
+
+        channel.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void responseIsClosedWhenBodyFailsToClose() {
+        AtomicInteger closed = new AtomicInteger();
+        InputStream failing = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("failed");
+            }
+        };
+        Closeable response = closed::incrementAndGet;
+
+        assertThrows(IOException.class, () -> ResponseBodies.closing(failing, response).close());
+        assertEquals(1, closed.get());
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
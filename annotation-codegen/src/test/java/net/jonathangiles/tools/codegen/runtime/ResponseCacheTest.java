@@ -0,0 +1,100 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResponseCacheTest {
+    private static final byte[] BODY = {1, 2, 3};
+
+    @Test
+    public void freshUntilMaxAge() {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put("a", BODY, null, null, "public, max-age=60");
+        ResponseCache.Entry entry = cache.get("a");
+        assertTrue(entry.isFresh());
+        assertArrayEquals(BODY, entry.getBody());
+    }
+
+    @Test
+    public void staleResponseWithValidatorIsKept() {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put("a", BODY, "\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT", null);
+        ResponseCache.Entry entry = cache.get("a");
+        assertFalse(entry.isFresh());
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", entry.getLastModified());
+
+        cache.put("b", BODY, "\"v1\"", null, "max-age=60, no-cache");
+        assertFalse(cache.get("b").isFresh());
+    }
+
+    @Test
+    public void doesNotStoreUnusableResponses() {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put("a", BODY, null, null, null);
+        assertNull(cache.get("a"));
+
+        cache.put("b", BODY, "\"v1\"", null, "no-store");
+        assertNull(cache.get("b"));
+
+        // a response that can no longer be stored replaces the one that was
+        cache.put("c", BODY, "\"v1\"", null, null);
+        cache.put("c", BODY, "\"v2\"", null, "No-Store");
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void revalidationMakesEntryFreshAgain() {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put("a", BODY, "\"v1\"", null, null);
+        ResponseCache.Entry stale = cache.get("a");
+
+        cache.revalidated("a", stale, "max-age=60");
+        ResponseCache.Entry fresh = cache.get("a");
+        assertTrue(fresh.isFresh());
+        assertSame(BODY, fresh.getBody());
+        assertEquals("\"v1\"", fresh.getETag());
+
+        // a stale entry that has been replaced in the meantime does not overwrite the newer one
+        cache.put("a", new byte[0], "\"v2\"", null, null);
+        cache.revalidated("a", stale, "max-age=60");
+        assertEquals("\"v2\"", cache.get("a").getETag());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(2);
+        cache.put("a", BODY, "\"a\"", null, null);
+        cache.put("b", BODY, "\"b\"", null, null);
+        cache.get("a");
+        cache.put("c", BODY, "\"c\"", null, null);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("\"a\"", cache.get("a").getETag());
+        assertEquals("\"c\"", cache.get("c").getETag());
+    }
+
+    @Test
+    public void parsesMaxAge() {
+        assertEquals(TimeUnit.SECONDS.toNanos(30), ResponseCache.maxAgeNanos("private, max-age=30"));
+        assertEquals(0, ResponseCache.maxAgeNanos("max-age=abc"));
+        assertEquals(0, ResponseCache.maxAgeNanos("max-age=-5"));
+        assertEquals(0, ResponseCache.maxAgeNanos("no-cache, max-age=30"));
+        assertEquals(-1, ResponseCache.maxAgeNanos("max-age=30, no-store"));
+    }
+
+    @Test
+    public void rejectsNonPositiveMaxEntries() {
+        assertThrows(IllegalArgumentException.class, () -> new ResponseCache(0));
+    }
+}
@@ -0,0 +1,105 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallsForSameKeyRunOnce() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> started = new CompletableFuture<>();
+        CompletableFuture<String> leader = singleFlight.executeAsync("a", () -> {
+            calls.incrementAndGet();
+            return started;
+        });
+
+        List<String> results = new CopyOnWriteArrayList<>();
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread waiter = new Thread(() -> results.add(singleFlight.execute("a", () -> {
+                calls.incrementAndGet();
+                return "not coalesced";
+            })));
+            waiter.start();
+            waiters.add(waiter);
+        }
+        CompletableFuture<String> asyncWaiter = singleFlight.executeAsync("a", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("not coalesced");
+        });
+
+        // the call only finishes once the blocking waiters are waiting for it
+        for (Thread waiter : waiters) {
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        started.complete("result");
+        for (Thread waiter : waiters) {
+            waiter.join(10_000);
+        }
+
+        assertEquals("result", leader.get(10, TimeUnit.SECONDS));
+        assertEquals("result", asyncWaiter.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("result", "result", "result"), results);
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void callRunsAgainOnceFinished() {
+        SingleFlight<Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(1, singleFlight.execute("a", calls::incrementAndGet));
+        assertEquals(2, singleFlight.execute("a", calls::incrementAndGet));
+        assertEquals(3, singleFlight.execute("b", calls::incrementAndGet));
+    }
+
+    @Test
+    public void failureIsSharedWithWaiters() {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> started = new CompletableFuture<>();
+        CompletableFuture<String> leader = singleFlight.executeAsync("a", () -> started);
+        CompletableFuture<String> waiter = singleFlight.executeAsync("a", () -> CompletableFuture.completedFuture("x"));
+
+        IllegalStateException failure = new IllegalStateException("boom");
+        started.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(Exception.class, leader::join).getCause());
+        assertSame(failure, assertThrows(Exception.class, waiter::join).getCause());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void cancellingOneCallerDoesNotCancelOthers() {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> started = new CompletableFuture<>();
+        CompletableFuture<String> leader = singleFlight.executeAsync("a", () -> started);
+        CompletableFuture<String> waiter = singleFlight.executeAsync("a", () -> CompletableFuture.completedFuture("x"));
+
+        leader.cancel(true);
+        started.complete("result");
+        assertEquals("result", waiter.join());
+    }
+
+    @Test
+    public void keysIncludeHeaderValues() {
+        assertEquals("https://host/a", RequestKey.of("https://host/a"));
+        assertNotEquals(RequestKey.of("https://host/a", "t1"), RequestKey.of("https://host/a", "t2"));
+        assertNotEquals(RequestKey.of("https://host/a", "x", null), RequestKey.of("https://host/a", null, "x"));
+    }
+}
@@ -0,0 +1,40 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class UnexpectedStatusCodeExceptionTest {
+
+    @Test
+    public void mapsStatusCodesToTypedExceptions() {
+        assertSame(ResourceNotFoundException.class, UnexpectedStatusCodeException.of(404).getClass());
+        assertSame(ThrottledException.class, UnexpectedStatusCodeException.of(429).getClass());
+        assertSame(ServiceUnavailableException.class, UnexpectedStatusCodeException.of(503).getClass());
+        assertSame(ClientErrorException.class, UnexpectedStatusCodeException.of(400).getClass());
+        assertSame(ServerErrorException.class, UnexpectedStatusCodeException.of(500).getClass());
+        assertSame(UnexpectedStatusCodeException.class, UnexpectedStatusCodeException.of(302).getClass());
+    }
+
+    @Test
+    public void exposesStatusCodeAndMessage() {
+        UnexpectedStatusCodeException e = UnexpectedStatusCodeException.of(429);
+        assertEquals(429, e.getStatusCode());
+        assertEquals("Unexpected response code: 429", e.getMessage());
+    }
+
+    @Test
+    public void stackTraceIsNotCapturedByDefault() {
+        assertEquals(0, UnexpectedStatusCodeException.of(503).getStackTrace().length);
+    }
+
+    @Test
+    public void suppressedExceptionsAreKept() {
+        UnexpectedStatusCodeException e = UnexpectedStatusCodeException.of(500);
+        UnexpectedStatusCodeException other = UnexpectedStatusCodeException.of(503);
+        e.addSuppressed(other);
+        assertArrayEquals(new Throwable[] { other }, e.getSuppressed());
+    }
+}
@@ -0,0 +1,112 @@
+package net.jonathangiles.tools.codegen.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WeakInstanceCacheTest {
+
+    // a key with value-based equality, to check that the cache compares keys by identity
+    private static final class Key {
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void returnsSameInstanceForSameKey() {
+        WeakInstanceCache<Key, Object> cache = new WeakInstanceCache<>();
+        AtomicInteger created = new AtomicInteger();
+        Key key = new Key();
+
+        Object first = cache.computeIfAbsent(key, k -> new Object[] { k, created.incrementAndGet() });
+        Object second = cache.computeIfAbsent(key, k -> new Object[] { k, created.incrementAndGet() });
+
+        assertSame(first, second);
+        assertEquals(1, created.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void comparesKeysByIdentity() {
+        WeakInstanceCache<Key, Object> cache = new WeakInstanceCache<>();
+        Key first = new Key();
+        Key second = new Key();
+
+        assertNotSame(cache.computeIfAbsent(first, k -> new Object()), cache.computeIfAbsent(second, k -> new Object()));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void nullKeyIsNotCached() {
+        WeakInstanceCache<Key, Object> cache = new WeakInstanceCache<>();
+
+        assertNotSame(cache.computeIfAbsent(null, k -> new Object()), cache.computeIfAbsent(null, k -> new Object()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrentCallersShareOneInstance() throws Exception {
+        WeakInstanceCache<Key, Object> cache = new WeakInstanceCache<>();
+        Key key = new Key();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.computeIfAbsent(key, k -> new Object());
+                }));
+            }
+            start.countDown();
+
+            Set<Object> instances = ConcurrentHashMap.newKeySet();
+            for (Future<Object> result : results) {
+                instances.add(result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, instances.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void collectedKeysAreRemoved() throws InterruptedException {
+        WeakInstanceCache<Key, Object> cache = new WeakInstanceCache<>();
+        for (int i = 0; i < 100; i++) {
+            // the value references its key, as generated instances reference their pipeline
+            cache.computeIfAbsent(new Key(), k -> new Object[] { k });
+        }
+
+        // entries are removed lazily when a new instance is created, so keep creating them until a GC has happened
+        Key retained = new Key();
+        for (int i = 0; i < 50 && cache.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.computeIfAbsent(retained, k -> new Object[] { k });
+        }
+        assertTrue(cache.size() < 100, "expected collected keys to be removed, but size was " + cache.size());
+    }
+}
@@ -0,0 +1,270 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import net.jonathangiles.tools.codegen.AnnotationProcessor;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles service interfaces in memory with the annotation processor, along with the implementations that it
+ * generates, and loads them, so that tests can call generated code against an in-memory pipeline.
+ */
+final class GeneratedCode {
+    private static final Pattern PACKAGE = Pattern.compile("package\\s+([\\w.]+)\\s*;");
+    private static final Pattern TYPE = Pattern.compile("(?:interface|class)\\s+(\\w+)");
+
+    private final Map<String, InMemoryFile> output;
+    private final ClassLoader classLoader;
+
+    private GeneratedCode(Map<String, InMemoryFile> output) {
+        this.output = output;
+        this.classLoader = new InMemoryClassLoader(output);
+    }
+
+    /**
+     * Runs the processor over the given sources, and compiles and loads everything, failing if there are any errors.
+     */
+    static GeneratedCode compile(String... sources) {
+        return compile(Collections.emptyList(), sources);
+    }
+
+    /**
+     * Runs the processor with the given compiler options, such as processor options, over the given sources, and
+     * compiles and loads everything, failing if there are any errors.
+     */
+    static GeneratedCode compile(List<String> options, String... sources) {
+        Map<String, InMemoryFile> output = new LinkedHashMap<>();
+        check(run(getCompiler(), toFileObjects(sources), options, output));
+        return new GeneratedCode(output);
+    }
+
+    /**
+     * Runs the processor over the given sources, and returns the messages of the errors that it reports.
+     */
+    static List<String> errors(String... sources) {
+        return errorDiagnostics(sources).stream()
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the processor over the given sources, and returns the errors that it reports, along with their locations.
+     */
+    static List<Diagnostic<? extends JavaFileObject>> errorDiagnostics(String... sources) {
+        return run(getCompiler(), toFileObjects(sources), Collections.singletonList("-proc:only"),
+                new LinkedHashMap<>()).stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the generated source of the given type.
+     */
+    String getSource(String className) {
+        InMemoryFile source = output.get(className + JavaFileObject.Kind.SOURCE.extension);
+        if (source == null || source.getKind() != JavaFileObject.Kind.SOURCE) {
+            throw new IllegalArgumentException("No source was generated for " + className);
+        }
+        return source.getCharContent(true).toString();
+    }
+
+    Class<?> loadClass(String className) {
+        try {
+            return classLoader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Calls a public method of the given object, or a public static method if the object is a class, unwrapping any
+     * exception that it throws. The method is picked by name and number of arguments.
+     */
+    static Object invoke(Object target, String methodName, Object... args) {
+        Class<?> type = target instanceof Class ? (Class<?>) target : target.getClass();
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(methodName) && method.getParameterCount() == args.length) {
+                try {
+                    return method.invoke(target instanceof Class ? null : target, args);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        throw new IllegalArgumentException("No method " + methodName + " with " + args.length + " arguments in " + type);
+    }
+
+    private static JavaCompiler getCompiler() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler is available, run the tests with a JDK rather than a JRE");
+        }
+        return compiler;
+    }
+
+    private static List<JavaFileObject> toFileObjects(String... sources) {
+        List<JavaFileObject> files = new ArrayList<>();
+        for (String source : sources) {
+            Matcher packageName = PACKAGE.matcher(source);
+            Matcher typeName = TYPE.matcher(source);
+            if (!packageName.find() || !typeName.find()) {
+                throw new IllegalArgumentException("No package or type in source: " + source);
+            }
+            String path = packageName.group(1).replace('.', '/') + "/" + typeName.group(1);
+            files.add(new InMemoryFile(path, JavaFileObject.Kind.SOURCE, source));
+        }
+        return files;
+    }
+
+    private static List<Diagnostic<? extends JavaFileObject>> run(JavaCompiler compiler, List<JavaFileObject> sources,
+                                                                 List<String> extraOptions, Map<String, InMemoryFile> output) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        // surefire runs the tests from a manifest-only jar, so the real class path is taken from its property
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        try (InMemoryFileManager fileManager = new InMemoryFileManager(
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8), output)) {
+            List<String> options = new ArrayList<>(Arrays.asList("-classpath", classPath, "-nowarn", "-source", "8", "-target", "8"));
+            options.addAll(extraOptions);
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+            task.setProcessors(Collections.singletonList(new AnnotationProcessor()));
+            task.call();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+    private static void check(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        String errors = diagnostics.stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(Object::toString)
+                .collect(Collectors.joining("\n"));
+        if (!errors.isEmpty()) {
+            throw new AssertionError("Compilation failed:\n" + errors);
+        }
+    }
+
+    // keeps everything that the compiler and the processor write in memory, keyed by class name, by class name and
+    // extension for sources, or by path
+    private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, InMemoryFile> output;
+
+        InMemoryFileManager(StandardJavaFileManager fileManager, Map<String, InMemoryFile> output) {
+            super(fileManager);
+            this.output = output;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            InMemoryFile file = new InMemoryFile(className.replace('.', '/'), kind, null);
+            output.put(kind == JavaFileObject.Kind.CLASS ? className : className + kind.extension, file);
+            return file;
+        }
+
+        @Override
+        public FileObject getFileForOutput(JavaFileManager.Location location, String packageName, String relativeName,
+                                           FileObject sibling) {
+            String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+            InMemoryFile file = new InMemoryFile(path, JavaFileObject.Kind.OTHER, null);
+            output.put(path, file);
+            return file;
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return a.toUri().equals(b.toUri());
+        }
+    }
+
+    private static final class InMemoryFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        InMemoryFile(String path, Kind kind, String source) {
+            super(URI.create("mem:///" + path + (kind == Kind.OTHER ? "" : kind.extension)), kind);
+            if (source != null) {
+                byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+                content.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            content.reset();
+            return content;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public Writer openWriter() {
+            return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes() {
+            return content.toByteArray();
+        }
+    }
+
+    // loads the compiled classes from memory, and everything else from the test class path
+    private static final class InMemoryClassLoader extends ClassLoader {
+        private final Map<String, InMemoryFile> classes;
+
+        InMemoryClassLoader(Map<String, InMemoryFile> classes) {
+            super(GeneratedCode.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            InMemoryFile file = classes.get(name);
+            if (file == null || file.getKind() != JavaFileObject.Kind.CLASS) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] bytes = file.getBytes();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,904 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.azure.core.http.HttpHeaderName;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.Context;
+import net.jonathangiles.tools.codegen.AnnotationProcessor;
+import net.jonathangiles.tools.codegen.runtime.OperationMetrics;
+import net.jonathangiles.tools.codegen.runtime.UnexpectedStatusCodeException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static net.jonathangiles.tools.codegen.templating.GeneratedCode.invoke;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the code generated by {@link JavaPoetTemplateProcessor}, by compiling it and calling it with an in-memory
+ * pipeline.
+ */
+public class JavaPoetTemplateProcessorTest {
+    private static final String HEADER = "package com.example;\n\n"
+            + "import com.azure.core.util.Context;\n"
+            + "import net.jonathangiles.tools.codegen.annotations.*;\n\n"
+            + "import static net.jonathangiles.tools.codegen.annotations.HttpMethod.*;\n\n";
+
+    // a pipeline whose client answers every request with the given function
+    static HttpPipeline pipeline(Function<HttpRequest, HttpResponse> client) {
+        return new HttpPipelineBuilder()
+                .httpClient(request -> Mono.fromCallable(() -> client.apply(request)))
+                .build();
+    }
+
+    static Object getInstance(GeneratedCode code, String implName, HttpPipeline pipeline) {
+        return invoke(code.loadClass("com.example." + implName), "getInstance", pipeline);
+    }
+
+    @Test
+    public void implWithoutDefaultOrTracingPipeline() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"TracedAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface TracedAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+        assertTrue(code.getSource("com.example.TracedAPIImpl").contains("startScope("));
+
+        HttpPipeline pipeline = pipeline(request -> new MockHttpResponse(request, 200, "\"name\""));
+
+        // a null default pipeline is allowed, and calls then pass a pipeline of their own
+        Object api = getInstance(code, "TracedAPIImpl", null);
+        assertEquals("name", invoke(api, "getName", pipeline, "example.com", Context.NONE));
+        assertEquals("name", ((Mono<?>) invoke(api, "getNameAsync", pipeline, "example.com", Context.NONE)).block());
+
+        // a pipeline without a tracer that is enabled does not start scopes
+        MockTracer tracer = new MockTracer(false);
+        api = getInstance(code, "TracedAPIImpl", new HttpPipelineBuilder()
+                .httpClient(request -> Mono.just(new MockHttpResponse(request, 200, "\"name\"")))
+                .tracer(tracer)
+                .build());
+        assertEquals("name", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals("name", ((Mono<?>) invoke(api, "getNameAsync", "example.com", Context.NONE)).block());
+        assertTrue(tracer.getStarted().isEmpty());
+    }
+
+    @Test
+    public void callsAreTracedThroughThePipelineTheyAreSentThrough() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"TracedAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface TracedAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+        MockTracer defaultTracer = new MockTracer(true);
+        MockTracer tracer = new MockTracer(true);
+        HttpPipeline defaultPipeline = tracingPipeline(defaultTracer);
+        HttpPipeline traced = tracingPipeline(tracer);
+        HttpPipeline untraced = pipeline(request -> new MockHttpResponse(request, 200, "\"name\""));
+
+        // a pipeline of the caller's own that traces is traced, even without a default pipeline
+        Object api = getInstance(code, "TracedAPIImpl", null);
+        assertEquals("name", invoke(api, "getName", traced, "example.com", Context.NONE));
+        assertEquals("name", ((Mono<?>) invoke(api, "getNameAsync", traced, "example.com", Context.NONE)).block());
+        assertEquals(2, tracer.getStarted().size());
+
+        // and the scope is started by that pipeline rather than the default pipeline
+        api = getInstance(code, "TracedAPIImpl", defaultPipeline);
+        assertEquals("name", invoke(api, "getName", traced, "example.com", Context.NONE));
+        assertEquals(3, tracer.getStarted().size());
+        assertTrue(defaultTracer.getStarted().isEmpty());
+
+        // a pipeline of the caller's own that does not trace is not traced, even if the default pipeline traces
+        assertEquals("name", invoke(api, "getName", untraced, "example.com", Context.NONE));
+        assertEquals("name", ((Mono<?>) invoke(api, "getNameAsync", untraced, "example.com", Context.NONE)).block());
+        assertTrue(defaultTracer.getStarted().isEmpty());
+
+        assertEquals("name", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals(1, defaultTracer.getStarted().size());
+    }
+
+    // a pipeline that traces with the given tracer, whose client answers every request with a name
+    private static HttpPipeline tracingPipeline(MockTracer tracer) {
+        return new HttpPipelineBuilder()
+                .httpClient(request -> Mono.just(new MockHttpResponse(request, 200, "\"name\"")))
+                .tracer(tracer)
+                .build();
+    }
+
+    @Test
+    public void nullIntoPrimitivePropertyKeepsDefault() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"ModelAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface ModelAPI {\n"
+                + "    class Model {\n"
+                + "        private int count = 5;\n"
+                + "        private boolean active = true;\n"
+                + "        private String name;\n"
+                + "        public int getCount() { return count; }\n"
+                + "        public void setCount(int count) { this.count = count; }\n"
+                + "        public boolean isActive() { return active; }\n"
+                + "        public void setActive(boolean active) { this.active = active; }\n"
+                + "        public String getName() { return name; }\n"
+                + "        public void setName(String name) { this.name = name; }\n"
+                + "    }\n\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/model\", expectedStatusCodes = { 200 })\n"
+                + "    Model getModel(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        HttpPipeline pipeline = pipeline(request -> new MockHttpResponse(request, 200,
+                "{\"count\":null,\"active\":null,\"name\":\"model\"}"));
+        Object model = invoke(getInstance(code, "ModelAPIImpl", pipeline), "getModel", "example.com", Context.NONE);
+
+        assertEquals(5, invoke(model, "getCount"));
+        assertEquals(true, invoke(model, "isActive"));
+        assertEquals("model", invoke(model, "getName"));
+
+        pipeline = pipeline(request -> new MockHttpResponse(request, 200, "{\"count\":3,\"active\":false}"));
+        model = invoke(getInstance(code, "ModelAPIImpl", pipeline), "getModel", "example.com", Context.NONE);
+        assertEquals(3, invoke(model, "getCount"));
+        assertEquals(false, invoke(model, "isActive"));
+    }
+
+    @Test
+    public void headReturnsWhetherResourceExists() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"HeadAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface HeadAPI {\n"
+                + "    @HttpRequestInformation(method = HEAD, path = \"/things/{name}\")\n"
+                + "    boolean exists(@HostParam(\"endpoint\") String endpoint, @PathParam(\"name\") String name, Context context);\n\n"
+                + "    @HttpRequestInformation(method = HEAD, path = \"/things/{name}\", expectedStatusCodes = { 204 })\n"
+                + "    Boolean existsNoContent(@HostParam(\"endpoint\") String endpoint, @PathParam(\"name\") String name, Context context);\n"
+                + "}\n");
+
+        List<MockHttpResponse> responses = new CopyOnWriteArrayList<>();
+        HttpPipeline pipeline = pipeline(request -> {
+            String path = request.getUrl().getPath();
+            int status = path.endsWith("found") ? 200 : path.endsWith("missing") ? 404 : path.endsWith("empty") ? 204 : 500;
+            MockHttpResponse response = new MockHttpResponse(request, status, null);
+            responses.add(response);
+            return response;
+        });
+        Object api = getInstance(code, "HeadAPIImpl", pipeline);
+
+        assertEquals(true, invoke(api, "exists", "example.com", "found", Context.NONE));
+        assertEquals(false, invoke(api, "exists", "example.com", "missing", Context.NONE));
+        assertEquals(500, assertThrows(UnexpectedStatusCodeException.class,
+                () -> invoke(api, "exists", "example.com", "broken", Context.NONE)).getStatusCode());
+
+        assertEquals(true, invoke(api, "existsNoContent", "example.com", "empty", Context.NONE));
+        assertEquals(false, invoke(api, "existsNoContent", "example.com", "missing", Context.NONE));
+        assertThrows(UnexpectedStatusCodeException.class,
+                () -> invoke(api, "existsNoContent", "example.com", "found", Context.NONE));
+
+        assertEquals(true, ((Mono<?>) invoke(api, "existsAsync", "example.com", "found", Context.NONE)).block());
+        assertEquals(false, ((Mono<?>) invoke(api, "existsAsync", "example.com", "missing", Context.NONE)).block());
+        assertTrue(responses.stream().allMatch(MockHttpResponse::isClosed));
+    }
+
+    @Test
+    public void asyncMethodsCheckStatusAndCloseResponses() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"AsyncAPI\", host = \"https://{endpoint}\",\n"
+                + "        asyncMethods = { AsyncMethodType.MONO, AsyncMethodType.COMPLETABLE_FUTURE })\n"
+                + "public interface AsyncAPI {\n"
+                + "    class Item {\n"
+                + "        private String id;\n"
+                + "        public String getId() { return id; }\n"
+                + "        public void setId(String id) { this.id = id; }\n"
+                + "    }\n\n"
+                + "    class DetailedItem extends Item {\n"
+                + "        private int size;\n"
+                + "        public int getSize() { return size; }\n"
+                + "        public void setSize(int size) { this.size = size; }\n"
+                + "    }\n\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/items/{id}\", expectedStatusCodes = { 200 },\n"
+                + "            returnValueWireType = DetailedItem.class)\n"
+                + "    Item getItem(@HostParam(\"endpoint\") String endpoint, @PathParam(\"id\") String id, Context context);\n\n"
+                + "    @HttpRequestInformation(method = DELETE, path = \"/items/{id}\", expectedStatusCodes = { 204 })\n"
+                + "    void deleteItem(@HostParam(\"endpoint\") String endpoint, @PathParam(\"id\") String id, Context context);\n"
+                + "}\n");
+
+        List<MockHttpResponse> responses = new CopyOnWriteArrayList<>();
+        HttpPipeline pipeline = pipeline(request -> {
+            boolean found = request.getUrl().getPath().endsWith("/a");
+            int status = !found ? 500 : request.getHttpMethod() == HttpMethod.GET ? 200 : 204;
+            MockHttpResponse response = new MockHttpResponse(request, status, found ? "{\"id\":\"a\",\"size\":3}" : "{}");
+            responses.add(response);
+            return response;
+        });
+        Object api = getInstance(code, "AsyncAPIImpl", pipeline);
+
+        // nothing is sent until the Mono is subscribed to
+        Mono<?> item = (Mono<?>) invoke(api, "getItemAsync", "example.com", "a", Context.NONE);
+        assertEquals(0, responses.size());
+
+        // the wire type is deserialized, and returned as the declared type
+        Object result = item.block();
+        assertEquals(code.loadClass("com.example.AsyncAPI$DetailedItem"), result.getClass());
+        assertEquals("a", invoke(result, "getId"));
+        assertEquals(3, invoke(result, "getSize"));
+
+        assertEquals(500, assertThrows(UnexpectedStatusCodeException.class,
+                () -> ((Mono<?>) invoke(api, "getItemAsync", "example.com", "b", Context.NONE)).block()).getStatusCode());
+        assertNull(((Mono<?>) invoke(api, "deleteItemAsync", "example.com", "a", Context.NONE)).block());
+        assertThrows(UnexpectedStatusCodeException.class,
+                () -> ((Mono<?>) invoke(api, "deleteItemAsync", "example.com", "b", Context.NONE)).block());
+
+        CompletableFuture<?> future = (CompletableFuture<?>) invoke(api, "getItemFuture", "example.com", "a", Context.NONE);
+        assertEquals("a", invoke(future.get(10, TimeUnit.SECONDS), "getId"));
+        future = (CompletableFuture<?>) invoke(api, "getItemFuture", "example.com", "b", Context.NONE);
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof UnexpectedStatusCodeException, e.getCause().toString());
+
+        // every response is closed, whether its status was expected or not
+        assertEquals(6, responses.size());
+        assertTrue(responses.stream().allMatch(MockHttpResponse::isClosed));
+    }
+
+    @Test
+    public void onlyCalledUrlHelpersAreImported() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"PlainAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface PlainAPI {\n"
+                + "    @HttpRequestInformation(method = DELETE, path = \"/items\")\n"
+                + "    void deleteItems(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n",
+                HEADER
+                + "@ServiceInterface(name = \"QueryAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface QueryAPI {\n"
+                + "    @HttpRequestInformation(method = DELETE, path = \"/items\")\n"
+                + "    void deleteItems(@HostParam(\"endpoint\") String endpoint, @QueryParam(\"tag\") String tag, Context context);\n"
+                + "}\n");
+
+        assertFalse(code.getSource("com.example.PlainAPIImpl").contains("import static"));
+        String source = code.getSource("com.example.QueryAPIImpl");
+        assertTrue(source.contains("import static net.jonathangiles.tools.codegen.runtime.QueryParameters.appendQueryParameter;"));
+        assertEquals(1, source.split("import static", -1).length - 1, source);
+    }
+
+    @Test
+    public void nullQueryParameterIsLeftOut() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"QueryAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface QueryAPI {\n"
+                + "    @HttpRequestInformation(method = DELETE, path = \"/items?api-version=1\")\n"
+                + "    void deleteItems(@HostParam(\"endpoint\") String endpoint, @QueryParam(\"tag\") String tag,\n"
+                + "                     @QueryParam(\"max\") int max, Context context);\n"
+                + "}\n");
+        List<String> urls = new CopyOnWriteArrayList<>();
+        Object api = getInstance(code, "QueryAPIImpl", pipeline(request -> {
+            urls.add(request.getUrl().toString());
+            return new MockHttpResponse(request, 200, "");
+        }));
+
+        invoke(api, "deleteItems", "example.com", "a b", 5, Context.NONE);
+        invoke(api, "deleteItems", "example.com", null, 5, Context.NONE);
+        assertEquals(Arrays.asList("https://example.com/items?api-version=1&max=5&tag=a%20b",
+                "https://example.com/items?api-version=1&max=5"), urls);
+    }
+
+    @Test
+    public void hedgedRequestsCloseTheResponseThatLoses() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"HedgedAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface HedgedAPI {\n"
+                + "    @Hedged(delayMillis = 0)\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // each request is held until the other has been sent, so that both responses arrive at about the same time,
+        // and a response that is not passed on because its request was cancelled is closed, as the HTTP clients do
+        int calls = 200;
+        List<MockHttpResponse> responses = new CopyOnWriteArrayList<>();
+        AtomicReference<CyclicBarrier> barrier = new AtomicReference<>();
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+                .httpClient(request -> {
+                    AtomicBoolean delivered = new AtomicBoolean();
+                    return Mono.<HttpResponse>create(sink -> Schedulers.boundedElastic().schedule(() -> {
+                        try {
+                            barrier.get().await(10, TimeUnit.SECONDS);
+                        } catch (Exception e) {
+                            sink.error(e);
+                            return;
+                        }
+                        MockHttpResponse response = new MockHttpResponse(request, 200, "\"name\"");
+                        responses.add(response);
+                        sink.success(response);
+                        if (!delivered.get()) {
+                            response.close();
+                        }
+                    })).doOnNext(response -> delivered.set(true));
+                })
+                .build();
+        Object api = getInstance(code, "HedgedAPIImpl", pipeline);
+
+        for (int i = 0; i < calls; i++) {
+            barrier.set(new CyclicBarrier(2));
+            assertEquals("name", invoke(api, "getName", "example.com", Context.NONE));
+        }
+
+        // the response that loses may only arrive once the call has returned
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((responses.size() < 2 * calls || !responses.stream().allMatch(MockHttpResponse::isClosed))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2 * calls, responses.size());
+        assertTrue(responses.stream().allMatch(MockHttpResponse::isClosed));
+    }
+
+    @Test
+    public void hedgedRequestFailsOnlyWhenBothRequestsFail() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"HedgedAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface HedgedAPI {\n"
+                + "    @Hedged(delayMillis = 20)\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // the original request fails at once, before the copy of it is sent, which then answers
+        AtomicInteger requests = new AtomicInteger();
+        HttpPipeline pipeline = pipeline(request -> {
+            if (requests.incrementAndGet() == 1) {
+                throw new IllegalStateException("request 1");
+            }
+            return new MockHttpResponse(request, 200, "\"name\"");
+        });
+        assertEquals("name", invoke(getInstance(code, "HedgedAPIImpl", pipeline), "getName", "example.com", Context.NONE));
+        assertEquals(2, requests.get());
+
+        // when both fail, the error of the original request is thrown, with that of the copy suppressed
+        AtomicInteger failures = new AtomicInteger();
+        pipeline = pipeline(request -> {
+            throw new IllegalStateException("request " + failures.incrementAndGet());
+        });
+        Object api = getInstance(code, "HedgedAPIImpl", pipeline);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals("request 1", e.getMessage());
+        assertTrue(Arrays.stream(e.getSuppressed()).anyMatch(suppressed -> "request 2".equals(suppressed.getMessage())));
+
+        // which is also the case when the pipeline fails with the exceptions of generated code, such as from a policy
+        AtomicInteger statuses = new AtomicInteger(500);
+        pipeline = pipeline(request -> {
+            throw UnexpectedStatusCodeException.of(statuses.getAndIncrement());
+        });
+        Object statusApi = getInstance(code, "HedgedAPIImpl", pipeline);
+        UnexpectedStatusCodeException status = assertThrows(UnexpectedStatusCodeException.class,
+                () -> invoke(statusApi, "getName", "example.com", Context.NONE));
+        assertEquals(500, status.getStatusCode());
+        assertTrue(Arrays.stream(status.getSuppressed()).anyMatch(suppressed -> suppressed instanceof UnexpectedStatusCodeException
+                && ((UnexpectedStatusCodeException) suppressed).getStatusCode() == 501));
+    }
+
+    @Test
+    public void cachedResponsesAreKeptPerPipeline() throws InterruptedException {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"CachedAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface CachedAPI {\n"
+                + "    @Cacheable\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        AtomicInteger requests = new AtomicInteger();
+        HttpPipeline first = cachingPipeline("first", requests);
+        HttpPipeline second = cachingPipeline("second", requests);
+        Object api = getInstance(code, "CachedAPIImpl", first);
+
+        assertEquals("first", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals("first", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals(1, requests.get());
+
+        // a call through a pipeline of its own is not answered from the cache of the default pipeline
+        assertEquals("second", invoke(api, "getName", second, "example.com", Context.NONE));
+        assertEquals("second", ((Mono<?>) invoke(api, "getNameAsync", second, "example.com", Context.NONE)).block());
+        assertEquals("first", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals(2, requests.get());
+
+        // the cache belongs to the pipeline, so it is kept when the instance is collected and created again
+        WeakReference<Object> collected = new WeakReference<>(api);
+        api = null;
+        for (int i = 0; i < 50 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals("first", invoke(getInstance(code, "CachedAPIImpl", first), "getName", "example.com", Context.NONE));
+        assertEquals(2, requests.get());
+    }
+
+    // a pipeline that answers every request with the given name, which may be cached for a minute
+    private static HttpPipeline cachingPipeline(String name, AtomicInteger requests) {
+        return pipeline(request -> {
+            requests.incrementAndGet();
+            MockHttpResponse response = new MockHttpResponse(request, 200, "\"" + name + "\"");
+            response.getHeaders().set(HttpHeaderName.CACHE_CONTROL, "max-age=60");
+            return response;
+        });
+    }
+
+    @Test
+    public void requestsAreOnlyCoalescedThroughTheSamePipeline() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"CoalescedAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface CoalescedAPI {\n"
+                + "    @Coalesced\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // the request through the first pipeline is held until the call through the second one has returned
+        CountDownLatch sent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HttpPipeline first = pipeline(request -> {
+            sent.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new MockHttpResponse(request, 200, "\"first\"");
+        });
+        HttpPipeline second = pipeline(request -> new MockHttpResponse(request, 200, "\"second\""));
+        Object api = getInstance(code, "CoalescedAPIImpl", first);
+
+        CompletableFuture<Object> held = CompletableFuture.supplyAsync(() -> invoke(api, "getName", "example.com", Context.NONE));
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        try {
+            // an identical call through another pipeline sends its own request rather than waiting for the first
+            assertEquals("second", invoke(api, "getName", second, "example.com", Context.NONE));
+            assertEquals("second", ((Mono<?>) invoke(api, "getNameAsync", second, "example.com", Context.NONE)).block());
+        } finally {
+            release.countDown();
+        }
+        assertEquals("first", held.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void batchMethodsKeepOrderBoundConcurrencyAndFailFast() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"BatchAPI\", host = \"https://{endpoint}\", batchMethods = true)\n"
+                + "public interface BatchAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/items/{id}\", expectedStatusCodes = { 200, 204 })\n"
+                + "    String getItem(@HostParam(\"endpoint\") String endpoint, @PathParam(\"id\") String id, Context context);\n"
+                + "}\n");
+        Constructor<?> args = code.loadClass("com.example.BatchAPIImpl$GetItemArgs").getConstructors()[0];
+
+        // each item is answered after the number of milliseconds in its id, the "empty" item without a body, and the
+        // "broken" one with a 500 once the calls after it have been sent
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<String> sent = new CopyOnWriteArrayList<>();
+        List<String> cancelled = new CopyOnWriteArrayList<>();
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+                .httpClient(request -> Mono.defer(() -> {
+                    String path = request.getUrl().getPath();
+                    String id = path.substring(path.lastIndexOf('/') + 1);
+                    sent.add(id);
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    long delayMillis = id.startsWith("slow") ? 10_000 : id.equals("broken") ? 100
+                            : id.matches("\\d+") ? Long.parseLong(id) : 0;
+                    int status = id.equals("empty") ? 204 : id.equals("broken") ? 500 : 200;
+                    AtomicBoolean answered = new AtomicBoolean();
+                    return Mono.delay(Duration.ofMillis(delayMillis))
+                            .<HttpResponse>map(ignored -> {
+                                answered.set(true);
+                                inFlight.decrementAndGet();
+                                return new MockHttpResponse(request, status, status == 200 ? "\"" + id + "\"" : null);
+                            })
+                            .doOnCancel(() -> {
+                                if (!answered.get()) {
+                                    inFlight.decrementAndGet();
+                                    cancelled.add(id);
+                                }
+                            });
+                }))
+                .build();
+        Object api = getInstance(code, "BatchAPIImpl", pipeline);
+
+        // results are in the order of the arguments, however late they arrive, and an empty result is null
+        List<Object> batch = new ArrayList<>();
+        for (String id : new String[] { "200", "empty", "0", "100" }) {
+            batch.add(args.newInstance("example.com", id, Context.NONE));
+        }
+        assertEquals(Arrays.asList("200", null, "0", "100"), invoke(api, "getItemBatch", batch, 4));
+
+        // no more than maxConcurrency calls are in flight at a time
+        batch.clear();
+        for (int i = 0; i < 12; i++) {
+            batch.add(args.newInstance("example.com", "20", Context.NONE));
+        }
+        maxInFlight.set(0);
+        assertEquals(12, ((List<?>) invoke(api, "getItemBatch", batch, 3)).size());
+        assertEquals(3, maxInFlight.get());
+
+        // the first failure fails the batch, cancels the calls in flight, and leaves the rest unsent
+        batch.clear();
+        for (String id : new String[] { "slow1", "broken", "slow2", "slow3", "slow4" }) {
+            batch.add(args.newInstance("example.com", id, Context.NONE));
+        }
+        sent.clear();
+        long start = System.nanoTime();
+        assertEquals(500, assertThrows(UnexpectedStatusCodeException.class,
+                () -> invoke(api, "getItemBatch", batch, 3)).getStatusCode());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(Arrays.asList("slow1", "broken", "slow2"), sent);
+        assertEquals(new HashSet<>(Arrays.asList("slow1", "slow2")), new HashSet<>(cancelled));
+    }
+
+    @Test
+    public void headWithBodyTypeIsRejected() {
+        List<String> errors = GeneratedCode.errors(HEADER
+                + "@ServiceInterface(name = \"HeadAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface HeadAPI {\n"
+                + "    @HttpRequestInformation(method = HEAD, path = \"/things\")\n"
+                + "    String head(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith("HEAD methods must return void or boolean"), errors.get(0));
+    }
+
+    @Test
+    public void unreadableReturnTypeIsReportedAgainstTheMethod() {
+        List<Diagnostic<? extends JavaFileObject>> errors = GeneratedCode.errorDiagnostics(HEADER
+                + "@ServiceInterface(name = \"RunnableAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface RunnableAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/task\")\n"
+                + "    Runnable getTask(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        assertEquals(1, errors.size());
+        assertEquals("Cannot generate a JSON deserializer for type 'java.lang.Runnable'", errors.get(0).getMessage(null));
+        assertEquals(11, errors.get(0).getLineNumber());
+    }
+
+    @Test
+    public void unwritableBodyTypeIsReportedAgainstTheParameter() {
+        List<Diagnostic<? extends JavaFileObject>> errors = GeneratedCode.errorDiagnostics(HEADER
+                + "@ServiceInterface(name = \"RunnableAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface RunnableAPI {\n"
+                + "    @HttpRequestInformation(method = PUT, path = \"/task\")\n"
+                + "    void putTask(@HostParam(\"endpoint\") String endpoint,\n"
+                + "                 @BodyParam(\"application/json\") Runnable task, Context context);\n"
+                + "}\n");
+
+        assertEquals(1, errors.size());
+        assertEquals("Cannot generate a JSON serializer for type 'java.lang.Runnable'", errors.get(0).getMessage(null));
+        assertEquals(12, errors.get(0).getLineNumber());
+    }
+
+    @Test
+    public void pagedMethodFollowsNextLinks() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"PagedAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface PagedAPI {\n"
+                + "    @Paged\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/names\", expectedStatusCodes = { 200 })\n"
+                + "    Iterable<String> listNames(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // the second page links to the third relative to the URL of the first, and the third is empty and the last
+        List<String> urls = new CopyOnWriteArrayList<>();
+        List<MockHttpResponse> responses = new CopyOnWriteArrayList<>();
+        Object api = getInstance(code, "PagedAPIImpl", pipeline(request -> {
+            String url = request.getUrl().toString();
+            urls.add(url);
+            String body = url.endsWith("/names") ? "{\"value\": [\"a\", \"b\"], \"nextLink\": \"https://example.com/names?page=2\"}"
+                    : url.endsWith("page=2") ? "{\"nextLink\": \"/names?page=3\", \"value\": [\"c\"]}"
+                    : "{\"value\": [], \"nextLink\": null}";
+            MockHttpResponse response = new MockHttpResponse(request, 200, body);
+            responses.add(response);
+            return response;
+        }));
+
+        List<String> names = new ArrayList<>();
+        ((Iterable<?>) invoke(api, "listNames", "example.com", Context.NONE)).forEach(name -> names.add((String) name));
+        assertEquals(Arrays.asList("a", "b", "c"), names);
+        assertEquals(Arrays.asList("https://example.com/names", "https://example.com/names?page=2",
+                "https://example.com/names?page=3"), urls);
+        assertTrue(responses.stream().allMatch(MockHttpResponse::isClosed));
+    }
+
+    @Test
+    public void pagedMethodSendsContinuationTokens() {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"PagedAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface PagedAPI {\n"
+                + "    @Paged(itemsName = \"items\", nextLinkName = \"token\", continuationTokenQueryParam = \"ct\")\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/names?api-version=1\", expectedStatusCodes = { 200 })\n"
+                + "    java.util.stream.Stream<String> listNames(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // each token is added to the URL of the first page, and an empty token ends the listing
+        List<String> urls = new CopyOnWriteArrayList<>();
+        Object api = getInstance(code, "PagedAPIImpl", pipeline(request -> {
+            String url = request.getUrl().toString();
+            urls.add(url);
+            String body = url.endsWith("api-version=1") ? "{\"items\": [\"a\"], \"token\": \"t 1\"}"
+                    : url.endsWith("t%201") ? "{\"items\": [], \"token\": \"t2\"}"
+                    : "{\"items\": [\"b\"], \"token\": \"\"}";
+            return new MockHttpResponse(request, 200, body);
+        }));
+
+        try (Stream<?> names = (Stream<?>) invoke(api, "listNames", "example.com", Context.NONE)) {
+            assertEquals(Arrays.asList("a", "b"), names.collect(Collectors.toList()));
+        }
+        assertEquals(Arrays.asList("https://example.com/names?api-version=1",
+                "https://example.com/names?api-version=1&ct=t%201",
+                "https://example.com/names?api-version=1&ct=t2"), urls);
+    }
+
+    @Test
+    public void closingPagedStreamEarlyCancelsPrefetchedPage() throws InterruptedException {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"PagedAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface PagedAPI {\n"
+                + "    @Paged\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/names\", expectedStatusCodes = { 200 })\n"
+                + "    java.util.stream.Stream<String> listNames(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n");
+
+        // the first page answers at once, and the second, which is prefetched, never does
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch cancelled = new CountDownLatch(1);
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+                .httpClient(request -> requests.incrementAndGet() == 1
+                        ? Mono.just(new MockHttpResponse(request, 200, "{\"value\": [\"a\", \"b\"], \"nextLink\": \"/names?page=2\"}"))
+                        : Mono.<HttpResponse>never().doOnCancel(cancelled::countDown))
+                .build();
+        Object api = getInstance(code, "PagedAPIImpl", pipeline);
+
+        try (Stream<?> names = (Stream<?>) invoke(api, "listNames", "example.com", Context.NONE)) {
+            assertEquals("a", names.iterator().next());
+        }
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void streamingBodyIsSentWithItsLengthWhereKnown() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"BlobAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface BlobAPI {\n"
+                + "    @HttpRequestInformation(method = PUT, path = \"/blob\", expectedStatusCodes = { 201 })\n"
+                + "    void upload(@HostParam(\"endpoint\") String endpoint,\n"
+                + "                @BodyParam(\"application/octet-stream\") java.io.InputStream data, Context context);\n"
+                + "    @HttpRequestInformation(method = PUT, path = \"/blob\", expectedStatusCodes = { 201 })\n"
+                + "    void uploadChannel(@HostParam(\"endpoint\") String endpoint,\n"
+                + "                       @BodyParam(\"application/octet-stream\") java.nio.channels.ReadableByteChannel data,\n"
+                + "                       Context context);\n"
+                + "}\n");
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        List<String> lengths = new CopyOnWriteArrayList<>();
+        Object api = getInstance(code, "BlobAPIImpl", pipeline(request -> {
+            bodies.add(request.getBodyAsBinaryData().toString());
+            lengths.add(request.getHeaders().getValue(HttpHeaderName.CONTENT_LENGTH));
+            return new MockHttpResponse(request, 201, "");
+        }));
+
+        // the length of a stream in memory and of a file channel is known, and is what remains from their position,
+        // while that of any other stream is not, so it is sent without a Content-Length
+        invoke(api, "upload", "example.com", new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)),
+                Context.NONE);
+        invoke(api, "upload", "example.com",
+                new BufferedInputStream(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8))), Context.NONE);
+        Path file = Files.createTempFile("blob", ".txt");
+        try {
+            Files.write(file, "hello".getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(file)) {
+                channel.position(2);
+                invoke(api, "uploadChannel", "example.com", channel, Context.NONE);
+            }
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(Arrays.asList("hello", "hello", "llo"), bodies);
+        assertEquals(Arrays.asList("5", null, "3"), lengths);
+    }
+
+    @Test
+    public void jsonBodyIsSentWithItsLength() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"PetAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface PetAPI {\n"
+                + "    @HttpRequestInformation(method = PUT, path = \"/pets\", expectedStatusCodes = { 200 })\n"
+                + "    void putPet(@HostParam(\"endpoint\") String endpoint, @BodyParam(\"application/json\") Pet pet,\n"
+                + "                Context context);\n"
+                + "}\n",
+                "package com.example;\n\n"
+                + "public class Pet {\n"
+                + "    private final String name;\n"
+                + "    public final int age;\n"
+                + "    public final java.util.List<String> tags;\n\n"
+                + "    public Pet(String name, int age, java.util.List<String> tags) {\n"
+                + "        this.name = name;\n"
+                + "        this.age = age;\n"
+                + "        this.tags = tags;\n"
+                + "    }\n\n"
+                + "    public String getName() {\n"
+                + "        return name;\n"
+                + "    }\n"
+                + "}\n");
+        AtomicReference<String> body = new AtomicReference<>();
+        AtomicReference<String> length = new AtomicReference<>();
+        Object api = getInstance(code, "PetAPIImpl", pipeline(request -> {
+            body.set(request.getBodyAsBinaryData().toString());
+            length.set(request.getHeaders().getValue(HttpHeaderName.CONTENT_LENGTH));
+            return new MockHttpResponse(request, 200, "");
+        }));
+
+        // the length is that of the encoded bytes rather than of the characters
+        Object pet = code.loadClass("com.example.Pet").getConstructors()[0]
+                .newInstance("Rex \"the d\u00f6g\"", 3, Arrays.asList("good", "loud"));
+        invoke(api, "putPet", "example.com", pet, Context.NONE);
+        assertEquals("{\"name\":\"Rex \\\"the d\u00f6g\\\"\",\"age\":3,\"tags\":[\"good\",\"loud\"]}", body.get());
+        assertEquals(String.valueOf(body.get().getBytes(StandardCharsets.UTF_8).length), length.get());
+    }
+
+    @Test
+    public void streamedResponseIsClosedWithTheReturnedBody() throws Exception {
+        GeneratedCode code = GeneratedCode.compile(HEADER
+                + "@ServiceInterface(name = \"BlobAPI\", host = \"https://{endpoint}\")\n"
+                + "public interface BlobAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/blob\", expectedStatusCodes = { 200 })\n"
+                + "    java.io.InputStream getStream(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/blob\", expectedStatusCodes = { 200 })\n"
+                + "    java.nio.channels.ReadableByteChannel getChannel(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/blob\", expectedStatusCodes = { 200 })\n"
+                + "    java.nio.ByteBuffer getBuffer(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/blob\", expectedStatusCodes = { 200 })\n"
+                + "    reactor.core.publisher.Flux<java.nio.ByteBuffer> getFlux(@HostParam(\"endpoint\") String endpoint,\n"
+                + "                                                             Context context);\n"
+                + "}\n");
+        AtomicReference<MockHttpResponse> response = new AtomicReference<>();
+        Object api = getInstance(code, "BlobAPIImpl", pipeline(request -> {
+            response.set(new MockHttpResponse(request, 200, "hello"));
+            return response.get();
+        }));
+
+        // the stream and the channel are handed over with the response still open, which closing them closes
+        try (InputStream stream = (InputStream) invoke(api, "getStream", "example.com", Context.NONE)) {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            for (int b = stream.read(); b != -1; b = stream.read()) {
+                read.write(b);
+            }
+            assertEquals("hello", new String(read.toByteArray(), StandardCharsets.UTF_8));
+            assertFalse(response.get().isClosed());
+        }
+        assertTrue(response.get().isClosed());
+
+        try (ReadableByteChannel channel = (ReadableByteChannel) invoke(api, "getChannel", "example.com", Context.NONE)) {
+            ByteBuffer read = ByteBuffer.allocate(16);
+            while (channel.read(read) != -1) {
+                // keep reading until the end of the body
+            }
+            read.flip();
+            assertEquals("hello", StandardCharsets.UTF_8.decode(read).toString());
+            assertFalse(response.get().isClosed());
+        }
+        assertTrue(response.get().isClosed());
+
+        // a buffer is read in full before the method returns, so the response is already closed
+        ByteBuffer buffer = (ByteBuffer) invoke(api, "getBuffer", "example.com", Context.NONE);
+        assertEquals("hello", StandardCharsets.UTF_8.decode(buffer).toString());
+        assertTrue(response.get().isClosed());
+
+        // the response behind a Flux is closed once it completes or is cancelled
+        Flux<?> flux = (Flux<?>) invoke(api, "getFlux", "example.com", Context.NONE);
+        assertFalse(response.get().isClosed());
+        assertEquals("hello", flux.map(b -> StandardCharsets.UTF_8.decode((ByteBuffer) b).toString())
+                .collect(Collectors.joining()).block());
+        assertTrue(response.get().isClosed());
+
+        flux = (Flux<?>) invoke(api, "getFlux", "example.com", Context.NONE);
+        assertFalse(response.get().isClosed());
+        flux.take(0).blockLast();
+        assertTrue(response.get().isClosed());
+    }
+
+    @Test
+    public void metricsRecordCallsErrorsAndLatency() {
+        String source = HEADER
+                + "@ServiceInterface(name = \"MeteredAPI\", host = \"https://{endpoint}\", asyncMethods = { AsyncMethodType.MONO })\n"
+                + "public interface MeteredAPI {\n"
+                + "    @HttpRequestInformation(method = GET, path = \"/name\", expectedStatusCodes = { 200 })\n"
+                + "    String getName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "    @HttpRequestInformation(method = DELETE, path = \"/name\", expectedStatusCodes = { 204 })\n"
+                + "    void deleteName(@HostParam(\"endpoint\") String endpoint, Context context);\n"
+                + "}\n";
+        assertFalse(GeneratedCode.compile(source).getSource("com.example.MeteredAPIImpl").contains("metrics"));
+        GeneratedCode code = GeneratedCode.compile(
+                Collections.singletonList("-A" + AnnotationProcessor.METRICS_OPTION + "=true"), source);
+
+        // the client answers with the next status code, or fails without a response if there is none
+        AtomicReference<Integer> status = new AtomicReference<>();
+        Object api = getInstance(code, "MeteredAPIImpl", pipeline(request -> {
+            if (status.get() == null) {
+                throw new IllegalStateException("connection reset");
+            }
+            return new MockHttpResponse(request, status.get(), "\"name\"");
+        }));
+
+        status.set(200);
+        assertEquals("name", invoke(api, "getName", "example.com", Context.NONE));
+        assertEquals("name", ((Mono<?>) invoke(api, "getNameAsync", "example.com", Context.NONE)).block());
+        status.set(404);
+        assertThrows(UnexpectedStatusCodeException.class, () -> invoke(api, "getName", "example.com", Context.NONE));
+        status.set(500);
+        assertThrows(UnexpectedStatusCodeException.class, () -> invoke(api, "getName", "example.com", Context.NONE));
+        assertThrows(UnexpectedStatusCodeException.class,
+                () -> ((Mono<?>) invoke(api, "getNameAsync", "example.com", Context.NONE)).block());
+        status.set(null);
+        assertThrows(IllegalStateException.class, () -> invoke(api, "getName", "example.com", Context.NONE));
+        status.set(204);
+        invoke(api, "deleteName", "example.com", Context.NONE);
+
+        // the sync and async methods of an operation are recorded together, and each operation separately
+        Map<?, ?> metrics = (Map<?, ?>) invoke(code.loadClass("com.example.MeteredAPIImpl"), "metrics");
+        assertEquals(Arrays.asList("getName", "deleteName"), new ArrayList<>(metrics.keySet()));
+
+        OperationMetrics.Snapshot getName = (OperationMetrics.Snapshot) metrics.get("getName");
+        assertEquals(6, getName.getCalls());
+        assertEquals(4, getName.getErrors());
+        Map<Integer, Long> expectedErrors = new HashMap<>();
+        expectedErrors.put(404, 1L);
+        expectedErrors.put(500, 2L);
+        expectedErrors.put(OperationMetrics.NO_STATUS_CODE, 1L);
+        assertEquals(expectedErrors, getName.getErrorsByStatusCode());
+        assertEquals(6, getName.getLatency().getCount());
+        assertTrue(getName.getLatency().getMaxNanos() > 0);
+
+        OperationMetrics.Snapshot deleteName = (OperationMetrics.Snapshot) metrics.get("deleteName");
+        assertEquals(1, deleteName.getCalls());
+        assertEquals(0, deleteName.getErrors());
+        assertTrue(deleteName.getErrorsByStatusCode().isEmpty());
+        assertEquals(1, deleteName.getLatency().getCount());
+    }
+}
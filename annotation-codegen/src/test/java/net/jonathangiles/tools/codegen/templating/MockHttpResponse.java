@@ -0,0 +1,79 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.BinaryData;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A response whose body is already in memory, and which records whether it has been closed.
+ */
+final class MockHttpResponse extends HttpResponse {
+    private final int statusCode;
+    private final HttpHeaders headers = new HttpHeaders();
+    private final byte[] body;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    MockHttpResponse(HttpRequest request, int statusCode, String body) {
+        super(request);
+        this.statusCode = statusCode;
+        this.body = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    @Deprecated
+    public String getHeaderValue(String name) {
+        return headers.getValue(name);
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Flux<ByteBuffer> getBody() {
+        return body.length == 0 ? Flux.empty() : Flux.just(ByteBuffer.wrap(body));
+    }
+
+    @Override
+    public Mono<byte[]> getBodyAsByteArray() {
+        return body.length == 0 ? Mono.empty() : Mono.just(body);
+    }
+
+    @Override
+    public BinaryData getBodyAsBinaryData() {
+        return BinaryData.fromBytes(body);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString() {
+        return getBodyAsString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString(Charset charset) {
+        return Mono.just(new String(body, charset));
+    }
+
+    @Override
+    public void close() {
+        closed.set(true);
+    }
+}
@@ -0,0 +1,50 @@
+package net.jonathangiles.tools.codegen.templating;
+
+import com.azure.core.util.Context;
+import com.azure.core.util.tracing.Tracer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A tracer that records the names of the spans that are started, and the errors of those that are ended.
+ */
+final class MockTracer implements Tracer {
+    private final boolean enabled;
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+    MockTracer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    List<String> getStarted() {
+        return started;
+    }
+
+    List<Throwable> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public Context start(String methodName, Context context) {
+        started.add(methodName);
+        return context;
+    }
+
+    @Override
+    public void end(String statusMessage, Throwable error, Context context) {
+        if (error != null) {
+            errors.add(error);
+        }
+    }
+
+    @Override
+    public void setAttribute(String key, String value, Context context) {
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,52 @@
+package net.jonathangiles.tools.codegen.utils;
+
+import net.jonathangiles.tools.codegen.annotations.HttpMethod;
+import net.jonathangiles.tools.codegen.models.HttpRequestContext;
+import net.jonathangiles.tools.codegen.models.TemplateInput;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class FingerprintsTest {
+
+    private static TemplateInput templateInput(String path, String header) {
+        HttpRequestContext method = new HttpRequestContext();
+        method.setMethodName("getKeys");
+        method.setHttpMethod(HttpMethod.GET);
+        method.setHost(path);
+        method.setExpectedStatusCodes(new int[] { 200 });
+        method.addHeader(header, "headerValue");
+
+        TemplateInput templateInput = new TemplateInput();
+        templateInput.setServiceInterfaceFQN("com.example.ServiceAPI");
+        templateInput.setHost("{endpoint}");
+        templateInput.setHttpRequestContexts(Collections.singletonList(method));
+        return templateInput;
+    }
+
+    @Test
+    public void sameInputHasSameFingerprint() {
+        assertEquals(Fingerprints.of(templateInput("/keys", "x-ms-foo"), "backend"),
+                Fingerprints.of(templateInput("/keys", "x-ms-foo"), "backend"));
+    }
+
+    @Test
+    public void changedInputHasDifferentFingerprint() {
+        String fingerprint = Fingerprints.of(templateInput("/keys", "x-ms-foo"), "backend");
+        assertNotEquals(fingerprint, Fingerprints.of(templateInput("/values", "x-ms-foo"), "backend"));
+        assertNotEquals(fingerprint, Fingerprints.of(templateInput("/keys", "x-ms-bar"), "backend"));
+        assertNotEquals(fingerprint, Fingerprints.of(templateInput("/keys", "x-ms-foo"), "otherBackend"));
+    }
+
+    @Test
+    public void fingerprintOfValues() {
+        String fingerprint = Fingerprints.of(Arrays.asList("a", "b"));
+        assertEquals(32, fingerprint.length());
+        assertEquals(fingerprint, Fingerprints.of(Arrays.asList("a", "b")));
+        assertNotEquals(fingerprint, Fingerprints.of(Arrays.asList("ab")));
+    }
+}
@@ -0,0 +1,67 @@
+package net.jonathangiles.tools.codegen.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MethodSizeCheckTest {
+
+    private static Map<String, Integer> codeLengths(Class<?> type) throws IOException {
+        String resource = type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = type.getResourceAsStream(resource)) {
+            return MethodSizeCheck.readCodeLengths(in);
+        }
+    }
+
+    @Test
+    public void codeLengthsAreReadFromClassFile() throws IOException {
+        Map<String, Integer> codeLengths = codeLengths(Sample.class);
+
+        // aload_0, invokespecial, return
+        assertEquals(5, codeLengths.get("<init>()V"));
+        // ldc2_w, lreturn, which also checks that the two constant pool entries of a long are skipped
+        assertEquals(4, codeLengths.get("big()J"));
+        // dload_1, ldc2_w, dmul, dreturn
+        assertEquals(6, codeLengths.get("scale(D)D"));
+        assertTrue(codeLengths.get("loop(I)I") > 10);
+    }
+
+    @Test
+    public void abstractMethodsHaveNoCode() throws IOException {
+        assertEquals(0, codeLengths(Runnable.class).size());
+    }
+
+    @Test
+    public void otherFilesAreRejected() {
+        assertThrows(IOException.class,
+                () -> MethodSizeCheck.readCodeLengths(new ByteArrayInputStream("not a class".getBytes())));
+    }
+
+    @SuppressWarnings("unused")
+    static final class Sample {
+        static final long BIG = 12_345_678_901L;
+
+        long big() {
+            return BIG;
+        }
+
+        double scale(double value) {
+            return value * 1.5e300;
+        }
+
+        int loop(int count) {
+            int sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += i * i;
+            }
+            return sum;
+        }
+    }
+}
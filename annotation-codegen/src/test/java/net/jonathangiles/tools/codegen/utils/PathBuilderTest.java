@@ -6,10 +6,14 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import net.jonathangiles.tools.codegen.models.HttpRequestContext;
+import net.jonathangiles.tools.codegen.models.QueryParameter;
 import net.jonathangiles.tools.codegen.models.Substitution;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
 
 public class PathBuilderTest {
 
@@ -18,7 +22,7 @@ public class PathBuilderTest {
         HttpRequestContext context = new HttpRequestContext();
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys\"", result);
+        assertEquals("new StringBuilder(29).append(\"https://\").append(myEndpoint).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -27,7 +31,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path1", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys/{path1}", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys/\" + myPath", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"/keys/\").append(myPath).toString()", result);
     }
 
     @Test
@@ -37,7 +41,16 @@ public class PathBuilderTest {
         context.addQueryParam("key1", "value1");
         context.addQueryParam("key2", "value2");
         String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys?key1=\" + value1 + \"&key2=\" + value2", result);
+        assertEquals("new StringBuilder(73).append(\"https://\").append(myEndpoint).append(\"/keys?key1=\").append(encodeQueryParameter(value1)).append(\"&key2=\").append(encodeQueryParameter(value2)).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithQueryParametersAfterQueryInTemplate() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        context.addQueryParam("key1", "value1");
+        String result = PathBuilder.buildPath("https://{endpoint}/keys?api-version=1", context);
+        assertEquals("new StringBuilder(65).append(\"https://\").append(myEndpoint).append(\"/keys?api-version=1&key1=\").append(encodeQueryParameter(value1)).toString()", result);
     }
 
     @Test
@@ -68,7 +81,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("path1", "myPath"));
         context.addSubstitution(new Substitution("path2", "myPath2"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys/{path1}/{path2}", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys/\" + myPath + \"/\" + myPath2", result);
+        assertEquals("new StringBuilder(63).append(\"https://\").append(myEndpoint).append(\"/keys/\").append(myPath).append(\"/\").append(myPath2).toString()", result);
     }
 
     @Test
@@ -79,7 +92,7 @@ public class PathBuilderTest {
         context.addQueryParam("key2", "value2");
         context.addQueryParam("key3", "value3");
         String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys?key1=\" + value1 + \"&key2=\" + value2 + \"&key3=\" + value3", result);
+        assertEquals("new StringBuilder(95).append(\"https://\").append(myEndpoint).append(\"/keys?key1=\").append(encodeQueryParameter(value1)).append(\"&key2=\").append(encodeQueryParameter(value2)).append(\"&key3=\").append(encodeQueryParameter(value3)).toString()", result);
     }
 
     @Test
@@ -94,7 +107,7 @@ public class PathBuilderTest {
         HttpRequestContext context = new HttpRequestContext();
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys\"", result);
+        assertEquals("new StringBuilder(29).append(\"https://\").append(myEndpoint).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -103,7 +116,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys/{path}/{path}", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys/\" + myPath + \"/\" + myPath", result);
+        assertEquals("new StringBuilder(63).append(\"https://\").append(myEndpoint).append(\"/keys/\").append(myPath).append(\"/\").append(myPath).toString()", result);
     }
 
     @Test
@@ -131,7 +144,7 @@ public class PathBuilderTest {
         context.addQueryParam("key2", "value2");
         context.addQueryParam("key3", "value3");
         String result = PathBuilder.buildPath("https://{endpoint}/keys/{path1}/{path2}", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys/\" + myPath + \"/\" + myPath2 + \"?key1=\" + value1 + \"&key2=\" + value2 + \"&key3=\" + value3", result);
+        assertEquals("new StringBuilder(129).append(\"https://\").append(myEndpoint).append(\"/keys/\").append(myPath).append(\"/\").append(myPath2).append(\"?key1=\").append(encodeQueryParameter(value1)).append(\"&key2=\").append(encodeQueryParameter(value2)).append(\"&key3=\").append(encodeQueryParameter(value3)).toString()", result);
     }
 
     @Test
@@ -169,7 +182,7 @@ public class PathBuilderTest {
         HttpRequestContext context = new HttpRequestContext();
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         String result = PathBuilder.buildPath("https://{endpoint}.azure.com/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \".azure.com/keys\"", result);
+        assertEquals("new StringBuilder(39).append(\"https://\").append(myEndpoint).append(\".azure.com/keys\").toString()", result);
     }
 
     @Test
@@ -178,7 +191,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("domain", "azure"));
         String result = PathBuilder.buildPath("https://{endpoint}.{domain}.com/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \".\" + azure + \".com/keys\"", result);
+        assertEquals("new StringBuilder(50).append(\"https://\").append(myEndpoint).append(\".\").append(azure).append(\".com/keys\").toString()", result);
     }
 
     @Test
@@ -187,7 +200,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("protocol", "protocol"));
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         String result = PathBuilder.buildPath("{protocol}://{endpoint}/keys", context);
-        assertEquals("protocol + \"://\" + myEndpoint + \"/keys\"", result);
+        assertEquals("new StringBuilder(40).append(protocol).append(\"://\").append(myEndpoint).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -196,7 +209,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("query", "myQuery"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys?{query}", context);
-        assertEquals("\"https://\" + myEndpoint + \"/keys?\" + myQuery", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"/keys?\").append(myQuery).toString()", result);
     }
 
     @Test
@@ -205,7 +218,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}/{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"/\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"/\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -214,7 +227,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}-{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"-\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"-\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -223,7 +236,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}_{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"_\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"_\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -232,7 +245,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}%{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"%\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"%\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -241,7 +254,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}+{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"+\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"+\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -250,7 +263,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}1{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"1\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"1\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -259,7 +272,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}*{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"*\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"*\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -268,7 +281,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint} {path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \" \" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\" \").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -277,7 +290,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}a{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"a\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"a\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -286,7 +299,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}\u00A9{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"\u00A9\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"\u00A9\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -295,7 +308,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}*1a{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"*1a\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(48).append(\"https://\").append(myEndpoint).append(\"*1a\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -304,7 +317,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}*1a\u00A9{path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"*1a\u00A9\" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(49).append(\"https://\").append(myEndpoint).append(\"*1a\u00A9\").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -313,7 +326,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("https://{endpoint}*1a\u00A9 {path}/keys", context);
-        assertEquals("\"https://\" + myEndpoint + \"*1a\u00A9 \" + myPath + \"/keys\"", result);
+        assertEquals("new StringBuilder(50).append(\"https://\").append(myEndpoint).append(\"*1a\u00A9 \").append(myPath).append(\"/keys\").toString()", result);
     }
 
     @Test
@@ -324,7 +337,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("path2", "myPath2"));
         context.addSubstitution(new Substitution("path3", "myPath3"));
         String result = PathBuilder.buildPath("https://{endpoint}*1a{path1}\u00A9 {path2}/keys/{path3}", context);
-        assertEquals("\"https://\" + myEndpoint + \"*1a\" + myPath1 + \"\u00A9 \" + myPath2 + \"/keys/\" + myPath3", result);
+        assertEquals("new StringBuilder(83).append(\"https://\").append(myEndpoint).append(\"*1a\").append(myPath1).append(\"\u00A9 \").append(myPath2).append(\"/keys/\").append(myPath3).toString()", result);
     }
 
     @Test
@@ -332,7 +345,41 @@ public class PathBuilderTest {
         HttpRequestContext context = new HttpRequestContext();
         context.addSubstitution(new Substitution("endpoint", "myEndpoint*"));
         String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
-        assertEquals("\"https://\" + myEndpoint* + \"/keys\"", result);
+        assertEquals("new StringBuilder(29).append(\"https://\").append(myEndpoint*).append(\"/keys\").toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithEncodedPathSubstitution() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        context.addSubstitution(new Substitution("path", "myPath", true));
+        String result = PathBuilder.buildPath("https://{endpoint}/keys/{path}", context);
+        assertEquals("new StringBuilder(46).append(\"https://\").append(myEndpoint).append(\"/keys/\").append(encodePathSegment(myPath)).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithPreEncodedQueryParameter() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        context.addQueryParam(new QueryParameter("key1", "value1", false));
+        String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
+        assertEquals("new StringBuilder(51).append(\"https://\").append(myEndpoint).append(\"/keys?key1=\").append(value1).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithOnlyQueryParameters() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addQueryParam("key1", "value1");
+        String result = PathBuilder.buildPath("https://keys", context);
+        assertEquals("new StringBuilder(34).append(\"https://keys?key1=\").append(encodeQueryParameter(value1)).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithQuotesInLiteral() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        String result = PathBuilder.buildPath("https://{endpoint}/\"keys\"", context);
+        assertEquals("new StringBuilder(31).append(\"https://\").append(myEndpoint).append(\"/\\\"keys\\\"\").toString()", result);
     }
 
 //    @Test
@@ -399,7 +446,7 @@ public class PathBuilderTest {
         context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
         context.addSubstitution(new Substitution("path", "myPath"));
         String result = PathBuilder.buildPath("{endpoint}/keys/{path}", context);
-        assertEquals("myEndpoint + \"/keys/\" + myPath", result);
+        assertEquals("new StringBuilder(38).append(myEndpoint).append(\"/keys/\").append(myPath).toString()", result);
     }
 
     @Test
@@ -409,7 +456,7 @@ public class PathBuilderTest {
         context.addQueryParam("key1", "value1");
         context.addQueryParam("key2", "value2");
         String result = PathBuilder.buildPath("{endpoint}/keys", context);
-        assertEquals("myEndpoint + \"/keys?key1=\" + value1 + \"&key2=\" + value2", result);
+        assertEquals("new StringBuilder(65).append(myEndpoint).append(\"/keys?key1=\").append(encodeQueryParameter(value1)).append(\"&key2=\").append(encodeQueryParameter(value2)).toString()", result);
     }
 
     @Test
@@ -420,6 +467,53 @@ public class PathBuilderTest {
         context.addQueryParam("key1", "value1");
         context.addQueryParam("key2", "value2");
         String result = PathBuilder.buildPath("{endpoint}/keys/{path}", context);
-        assertEquals("myEndpoint + \"/keys/\" + myPath + \"?key1=\" + value1 + \"&key2=\" + value2", result);
+        assertEquals("new StringBuilder(82).append(myEndpoint).append(\"/keys/\").append(myPath).append(\"?key1=\").append(encodeQueryParameter(value1)).append(\"&key2=\").append(encodeQueryParameter(value2)).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithMultipleQueryParametersExpansion() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        context.addQueryParam(new QueryParameter("tag", "tags", true, QueryParameter.Expansion.MULTIPLE));
+        context.addQueryParam("key1", "value1");
+        String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
+        assertEquals("appendMultipleQueryParameters(new StringBuilder(115).append(\"https://\").append(myEndpoint).append(\"/keys?key1=\").append(encodeQueryParameter(value1)), \"tag\", tags, true).toString()", result);
+    }
+
+    @Test
+    public void buildsPathWithOptionalQueryParameter() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        context.addQueryParam(new QueryParameter("name", "nameValue", true, QueryParameter.Expansion.OPTIONAL));
+        context.addQueryParam("key1", "value1");
+        String result = PathBuilder.buildPath("https://{endpoint}/keys", context);
+        assertEquals("appendQueryParameter(new StringBuilder(73).append(\"https://\").append(myEndpoint).append(\"/keys?key1=\").append(encodeQueryParameter(value1)), \"name\", nameValue, true).toString()", result);
+        assertEquals(new TreeSet<>(Arrays.asList("net.jonathangiles.tools.codegen.runtime.PercentEncoder.encodeQueryParameter",
+                "net.jonathangiles.tools.codegen.runtime.QueryParameters.appendQueryParameter")), context.getUrlStaticImports());
+    }
+
+    @Test
+    public void buildsPathWithDelimitedQueryParameterExpansions() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addQueryParam(new QueryParameter("a", "first", false, QueryParameter.Expansion.DELIMITED));
+        context.addQueryParam(new QueryParameter("b", "second", true, QueryParameter.Expansion.MULTIPLE));
+        String result = PathBuilder.buildPath("https://keys", context);
+        assertEquals("appendMultipleQueryParameters(appendDelimitedQueryParameter(new StringBuilder(140).append(\"https://keys\"), \"a\", first, false), \"b\", second, true).toString()", result);
+    }
+
+    @Test
+    public void recordsOnlyTheHelpersThatAreCalled() {
+        HttpRequestContext context = new HttpRequestContext();
+        context.addSubstitution(new Substitution("endpoint", "myEndpoint"));
+        PathBuilder.buildPath("https://{endpoint}/keys", context);
+        assertEquals(Collections.emptySet(), context.getUrlStaticImports());
+
+        context.addSubstitution(new Substitution("path", "myPath", true));
+        context.addQueryParam(new QueryParameter("tag", "tags", true, QueryParameter.Expansion.MULTIPLE));
+        PathBuilder.buildPath("https://{endpoint}/keys/{path}", context);
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "net.jonathangiles.tools.codegen.runtime.PercentEncoder.encodePathSegment",
+                "net.jonathangiles.tools.codegen.runtime.QueryParameters.appendMultipleQueryParameters")),
+                context.getUrlStaticImports());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package net.jonathangiles.benchmarks;
+
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.util.Context;
+import net.jonathangiles.tools.codegen.annotations.*;
+
+import java.util.List;
+
+import static net.jonathangiles.tools.codegen.annotations.HttpMethod.*;
+
+// A representative service interface, with the same shape as the GeneratedServiceAPI in the client library, so that
+// the benchmarks measure the code that the annotation processor generates for real clients.
+@ServiceInterface(name = "BenchmarkServiceAPI", host = "{endpoint}")
+public interface BenchmarkServiceAPI {
+    static BenchmarkServiceAPI getInstance(HttpPipeline pipeline) {
+        return ServiceInterfaceFactories.getBenchmarkServiceAPI(pipeline);
+    }
+
+    @HttpRequestInformation(method = GET, path = "/keys/{path1}", expectedStatusCodes = { 200 })
+    List<String> getKeys(@HostParam("endpoint") String endpointParam,
+                         @QueryParam("nameParam") String keysName,
+                         @QueryParam("valueParam") String valsName,
+                         @PathParam("path1") String pathValue,
+                         @HeaderParam("fooValueHeader") String fooValue,
+                         Context context);
+
+    @HttpRequestInformation(method = PUT, path = "/keys")
+    void setKey(@HostParam("endpoint") String endpointP,
+                @QueryParam("nameParam") String keysName,
+                @HeaderParam("fooValueHeader") String fooValue,
+                @BodyParam("text/plain") String key,
+                Context context);
+}
@@ -0,0 +1,69 @@
+package net.jonathangiles.benchmarks;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.BinaryData;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A response whose body is already in memory, so that benchmarks measure the generated code rather than I/O.
+ */
+final class InMemoryHttpResponse extends HttpResponse {
+    private static final HttpHeaders EMPTY_HEADERS = new HttpHeaders();
+
+    private final int statusCode;
+    private final byte[] body;
+
+    InMemoryHttpResponse(HttpRequest request, int statusCode, byte[] body) {
+        super(request);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    @Deprecated
+    public String getHeaderValue(String name) {
+        return null;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return EMPTY_HEADERS;
+    }
+
+    @Override
+    public Flux<ByteBuffer> getBody() {
+        return body.length == 0 ? Flux.empty() : Flux.just(ByteBuffer.wrap(body));
+    }
+
+    @Override
+    public Mono<byte[]> getBodyAsByteArray() {
+        return body.length == 0 ? Mono.empty() : Mono.just(body);
+    }
+
+    @Override
+    public BinaryData getBodyAsBinaryData() {
+        return BinaryData.fromBytes(body);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString() {
+        return getBodyAsString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString(Charset charset) {
+        return Mono.just(new String(body, charset));
+    }
+}
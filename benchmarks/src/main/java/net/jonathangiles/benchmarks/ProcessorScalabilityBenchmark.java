@@ -0,0 +1,251 @@
+package net.jonathangiles.benchmarks;
+
+import net.jonathangiles.tools.codegen.AnnotationProcessor;
+import net.jonathangiles.tools.codegen.utils.ProcessorTimings;
+import net.jonathangiles.tools.codegen.utils.ProcessorTimings.Phase;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the annotation processor scales with the size of a service interface. Synthetic service interfaces
+ * with an increasing number of operations, each with many path, query and header parameters, are compiled in memory
+ * with the processor, and the wall time and peak heap of each compilation are reported along with the time that the
+ * processor spent in each of its phases.
+ *
+ * <p>This is a standalone harness rather than a JMH benchmark, as a single compilation of the largest interfaces
+ * takes seconds, and the per-phase breakdown comes from the processor itself. Run it with:</p>
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.jonathangiles.benchmarks.ProcessorScalabilityBenchmark [operations...]
+ * </pre>
+ */
+public class ProcessorScalabilityBenchmark {
+    private static final int[] DEFAULT_OPERATION_COUNTS = { 10, 100, 500, 1000, 5000 };
+    private static final int ITERATIONS = 3;
+
+    private static final int PATH_PARAMS = 3;
+    private static final int QUERY_PARAMS = 3;
+    private static final int HEADER_PARAMS = 2;
+
+    private static final String PACKAGE_NAME = "net.jonathangiles.benchmarks.synthetic";
+
+    public static void main(String[] args) {
+        int[] operationCounts = args.length == 0
+                ? DEFAULT_OPERATION_COUNTS
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler is available, run this with a JDK rather than a JRE");
+        }
+
+        // the first compilation warms up javac and the processor, and is not reported
+        compile(compiler, 10);
+
+        System.out.printf("%10s %10s %10s %10s %10s %10s %10s %10s%n", "operations", "wall ms", "model ms",
+                "path ms", "render ms", "write ms", "javac ms", "peak MB");
+        for (int operations : operationCounts) {
+            // the median of several compilations, by wall time
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < ITERATIONS; i++) {
+                results.add(compile(compiler, operations));
+            }
+            results.sort(Comparator.comparingLong(result -> result.wallNanos));
+            Result median = results.get(ITERATIONS / 2);
+            long peakHeap = results.stream().mapToLong(result -> result.peakHeapBytes).max().orElse(0);
+
+            ProcessorTimings timings = median.timings;
+            System.out.printf("%10d %10d %10d %10d %10d %10d %10d %10d%n", operations,
+                    millis(median.wallNanos),
+                    millis(timings.getNanos(Phase.MODEL_EXTRACTION)),
+                    millis(timings.getNanos(Phase.PATH_BUILDING)),
+                    millis(timings.getNanos(Phase.RENDERING)),
+                    millis(timings.getNanos(Phase.WRITING)),
+                    millis(median.wallNanos - timings.getTotalNanos()),
+                    peakHeap / (1024 * 1024));
+        }
+    }
+
+    private static Result compile(JavaCompiler compiler, int operations) {
+        AnnotationProcessor processor = new AnnotationProcessor();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject source = new InMemoryFile(PACKAGE_NAME.replace('.', '/') + "/SyntheticServiceAPI",
+                JavaFileObject.Kind.SOURCE, createServiceInterface(operations));
+
+        System.gc();
+        resetPeakHeapUsage();
+        long start = System.nanoTime();
+        try (InMemoryFileManager fileManager = new InMemoryFileManager(
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-classpath", System.getProperty("java.class.path"), "-nowarn"),
+                    null, Collections.singletonList(source));
+            task.setProcessors(Collections.singletonList(processor));
+            task.call();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                throw new IllegalStateException("Compilation of " + operations + " operations failed: " + diagnostic);
+            }
+        }
+        return new Result(wallNanos, getPeakHeapUsage(), processor.getTimings());
+    }
+
+    // generates a service interface where every operation has a host parameter, several path, query and header
+    // parameters, and a Context. Operations alternate between a GET with a response body and a PUT with a request body
+    static String createServiceInterface(int operations) {
+        StringBuilder sb = new StringBuilder(operations * 700)
+                .append("package ").append(PACKAGE_NAME).append(";\n\n")
+                .append("import com.azure.core.util.Context;\n")
+                .append("import net.jonathangiles.tools.codegen.annotations.*;\n\n")
+                .append("import static net.jonathangiles.tools.codegen.annotations.HttpMethod.*;\n\n")
+                .append("@ServiceInterface(name = \"SyntheticServiceAPI\", host = \"https://{endpoint}/api\")\n")
+                .append("public interface SyntheticServiceAPI {\n");
+
+        for (int i = 0; i < operations; i++) {
+            boolean get = i % 2 == 0;
+            StringBuilder path = new StringBuilder("/resource").append(i);
+            for (int p = 0; p < PATH_PARAMS; p++) {
+                path.append("/segment").append(p).append("/{path").append(p).append('}');
+            }
+
+            sb.append("    @HttpRequestInformation(method = ").append(get ? "GET" : "PUT")
+                    .append(", path = \"").append(path).append("\", expectedStatusCodes = { 200, 204 }")
+                    .append(", requestHeaders = { \"Accept: application/json\" })\n")
+                    .append("    ").append(get ? "String" : "void").append(" operation").append(i)
+                    .append("(@HostParam(\"endpoint\") String endpoint");
+            for (int p = 0; p < PATH_PARAMS; p++) {
+                sb.append(", @PathParam(\"path").append(p).append("\") String path").append(p);
+            }
+            for (int q = 0; q < QUERY_PARAMS; q++) {
+                sb.append(", @QueryParam(\"query").append(q).append("\") String query").append(q);
+            }
+            for (int h = 0; h < HEADER_PARAMS; h++) {
+                sb.append(", @HeaderParam(\"x-ms-header-").append(h).append("\") String header").append(h);
+            }
+            if (!get) {
+                sb.append(", @BodyParam(\"application/json\") String body");
+            }
+            sb.append(", Context context);\n\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // the sum of the peaks of each heap pool, which is an upper bound on the peak heap usage as the pools may not
+    // have peaked at the same time
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static final class Result {
+        final long wallNanos;
+        final long peakHeapBytes;
+        final ProcessorTimings timings;
+
+        Result(long wallNanos, long peakHeapBytes, ProcessorTimings timings) {
+            this.wallNanos = wallNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.timings = timings;
+        }
+    }
+
+    // keeps everything that the compiler and the processor write in memory, so that the disk is not measured
+    private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        InMemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new InMemoryFile(className.replace('.', '/'), kind, null);
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName,
+                                           FileObject sibling) {
+            String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+            return new InMemoryFile(path, JavaFileObject.Kind.OTHER, null);
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return a.toUri().equals(b.toUri());
+        }
+    }
+
+    private static final class InMemoryFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        InMemoryFile(String path, Kind kind, String source) {
+            super(URI.create("mem:///" + path + (kind == Kind.OTHER ? "" : kind.extension)), kind);
+            if (source != null) {
+                byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+                content.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            content.reset();
+            return content;
+        }
+
+        @Override
+        public Writer openWriter() {
+            return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.jonathangiles.benchmarks;
+
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.util.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of generated service methods against an in-memory pipeline. Build the module and run
+ * with the GC profiler to also report allocations per call ({@code gc.alloc.rate.norm}):
+ *
+ * <pre>
+ * mvn -pl benchmarks -am package
+ * java -jar benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceMethodBenchmark {
+    private BenchmarkServiceAPI serviceAPI;
+
+    @Setup
+    public void setup() {
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+                .httpClient(new InMemoryHttpClient())
+                .build();
+        serviceAPI = BenchmarkServiceAPI.getInstance(pipeline);
+    }
+
+    @Benchmark
+    public List<String> getKeys() {
+        return serviceAPI.getKeys("https://example.com", "name", "vals", "path value", "bar", Context.NONE);
+    }
+
+    @Benchmark
+    public void setKey() {
+        serviceAPI.setKey("https://example.com", "name", "bar", "key", Context.NONE);
+    }
+}
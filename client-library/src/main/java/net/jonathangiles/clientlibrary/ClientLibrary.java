@@ -2,7 +2,6 @@ package net.jonathangiles.clientlibrary;
 
 import com.azure.core.http.HttpPipeline;
 import com.azure.core.util.Context;
-import com.azure.core.util.tracing.InstrumentationScope;
 import net.jonathangiles.clientlibrary.implementation.GeneratedServiceAPI;
 
 import java.util.List;
@@ -18,15 +17,8 @@ public class ClientLibrary {
 
     private final String endpoint = "foo";
 
+    // the generated method already traces the call, so it is not wrapped in a second scope here
     public List<String> getKeys(String name) {
-        InstrumentationScope scope = pipeline.getInstrumentation().startScope("getKeys", Context.NONE);
-        try {
-            return serviceAPI.getKeys(endpoint, name, "vals", "pathValueHere", "bar", Context.NONE);
-        } catch (RuntimeException e) {
-            scope.setError(e);
-            throw e;
-        } finally {
-            scope.close();
-        }
+        return serviceAPI.getKeys(endpoint, name, "vals", "pathValueHere", "bar", Context.NONE);
     }
 }
@@ -4,7 +4,6 @@ import com.azure.core.http.HttpPipeline;
 import com.azure.core.util.Context;
 import net.jonathangiles.tools.codegen.annotations.*;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import static net.jonathangiles.tools.codegen.annotations.HttpMethod.*;
@@ -19,12 +18,8 @@ public interface GeneratedServiceAPI {
 //        if (pipeline == null) {
 //            throw new IllegalArgumentException("pipeline cannot be null");
 //        }
-        try {
-            Class<?> clazz = Class.forName("net.jonathangiles.clientlibrary.implementation.GeneratedServiceAPIImpl");
-            return (GeneratedServiceAPI) clazz.getMethod("getInstance", HttpPipeline.class).invoke(null, pipeline);
-        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
+        // ServiceInterfaceFactories is generated alongside the implementation, so no reflection is needed
+        return ServiceInterfaceFactories.getGeneratedServiceAPI(pipeline);
     }
 
     @HttpRequestInformation(method = GET, path = "/keys/{path1}", expectedStatusCodes = { 200 })